@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mule.module.mongo.api.AsyncExecutor;
+import org.mule.module.mongo.api.IdLookupBatcher;
+import org.mule.module.mongo.api.QueryCache;
+import org.mule.module.mongo.api.QueryProfiler;
+import org.mule.module.mongo.api.SingleFlight;
+import org.mule.module.mongo.api.WriteBehindBuffer;
+import org.mule.module.mongo.tools.MaterializedView;
+import org.mule.module.mongo.tools.OplogCacheInvalidator;
+import org.mule.module.mongo.tools.OplogMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.DB;
+
+/**
+ * Background services shared by every pooled instance of the connector connected to the
+ * same database with the same user, the same way Mongo instances are shared by host and
+ * port. A connector instance only serves one flow thread at a time, so anything meant to
+ * span concurrent operations, or to run once per database, lives here instead of in the
+ * instance. Services are created by the first instance that needs them, with its
+ * configuration, and stopped when the last instance disconnects. Conflicting settings of
+ * later instances are ignored with a warning.
+ */
+final class ConnectionResources
+{
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionResources.class);
+    private static final Map<String, ConnectionResources> resources = new HashMap<String, ConnectionResources>();
+
+    private final String key;
+    private int references;
+    private OplogMonitor oplogMonitor;
+    private WriteBehindBuffer writeBehindBuffer;
+    private AsyncExecutor asyncExecutor;
+    private QueryCache queryCache;
+    private OplogCacheInvalidator oplogCacheInvalidator;
+    private SingleFlight singleFlight;
+    private IdLookupBatcher idLookupBatcher;
+    private QueryProfiler queryProfiler;
+    /** Views maintained, keyed by target collection */
+    private final Map<String, MaterializedView> materializedViews = new HashMap<String, MaterializedView>();
+    /** Settings every sized service was created with, keyed by service name */
+    private final Map<String, String> serviceSettings = new HashMap<String, String>();
+
+    private ConnectionResources(String key)
+    {
+        this.key = key;
+    }
+
+    /**
+     * @return the resources of the given connection key, to be released on disconnect
+     */
+    static synchronized ConnectionResources acquire(String key)
+    {
+        ConnectionResources connectionResources = resources.get(key);
+        if (connectionResources == null)
+        {
+            connectionResources = new ConnectionResources(key);
+            resources.put(key, connectionResources);
+        }
+        connectionResources.references++;
+        return connectionResources;
+    }
+
+    /**
+     * Releases the resources acquired by a connector instance, stopping them once no
+     * instance holds them anymore
+     */
+    static void release(ConnectionResources connectionResources)
+    {
+        synchronized (ConnectionResources.class)
+        {
+            if (--connectionResources.references > 0)
+            {
+                return;
+            }
+            resources.remove(connectionResources.key);
+        }
+        connectionResources.close();
+    }
+
+    synchronized OplogMonitor getOplogMonitor()
+    {
+        return oplogMonitor;
+    }
+
+    /**
+     * Starts the given monitor unless one is already running
+     */
+    synchronized void startOplogMonitor(OplogMonitor monitor, long intervalSeconds)
+    {
+        if (oplogMonitor == null)
+        {
+            oplogMonitor = monitor;
+            oplogMonitor.start(intervalSeconds);
+        }
+    }
+
+    synchronized WriteBehindBuffer getWriteBehindBuffer()
+    {
+        return writeBehindBuffer;
+    }
+
+    synchronized void setWriteBehindBuffer(WriteBehindBuffer writeBehindBuffer)
+    {
+        this.writeBehindBuffer = writeBehindBuffer;
+    }
+
+    /**
+     * @return the executor of asynchronous operations, created with the given sizes
+     *         unless one already exists
+     */
+    synchronized AsyncExecutor getAsyncExecutor(int threads, int maxInFlight)
+    {
+        checkSettings("asynchronous executor", threads, maxInFlight);
+        if (asyncExecutor == null)
+        {
+            asyncExecutor = new AsyncExecutor(threads, maxInFlight);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * @return the cache of query results, sized with the given size and time to live
+     *         unless another instance sized it already
+     */
+    synchronized QueryCache getQueryCache(int maxEntries, long ttlMillis)
+    {
+        QueryCache cache = getQueryCache();
+        if (!serviceSettings.containsKey("query cache"))
+        {
+            cache.resize(maxEntries, ttlMillis);
+        }
+        checkSettings("query cache", maxEntries, ttlMillis);
+        return cache;
+    }
+
+    /**
+     * @return the cache of query results, which instances that do not cache results
+     *         still invalidate when they write. It holds nothing until an instance that
+     *         caches results sizes it.
+     */
+    synchronized QueryCache getQueryCache()
+    {
+        if (queryCache == null)
+        {
+            queryCache = new QueryCache();
+        }
+        return queryCache;
+    }
+
+    /**
+     * @return the coalescer of identical reads of every pooled instance
+     */
+    synchronized SingleFlight getSingleFlight()
+    {
+        if (singleFlight == null)
+        {
+            singleFlight = new SingleFlight();
+        }
+        return singleFlight;
+    }
+
+    /**
+     * @return the batcher of lookups by _id of every pooled instance, created with the
+     *         given sizes unless one already exists
+     */
+    synchronized IdLookupBatcher getIdLookupBatcher(DB db, int maxBatchSize, long windowMicros)
+    {
+        checkSettings("lookup batcher", maxBatchSize, windowMicros);
+        if (idLookupBatcher == null)
+        {
+            idLookupBatcher = new IdLookupBatcher(db, maxBatchSize, windowMicros);
+        }
+        return idLookupBatcher;
+    }
+
+    /**
+     * @return the profiler of the queries of every pooled instance, created with the
+     *         given explain interval and registered under the given database unless one
+     *         already exists
+     */
+    synchronized QueryProfiler getQueryProfiler(long explainIntervalMillis, String database)
+    {
+        checkSettings("query profiler", explainIntervalMillis);
+        if (queryProfiler == null)
+        {
+            queryProfiler = new QueryProfiler(explainIntervalMillis, QueryProfiler.DEFAULT_MAX_SHAPES);
+            queryProfiler.register(database);
+        }
+        return queryProfiler;
+    }
+
+    synchronized OplogCacheInvalidator getOplogCacheInvalidator()
+    {
+        return oplogCacheInvalidator;
+    }
+
+    /**
+     * Starts the given invalidator unless one is already running
+     */
+    synchronized void startOplogCacheInvalidator(OplogCacheInvalidator invalidator)
+    {
+        if (oplogCacheInvalidator == null)
+        {
+            oplogCacheInvalidator = invalidator;
+            oplogCacheInvalidator.start();
+        }
+    }
+
+    /**
+     * Starts the given view unless one is already maintained in its target collection
+     */
+    synchronized void startMaterializedView(String targetCollection, MaterializedView view)
+    {
+        if (!materializedViews.containsKey(targetCollection))
+        {
+            materializedViews.put(targetCollection, view);
+            view.start();
+        }
+    }
+
+    /**
+     * @return the view maintained in the given target collection, no longer registered,
+     *         or null if there is none
+     */
+    synchronized MaterializedView removeMaterializedView(String targetCollection)
+    {
+        return materializedViews.remove(targetCollection);
+    }
+
+    /**
+     * Remembers the settings of the first instance using a service and warns about the
+     * conflicting settings of later ones, as the service keeps the first ones
+     */
+    private void checkSettings(String service, Object... settings)
+    {
+        String requested = Arrays.toString(settings);
+        String existing = serviceSettings.get(service);
+        if (existing == null)
+        {
+            serviceSettings.put(service, requested);
+        }
+        else if (!existing.equals(requested))
+        {
+            logger.warn("The {} of {} keeps the settings {} it was created with, ignoring the settings {}",
+                new Object[] {service, key, existing, requested});
+        }
+    }
+
+    private synchronized void close()
+    {
+        for (MaterializedView view : materializedViews.values())
+        {
+            view.stop();
+        }
+        materializedViews.clear();
+        // Operations in flight may still write through the write-behind buffer
+        if (asyncExecutor != null)
+        {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+        if (writeBehindBuffer != null)
+        {
+            writeBehindBuffer.close();
+            writeBehindBuffer = null;
+        }
+        if (queryProfiler != null)
+        {
+            queryProfiler.shutdown();
+            queryProfiler = null;
+        }
+        if (oplogCacheInvalidator != null)
+        {
+            oplogCacheInvalidator.stop();
+            oplogCacheInvalidator = null;
+        }
+        if (oplogMonitor != null)
+        {
+            oplogMonitor.stop();
+            oplogMonitor = null;
+        }
+    }
+}
@@ -8,6 +8,7 @@
 
 package org.mule.module.mongo;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBObject;
 import com.mongodb.Mongo;
@@ -35,16 +36,34 @@ import org.mule.api.annotations.param.Default;
 import org.mule.api.annotations.param.Optional;
 import org.mule.api.annotations.param.Payload;
 import org.mule.api.annotations.MetaDataSwitch;
+import org.mule.module.mongo.api.AsyncExecutor;
+import org.mule.module.mongo.api.IndexAdvisor;
 import org.mule.module.mongo.api.IndexOrder;
+import org.mule.module.mongo.api.IndexSpec;
+import org.mule.module.mongo.api.MapReduceOptions;
+import org.mule.module.mongo.api.MapReduceOutputMode;
 import org.mule.module.mongo.api.MongoClient;
 import org.mule.module.mongo.api.MongoClientAdaptor;
 import org.mule.module.mongo.api.MongoClientImpl;
 import org.mule.module.mongo.api.MongoCollection;
+import org.mule.module.mongo.api.Page;
+import org.mule.module.mongo.api.QueryCache;
+import org.mule.module.mongo.api.QueryOptions;
+import org.mule.module.mongo.api.QueryProfiler;
+import org.mule.module.mongo.api.WriteBehindBuffer;
+import org.mule.module.mongo.api.WriteBehindJournal;
+import org.mule.module.mongo.api.WriteBehindPolicy;
 import org.mule.module.mongo.api.WriteConcern;
 import org.mule.module.mongo.tools.BackupConstants;
 import org.mule.module.mongo.tools.IncrementalMongoDump;
+import org.mule.module.mongo.tools.IncrementalOplogDump;
+import org.mule.module.mongo.tools.MaterializedView;
 import org.mule.module.mongo.tools.MongoDump;
+import org.mule.module.mongo.tools.MongoDumpMerge;
 import org.mule.module.mongo.tools.MongoRestore;
+import org.mule.module.mongo.tools.OplogCacheInvalidator;
+import org.mule.module.mongo.tools.OplogFilter;
+import org.mule.module.mongo.tools.OplogMonitor;
 import org.mule.transformer.types.MimeTypes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,11 +80,14 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import static org.mule.module.mongo.api.DBObjects.adapt;
 import static org.mule.module.mongo.api.DBObjects.from;
 import static org.mule.module.mongo.api.DBObjects.fromCommand;
 import static org.mule.module.mongo.api.DBObjects.fromFunction;
+import static org.mule.module.mongo.api.DBObjects.fromIterable;
 
 /**
  * MongoDB is an open source, high-performance, schema-free, document-oriented database that manages collections of
@@ -80,6 +102,12 @@ public class MongoCloudConnector {
     private static final String CAPPED_DEFAULT_VALUE = "false";
     private static final String WRITE_CONCERN_DEFAULT_VALUE = "DATABASE_DEFAULT";
     private static final String BACKUP_THREADS = "5";
+    private static final String OPLOG_BATCH_SIZE = "1000";
+    private static final String OPLOG_WARNING_RATIO = "0.25";
+    private static final String INSERT_BATCH_SIZE = "1000";
+    private static final String VIEW_BATCH_SIZE = "100";
+    private static final String PAGE_SIZE = "100";
+    private static final String ID_CHUNK_SIZE = "500";
     private static final String DEFAULT_OUTPUT_DIRECTORY = "dump";
     
     private static Map<String, Mongo> mongoInstanceMap = new HashMap<String, Mongo>();
@@ -178,8 +206,163 @@ public class MongoCloudConnector {
     @Optional
     public Boolean fsync;
 
+    /**
+     * If set, the oplog window and the incremental dump lag are measured every given amount of seconds
+     * and exposed through JMX.
+     */
+    @Configurable
+    @Optional
+    private Integer oplogMonitorInterval;
+
+    /**
+     * The incremental dump timestamp file checked by the oplog monitor, by default the one on the dump directory
+     */
+    @Configurable
+    @Optional
+    private String oplogMonitorTimestampFile;
+
+    /**
+     * If set, inserts and saves are buffered per collection and sent as a bulk operation once this
+     * amount of writes is buffered or the write-behind delay has elapsed. The write concern of each
+     * operation is then replaced by the write-behind write concern.
+     */
+    @Configurable
+    @Optional
+    private Integer writeBehindBatchSize;
+
+    /**
+     * Milliseconds after which the writes buffered by the write-behind mode are flushed
+     */
+    @Configurable
+    @Optional
+    @Default("100")
+    private int writeBehindMaxDelay;
+
+    /**
+     * Write concern the write-behind batches are flushed with
+     */
+    @Configurable
+    @Optional
+    @Default("DATABASE_DEFAULT")
+    private WriteConcern writeBehindWriteConcern;
+
+    /**
+     * Whether buffered writes return right away or once their batch has been flushed
+     */
+    @Configurable
+    @Optional
+    @Default("BATCH")
+    private WriteBehindPolicy writeBehindPolicy;
+
+    /**
+     * If set, buffered writes are journaled below this directory before being acknowledged, and the
+     * writes a previous process journaled but did not flush are sent again on connect. Every host, port,
+     * database and user journals in its own subdirectory.
+     */
+    @Configurable
+    @Optional
+    private String writeBehindJournalDirectory;
+
+    /**
+     * Threads running the asynchronous operations, shared by every pooled instance connected to the
+     * same database with the same user. As every one holds a connection while it runs an operation,
+     * it should not exceed connectionsPerHost.
+     */
+    @Configurable
+    @Optional
+    @Default("10")
+    private int asyncThreads;
+
+    /**
+     * Maximum asynchronous operations in flight across the pooled instances sharing the threads. Once
+     * reached, asynchronous operations block the flow until a previous one completes.
+     */
+    @Configurable
+    @Optional
+    @Default("100")
+    private int asyncMaxInFlight;
+
+    /**
+     * If set, the results of find-one-object and of find-objects with a limit are cached, keeping at most
+     * this amount of results. The cache is shared by every pooled instance connected to the same database
+     * with the same user, and sized by the first of them that caches results: later instances configured
+     * with other sizes are warned and use the existing cache. Writes done through any connection to the same
+     * database and user drop the cached results of their collection, even if it does not cache results itself,
+     * buffered writes once they are flushed.
+     */
+    @Configurable
+    @Optional
+    private Integer queryCacheMaxEntries;
+
+    /**
+     * Milliseconds a cached query result is used for. Writes done by other clients are seen after this time.
+     */
+    @Configurable
+    @Optional
+    @Default("30000")
+    private long queryCacheTtl;
+
+    /**
+     * Whether cached query results are invalidated by tailing the oplog of the replica set, so that writes
+     * done by any client drop them instead of only the writes done through this connection
+     */
+    @Configurable
+    @Optional
+    @Default("false")
+    private boolean queryCacheOplogInvalidation;
+
+    /**
+     * Whether identical find-one-object and count-objects operations running at the same time, in any pooled
+     * instance connected to the same database with the same user, share a single query to the database
+     * instead of sending one each
+     */
+    @Configurable
+    @Optional
+    @Default("false")
+    private boolean coalesceReads;
+
+    /**
+     * Maximum amount of ids a batch of find-one-object lookups by _id can hold. When set, lookups by _id of
+     * the same collection that run at the same time, in any pooled instance connected to the same database
+     * with the same user, are sent as a single $in query.
+     */
+    @Configurable
+    @Optional
+    private Integer idLookupBatchSize;
+
+    /**
+     * Microseconds the first lookup by _id of a batch waits for others to join it before sending the query
+     */
+    @Configurable
+    @Optional
+    @Default("500")
+    private long idLookupBatchWindow;
+
+    /**
+     * Whether the latency and documents returned of every query are recorded by query shape, and the plans of
+     * the shapes sampled with explain. The profile is shared by every pooled instance connected to the same
+     * database, and is available through get-query-profile and through JMX.
+     */
+    @Configurable
+    @Optional
+    @Default("false")
+    private boolean queryProfiling;
+
+    /**
+     * Minimum milliseconds between two explains of the same query shape, or 0 to never explain queries
+     */
+    @Configurable
+    @Optional
+    @Default("60000")
+    private long queryProfilerExplainInterval;
+
     private String database;
 
+    private ConnectionResources resources;
+
+    private WriteBehindBuffer writeBehindBuffer;
+
+
     private MongoClient client;
 
     /**
@@ -303,6 +486,87 @@ public class MongoCloudConnector {
         return client.insertObject(collection, (DBObject) adapt(elementAttributes), writeConcern);
     }
 
+    /**
+     * Inserts many objects in a collection, setting their ids if necessary. Objects are sent in batches
+     * bounded both by count and by wire size, one round trip per batch.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:insert-objects}
+     *
+     * @param collection   the name of the collection where to insert the given objects
+     * @param objects      a collection, iterable, iterator or array of {@link DBObject} or Map instances
+     * @param batchSize    the maximum number of objects sent per batch
+     * @param ordered      if true, insertion stops at the first batch that fails and a failing object aborts the
+     *                     rest of its batch; otherwise the server continues after errors and all batches are sent
+     * @param writeConcern the optional write concern of insertion
+     * @return one {@link DBObject} per batch sent, with its number, count, ok flag and error if any. The inserted
+     *         ids are only included when the write concern acknowledged the whole batch without errors
+     */
+    @Processor
+    public List<DBObject> insertObjects(String collection,
+                                        @Optional @Default("#[payload]") Object objects,
+                                        @Optional @Default(INSERT_BATCH_SIZE) int batchSize,
+                                        @Optional @Default("true") boolean ordered,
+                                        @Optional @Default(WRITE_CONCERN_DEFAULT_VALUE) WriteConcern writeConcern) {
+        return client.insertObjects(collection, fromIterable(objects), batchSize, ordered, writeConcern);
+    }
+
+    /**
+     * Updates an object by its _id sending only the fields that changed since a previous version of it: changed
+     * fields are set and removed fields are unset. Counter fields are increased by their difference instead, so
+     * that increments written meanwhile by others are kept; that is only right if the previous version is the one
+     * the new version was computed from. Nothing is written if no field changed. Without a previous version, the
+     * stored one is read first.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:update-object-delta}
+     *
+     * @param collection   the name of the collection to update
+     * @param element      the {@link DBObject} new version of the object, holding its _id
+     * @param previous      the optional {@link DBObject} previous version of the object
+     * @param counterFields the optional paths of the integer fields increased by their difference instead of set
+     * @param writeConcern  the write concern used to update
+     * @return whether the object was written
+     */
+    @Processor
+    public boolean updateObjectDelta(String collection,
+                                     @Optional @Default("#[payload]") DBObject element,
+                                     @Optional DBObject previous,
+                                     @Optional List<String> counterFields,
+                                     @Optional @Default(WRITE_CONCERN_DEFAULT_VALUE) WriteConcern writeConcern) {
+        return client.updateObjectDelta(collection, (DBObject) adapt(previous), (DBObject) adapt(element),
+            counterFields, writeConcern);
+    }
+
+    /**
+     * Atomically updates or removes the first object that matches the given query and returns it, in a single
+     * round trip. For instance, a job can be claimed from a queue collection by setting its state, no other
+     * consumer being able to claim it meanwhile.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:find-and-modify-object}
+     *
+     * @param collection the name of the collection
+     * @param query      the optional {@link DBObject} query object the modified object matches
+     * @param update     the optional {@link DBObject} update applied to the object, mandatory unless it is removed
+     * @param fields     alternative way of passing fields as a literal List
+     * @param sortBy     optional {@link DBObject} with the fields to sort by, the first object in that order
+     *                   is modified
+     * @param remove     if the object is removed instead of updated
+     * @param returnNew  if the object is returned as updated instead of as it was before
+     * @param upsert     if the database should create the object if none matches the query
+     * @return the object, or null if none matched the query
+     */
+    @Processor
+    public DBObject findAndModifyObject(String collection,
+                                       @Optional DBObject query,
+                                       @Optional @Default("#[payload]") DBObject update,
+                                       @Placement(group = "Fields") @Optional List<String> fields,
+                                       @Optional DBObject sortBy,
+                                       @Optional @Default("false") boolean remove,
+                                       @Optional @Default("false") boolean returnNew,
+                                       @Optional @Default(CAPPED_DEFAULT_VALUE) boolean upsert) {
+        return client.findAndModifyObject(collection, query, fields, sortBy, remove, remove ? null : update,
+            returnNew, upsert);
+    }
+
     /**
      * Updates objects that matches the given query. If parameter multi is set to
      * false, only the first document matching it will be updated. Otherwise, all the
@@ -330,6 +594,30 @@ public class MongoCloudConnector {
         client.updateObjects(collection, query, element, upsert, multi, writeConcern);
     }
 
+    /**
+     * Applies many independent updates to a collection. Updates are sent pipelined in batches and the
+     * write concern is waited for once per batch instead of once per update. Each update is a {@link DBObject}
+     * or Map with a query, an update, and optional upsert and multi flags (false by default). The acknowledgement of
+     * a batch only carries the error of its last update: the ok flag of a batch does not prove the earlier updates
+     * succeeded, and the number of them is reported as unverified. Use a batch size of 1 to verify every update.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:update-objects-in-bulk}
+     *
+     * @param collection   the name of the collection to update
+     * @param updates      a collection, iterable, iterator or array of update specifications
+     * @param batchSize    the maximum number of updates sent before waiting for an acknowledgement
+     * @param writeConcern the write concern waited for at the end of every batch
+     * @return one {@link DBObject} per batch sent, with its number, count, ok flag, number of unverified updates
+     *         and error if any
+     */
+    @Processor
+    public List<DBObject> updateObjectsInBulk(String collection,
+                                              @Optional @Default("#[payload]") Object updates,
+                                              @Optional @Default(INSERT_BATCH_SIZE) int batchSize,
+                                              @Optional @Default(WRITE_CONCERN_DEFAULT_VALUE) WriteConcern writeConcern) {
+        return client.updateObjectsInBulk(collection, fromIterable(updates), batchSize, writeConcern);
+    }
+
     /**
      * Updates objects that matches the given query. If parameter multi is set to
      * false, only the first document matching it will be updated. Otherwise, all the
@@ -517,6 +805,36 @@ public class MongoCloudConnector {
         client.removeObjects(collection, (DBObject) adapt(queryAttributes), writeConcern);
     }
 
+    /**
+     * Runs an aggregation pipeline on the server, which is much faster than map-reduce as it does not
+     * run JavaScript. Results are returned inline unless an output collection is given, in which case
+     * they are written to it and read lazily from it.
+     * <p/>
+     * Requires MongoDB 2.2 or later, and 2.6 or later when an output collection is given, as results are
+     * written through the $out stage. Inline results are returned in a single reply document and the server
+     * fails the aggregation when they exceed 16MB; the cursor form of the command is not used, as this
+     * driver cannot iterate command cursors.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:aggregate-objects}
+     *
+     * @param collection       the name of the collection to aggregate
+     * @param pipeline         a collection, iterable, iterator or array of {@link DBObject} or Map instances,
+     *                         one per stage of the pipeline
+     * @param outputCollection the optional name of the collection to write the results to, replacing its
+     *                         contents, mandatory when results may be larger than 16MB. Requires MongoDB 2.6
+     * @return an iterable that retrieves the results
+     */
+    @Processor
+    public Iterable<DBObject> aggregateObjects(String collection,
+                                               @Optional @Default("#[payload]") Object pipeline,
+                                               @Optional String outputCollection) {
+        List<DBObject> stages = new ArrayList<DBObject>();
+        for (DBObject stage : fromIterable(pipeline)) {
+            stages.add((DBObject) adapt(stage));
+        }
+        return client.aggregate(collection, stages, outputCollection);
+    }
+
     /**
      * Transforms a collection into a collection of aggregated groups, by applying a
      * supplied element-mapping function to each element, that transforms each one
@@ -538,6 +856,15 @@ public class MongoCloudConnector {
      *                         results may be larger than 16MB. If outputCollection is
      *                         unspecified, the computation is performed in-memory and not
      *                         persisted.
+     * @param outputMode       how the results are written to an existing output collection: REPLACE
+     *                         replaces it, MERGE overwrites the objects with the same key and REDUCE
+     *                         reduces the results with the objects with the same key
+     * @param query            the optional {@link DBObject} query that selects the objects mapped, so
+     *                         that for instance only new objects are folded into previous results
+     * @param sortBy           optional {@link DBObject} with the fields to sort the mapped objects by
+     * @param limit            optional maximum amount of objects mapped
+     * @param finalizeFunction an optional JavaScript encoded function applied to every reduced result
+     * @param scope            optional variables available to the functions
      * @return an iterable that retrieves the resulting collection of
      *         {@link DBObject}
      */
@@ -545,8 +872,21 @@ public class MongoCloudConnector {
     public Iterable<DBObject> mapReduceObjects(String collection,
                                                String mapFunction,
                                                String reduceFunction,
-                                               @Optional String outputCollection) {
-        return client.mapReduceObjects(collection, mapFunction, reduceFunction, outputCollection);
+                                               @Optional String outputCollection,
+                                               @Optional @Default("REPLACE") MapReduceOutputMode outputMode,
+                                               @Optional DBObject query,
+                                               @Optional DBObject sortBy,
+                                               @Optional Integer limit,
+                                               @Optional String finalizeFunction,
+                                               @Optional Map<String, Object> scope) {
+        MapReduceOptions options = new MapReduceOptions();
+        options.setOutputMode(outputMode);
+        options.setQuery(query);
+        options.setSort(sortBy);
+        options.setLimit(limit);
+        options.setFinalizeFunction(finalizeFunction);
+        options.setScope(scope);
+        return client.mapReduceObjects(collection, mapFunction, reduceFunction, outputCollection, options);
     }
 
     /**
@@ -597,6 +937,12 @@ public class MongoCloudConnector {
      * @param fields     alternative way of passing fields as a literal List
      * @param numToSkip  number of objects skip (offset)
      * @param limit      limit of objects to return
+     * @param sortBy     optional {@link DBObject} with the fields to sort by, 1 for ascending and -1 for
+     *                   descending order
+     * @param hint       optional name of the index the query must use
+     * @param batchSize  optional amount of objects fetched per round trip while iterating the results
+     * @param maxScan    optional maximum amount of documents or index keys scanned by the server
+     * @param tailable   whether the results keep waiting for new objects at the end of a capped collection
      * @return an iterable of {@link DBObject}
      */
     @Processor
@@ -604,8 +950,198 @@ public class MongoCloudConnector {
                                           @Optional @Default("") DBObject query,
                                           @Placement(group = "Fields") @Optional List<String> fields,
                                           @Optional Integer numToSkip,
-                                          @Optional Integer limit) {
-        return client.findObjects(collection, query, fields, numToSkip, limit);
+                                          @Optional Integer limit,
+                                          @Optional DBObject sortBy,
+                                          @Optional String hint,
+                                          @Optional Integer batchSize,
+                                          @Optional Integer maxScan,
+                                          @Optional @Default("false") boolean tailable) {
+        return client.findObjects(collection, query, fields, numToSkip, limit,
+            createQueryOptions(sortBy, hint, batchSize, maxScan, tailable));
+    }
+
+    /**
+     * Finds a page of the objects that match a given query. Instead of skipping the objects of the previous
+     * pages, every page starts right after the sort key of the last object of the previous one, so deep pages
+     * cost the same as the first one. The sort key is the given sort order followed by _id, and its fields
+     * must be present in every object.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:find-objects-page}
+     *
+     * @param collection        the target collection
+     * @param query             the optional {@link DBObject} query object. If unspecified, all
+     *                          documents are paged.
+     * @param fields            alternative way of passing fields as a literal List. The fields of the
+     *                          sort key are always returned.
+     * @param sortBy            optional {@link DBObject} with the fields to sort by, 1 for ascending and
+     *                          -1 for descending order. By default objects are paged by _id.
+     * @param pageSize          maximum amount of objects of the page
+     * @param continuationToken the continuation token of the previous page, or none for the first page
+     * @return the page, with the objects and the continuation token of the next page if there is one
+     */
+    @Processor
+    public Page findObjectsPage(String collection,
+                                @Optional @Default("") DBObject query,
+                                @Placement(group = "Fields") @Optional List<String> fields,
+                                @Optional DBObject sortBy,
+                                @Optional @Default(PAGE_SIZE) int pageSize,
+                                @Optional String continuationToken) {
+        return client.findObjectsPage(collection, query, fields, sortBy, pageSize, continuationToken);
+    }
+
+    /**
+     * Inserts an object in a collection without waiting for the database. The returned future
+     * can be passed to {@link #awaitAsync(Object, Long)} to get the id that was inserted.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:insert-object-async}
+     *
+     * @param collection   the name of the collection where to insert the given object
+     * @param dbObject     a {@link DBObject} instance.
+     * @param writeConcern the optional write concern of insertion
+     * @return a future of the id that was inserted
+     */
+    @Processor
+    public Future<String> insertObjectAsync(final String collection,
+                                            @Optional @Default("#[payload]") final DBObject dbObject,
+                                            @Optional @Default(WRITE_CONCERN_DEFAULT_VALUE) final WriteConcern writeConcern) {
+        final MongoClient client = this.client;
+        return getAsyncExecutor().submit(new Callable<String>() {
+            public String call() {
+                return client.insertObject(collection, dbObject, writeConcern);
+            }
+        });
+    }
+
+    /**
+     * Updates objects that match the given query without waiting for the database.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:update-objects-async}
+     *
+     * @param collection   the name of the collection to update
+     * @param query        the {@link DBObject} query object used to detect the element to
+     *                     update.
+     * @param element      the {@link DBObject} mandatory object that will replace that
+     *                     one which matches the query.
+     * @param upsert       if the database should create the element if it does not exist
+     * @param multi        if all or just the first object matching the query will be
+     *                     updated
+     * @param writeConcern the write concern used to update
+     * @return a future completed once the update is done
+     */
+    @Processor
+    public Future<Void> updateObjectsAsync(final String collection,
+                                           final DBObject query,
+                                           @Optional @Default("#[payload]") final DBObject element,
+                                           @Optional @Default(CAPPED_DEFAULT_VALUE) final boolean upsert,
+                                           @Optional @Default("true") final boolean multi,
+                                           @Optional @Default(WRITE_CONCERN_DEFAULT_VALUE) final WriteConcern writeConcern) {
+        final MongoClient client = this.client;
+        return getAsyncExecutor().submit(new Callable<Void>() {
+            public Void call() {
+                client.updateObjects(collection, query, element, upsert, multi, writeConcern);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Inserts or updates an object based on its object _id without waiting for the database.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:save-object-async}
+     *
+     * @param collection   the collection where to insert the object
+     * @param element      the mandatory {@link DBObject} object to insert.
+     * @param writeConcern the write concern used to persist the object
+     * @return a future completed once the object is saved
+     */
+    @Processor
+    public Future<Void> saveObjectAsync(final String collection,
+                                        @Optional @Default("#[payload]") final DBObject element,
+                                        @Optional @Default(WRITE_CONCERN_DEFAULT_VALUE) final WriteConcern writeConcern) {
+        final MongoClient client = this.client;
+        return getAsyncExecutor().submit(new Callable<Void>() {
+            public Void call() {
+                client.saveObject(collection, from(element), writeConcern);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Removes all the objects that match the a given optional query without waiting for the database.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:remove-objects-async}
+     *
+     * @param collection   the collection whose elements will be removed
+     * @param query        the optional {@link DBObject} query object. Objects that match it
+     *                     will be removed.
+     * @param writeConcern the write concern used to remove the object
+     * @return a future completed once the objects are removed
+     */
+    @Processor
+    public Future<Void> removeObjectsAsync(final String collection,
+                                           @Optional @Default("#[payload]") final DBObject query,
+                                           @Optional @Default(WRITE_CONCERN_DEFAULT_VALUE) final WriteConcern writeConcern) {
+        final MongoClient client = this.client;
+        return getAsyncExecutor().submit(new Callable<Void>() {
+            public Void call() {
+                client.removeObjects(collection, query, writeConcern);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Finds all objects that match a given query without waiting for the database. As the objects
+     * are read before the future completes, a limit should be given for large collections.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:find-objects-async}
+     *
+     * @param collection the target collection
+     * @param query      the optional {@link DBObject} query object. If unspecified, all
+     *                   documents are returned.
+     * @param fields     alternative way of passing fields as a literal List
+     * @param numToSkip  number of objects skip (offset)
+     * @param limit      limit of objects to return
+     * @return a future of the list of {@link DBObject} found
+     */
+    @Processor
+    public Future<List<DBObject>> findObjectsAsync(final String collection,
+                                                   @Optional @Default("") final DBObject query,
+                                                   @Placement(group = "Fields") @Optional final List<String> fields,
+                                                   @Optional final Integer numToSkip,
+                                                   @Optional final Integer limit) {
+        final MongoClient client = this.client;
+        return getAsyncExecutor().submit(new Callable<List<DBObject>>() {
+            public List<DBObject> call() {
+                List<DBObject> objects = new ArrayList<DBObject>();
+                for (DBObject object : client.findObjects(collection, query, fields, numToSkip, limit)) {
+                    objects.add(object);
+                }
+                return objects;
+            }
+        });
+    }
+
+    /**
+     * Waits for the result of an asynchronous operation, failing with the exception the operation failed with.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:await-async}
+     *
+     * @param future  the future returned by an asynchronous operation
+     * @param timeout optional milliseconds to wait for the operation
+     * @return the result of the operation
+     * @throws Exception if the operation failed or did not complete in time
+     */
+    @Processor
+    public Object awaitAsync(@Optional @Default("#[payload]") Object future,
+                             @Optional Long timeout) throws Exception {
+        Validate.isTrue(future instanceof Future<?>, "Expected the future of an asynchronous operation");
+        return AsyncExecutor.await((Future<?>) future, timeout);
+    }
+
+    private AsyncExecutor getAsyncExecutor() {
+        return resources.getAsyncExecutor(asyncThreads, asyncMaxInFlight);
     }
 
     /**
@@ -643,12 +1179,34 @@ public class MongoCloudConnector {
      * @param query      the mandatory {@link DBObject} query object that the returned
      *                   object matches.
      * @param fields     alternative way of passing fields as a literal List
+     * @param sortBy     optional {@link DBObject} with the fields to sort by, the first object in that
+     *                   order is returned
+     * @param hint       optional name of the index the query must use
+     * @param maxScan    optional maximum amount of documents or index keys scanned by the server
      * @return a non-null {@link DBObject} that matches the query.
      */
     @Processor
-    public DBObject findOneObject(String collection, @Optional @Default("#[payload]") DBObject query, @Placement(group = "Fields") @Optional List<String> fields) {
-        return client.findOneObject(collection, query, fields);
+    public DBObject findOneObject(String collection,
+                                  @Optional @Default("#[payload]") DBObject query,
+                                  @Placement(group = "Fields") @Optional List<String> fields,
+                                  @Optional DBObject sortBy,
+                                  @Optional String hint,
+                                  @Optional Integer maxScan) {
+        return client.findOneObject(collection, query, fields, createQueryOptions(sortBy, hint, null, maxScan, false));
+
+    }
 
+    private QueryOptions createQueryOptions(DBObject sortBy, String hint, Integer batchSize, Integer maxScan, boolean tailable) {
+        if (sortBy == null && hint == null && batchSize == null && maxScan == null && !tailable) {
+            return null;
+        }
+        QueryOptions options = new QueryOptions();
+        options.setSort(sortBy);
+        options.setHintIndex(hint);
+        options.setBatchSize(batchSize);
+        options.setMaxScan(maxScan);
+        options.setTailable(tailable);
+        return options;
     }
 
     /**
@@ -672,6 +1230,39 @@ public class MongoCloudConnector {
 
     }
 
+    /**
+     * Finds the objects whose key field holds any of the given values in as few queries as possible,
+     * returning them in the order of the values. The position of a value no object was found for
+     * holds null.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:find-objects-by-ids}
+     *
+     * @param collection the target collection
+     * @param ids        the values of the key field to look up
+     * @param keyField   the field looked up, which should be indexed
+     * @param fields     alternative way of passing fields as a literal List
+     * @param chunkSize  maximum amount of values looked up by each query
+     * @param parallel   whether the queries are sent in parallel using the asynchronous operations pool
+     * @return the object found for every value, in the same order
+     */
+    @Processor
+    public List<DBObject> findObjectsByIds(String collection,
+                                           @Optional @Default("#[payload]") List<Object> ids,
+                                           @Optional @Default("_id") String keyField,
+                                           @Placement(group = "Fields") @Optional List<String> fields,
+                                           @Optional @Default(ID_CHUNK_SIZE) int chunkSize,
+                                           @Optional @Default("false") boolean parallel) {
+        List<Object> values = ids;
+        if ("_id".equals(keyField) && ids != null) {
+            values = new ArrayList<Object>(ids.size());
+            for (Object id : ids) {
+                values.add(((DBObject) adapt(new BasicDBObject("_id", id))).get("_id"));
+            }
+        }
+        return client.findObjectsByIds(collection, keyField, values, fields, chunkSize,
+            parallel ? getAsyncExecutor() : null);
+    }
+
     /**
      * Creates a new index
      * <p/>
@@ -686,6 +1277,38 @@ public class MongoCloudConnector {
         client.createIndex(collection, field, order);
     }
 
+    /**
+     * Ensures an index exists, creating it unless the driver already created it through this connection, so
+     * ensuring an index on every message costs no round trip after the first one
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:ensure-index}
+     *
+     * @param collection         the name of the collection where the index will be created
+     * @param keys               the {@link DBObject} with the indexed fields in order, each with 1 or -1 for
+     *                           ascending or descending order, or an index type such as "2d"
+     * @param name               the optional name of the index
+     * @param unique             if the index rejects objects with the same keys
+     * @param sparse             if objects lacking the indexed fields are left out of the index
+     * @param background         if the index is built without blocking other operations on the database
+     * @param expireAfterSeconds optional seconds after the date held by the indexed field objects are removed
+     */
+    @Processor
+    public void ensureIndex(String collection,
+                            DBObject keys,
+                            @Optional String name,
+                            @Optional @Default("false") boolean unique,
+                            @Optional @Default("false") boolean sparse,
+                            @Optional @Default("true") boolean background,
+                            @Optional Integer expireAfterSeconds) {
+        IndexSpec spec = new IndexSpec(keys);
+        spec.setName(name);
+        spec.setUnique(unique);
+        spec.setSparse(sparse);
+        spec.setBackground(background);
+        spec.setExpireAfterSeconds(expireAfterSeconds);
+        client.ensureIndex(collection, spec);
+    }
+
     /**
      * Drops an existing index
      * <p/>
@@ -923,6 +1546,10 @@ public class MongoCloudConnector {
      * @param zip             whether to zip the created dump file or not
      * @param oplog           point in time backup (requires an oplog)
      * @param threads         amount of threads to execute the dump
+     * @param includeCollections  collections whose oplog entries are dumped, all of them if not specified
+     * @param excludeCollections  collections whose oplog entries are left out of the dump
+     * @param includeOperations   oplog operation types (i, u, d, c, n) to dump, all but noops if not specified
+     * @param excludeOperations   oplog operation types (i, u, d, c, n) left out of the dump
      * @throws IOException if an error occurs during the dump
      */
     @Processor
@@ -930,13 +1557,18 @@ public class MongoCloudConnector {
                      @Optional String outputName,
                      @Optional @Default("false") boolean zip,
                      @Optional @Default("false") boolean oplog,
-                     @Optional @Default(BACKUP_THREADS) int threads) throws IOException {
+                     @Optional @Default(BACKUP_THREADS) int threads,
+                     @Placement(group = "Oplog Filter") @Optional List<String> includeCollections,
+                     @Placement(group = "Oplog Filter") @Optional List<String> excludeCollections,
+                     @Placement(group = "Oplog Filter") @Optional List<String> includeOperations,
+                     @Placement(group = "Oplog Filter") @Optional List<String> excludeOperations) throws IOException {
         MongoDump mongoDump = new MongoDump(client);
         mongoDump.setZip(zip);
         if (oplog) {
             mongoDump.setOplog(oplog);
             mongoDump.addDB(mongo.getDB(BackupConstants.ADMIN_DB));
             mongoDump.addDB(mongo.getDB(BackupConstants.LOCAL_DB));
+            mongoDump.setOplogFilter(createOplogFilter(includeCollections, excludeCollections, includeOperations, excludeOperations));
         }
         mongoDump.dump(outputDirectory, database, outputName != null ? outputName : database, threads);
     }
@@ -949,18 +1581,199 @@ public class MongoCloudConnector {
      *
      * @param outputDirectory          output directory path, if no output directory is provided the default /dump directory is assumed
      * @param incrementalTimestampFile file that keeps track of the last timestamp processed, if no file is provided one is created on the output directory
+     * @param batchSize                amount of oplog entries fetched per cursor round trip and written per batch
+     * @param includeCollections       collections whose oplog entries are dumped, all of them if not specified
+     * @param excludeCollections       collections whose oplog entries are left out of the dump
+     * @param includeOperations        oplog operation types (i, u, d, c, n) to dump, all but noops if not specified
+     * @param excludeOperations        oplog operation types (i, u, d, c, n) left out of the dump
      * @throws IOException if an error occurs during the incremental dump
      */
     @Processor
     public void incrementalDump(@Optional @Default(DEFAULT_OUTPUT_DIRECTORY) String outputDirectory,
-                                @Optional String incrementalTimestampFile) throws IOException {
+                                @Optional String incrementalTimestampFile,
+                                @Optional @Default(OPLOG_BATCH_SIZE) int batchSize,
+                                @Placement(group = "Oplog Filter") @Optional List<String> includeCollections,
+                                @Placement(group = "Oplog Filter") @Optional List<String> excludeCollections,
+                                @Placement(group = "Oplog Filter") @Optional List<String> includeOperations,
+                                @Placement(group = "Oplog Filter") @Optional List<String> excludeOperations) throws IOException {
         IncrementalMongoDump incrementalMongoDump = new IncrementalMongoDump();
         incrementalMongoDump.addDB(mongo.getDB(BackupConstants.ADMIN_DB));
         incrementalMongoDump.addDB(mongo.getDB(BackupConstants.LOCAL_DB));
         incrementalMongoDump.setIncrementalTimestampFile(incrementalTimestampFile);
+        incrementalMongoDump.setBatchSize(batchSize);
+        incrementalMongoDump.setOplogFilter(createOplogFilter(includeCollections, excludeCollections, includeOperations, excludeOperations));
         incrementalMongoDump.dump(outputDirectory, database);
     }
 
+    /**
+     * Creates a new full dump offline, by applying the oplog of a previous dump and the later incremental
+     * dumps to the collections of that dump. No reads are issued against the database.
+     * <p/>
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:merge-dump}
+     *
+     * @param baseDumpPath    path to the previous full dump, it can be a directory or a zip file
+     * @param oplogPath       path to the incremental oplog files taken after the previous dump, if not provided the default /dump directory is assumed
+     * @param outputDirectory output directory path, if no output directory is provided the default /dump directory is assumed
+     * @param outputName      output file name, if it's not specified the database name is used; the time of the
+     *                        newest oplog entry applied is appended to it
+     * @param threads         amount of threads used to rebuild collections
+     * @throws IOException if an error occurs reading the dumps or writing the new one
+     */
+    @Processor
+    public void mergeDump(String baseDumpPath,
+                          @Optional @Default(DEFAULT_OUTPUT_DIRECTORY) String oplogPath,
+                          @Optional @Default(DEFAULT_OUTPUT_DIRECTORY) String outputDirectory,
+                          @Optional String outputName,
+                          @Optional @Default(BACKUP_THREADS) int threads) throws IOException {
+        MongoDumpMerge mongoDumpMerge = new MongoDumpMerge(database);
+        mongoDumpMerge.merge(baseDumpPath, oplogPath, outputDirectory, outputName != null ? outputName : database, threads);
+    }
+
+    /**
+     * Measures the oplog time window and churn rate and compares them with the checkpoint of the
+     * incremental dump. The alert entry is WARNING when the checkpoint is about to fall off the oplog and
+     * GAP when it already did, meaning the next incremental dump will miss operations.
+     * <p/>
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:get-oplog-status}
+     *
+     * @param outputDirectory          output directory of the incremental dump, if no output directory is provided the default /dump directory is assumed
+     * @param incrementalTimestampFile file that keeps track of the last timestamp processed by the incremental dump
+     * @param warningRatio             fraction of the oplog window below which the checkpoint headroom raises a warning
+     * @return a map with the oplog window, lag, headroom and churn metrics and the resulting alert
+     * @throws IOException if the oplog cannot be found or the timestamp file cannot be read
+     */
+    @Processor
+    public Map<String, Object> getOplogStatus(@Optional @Default(DEFAULT_OUTPUT_DIRECTORY) String outputDirectory,
+                                              @Optional String incrementalTimestampFile,
+                                              @Optional @Default(OPLOG_WARNING_RATIO) double warningRatio) throws IOException {
+        OplogMonitor monitor = createOplogMonitor(outputDirectory, incrementalTimestampFile);
+        monitor.setWarningRatio(warningRatio);
+        return monitor.measure().toMap();
+    }
+
+    /**
+     * Starts keeping a view of a collection up to date in a target collection by tailing the oplog. For every
+     * value of the group by field, the view holds an object with that value as _id and the count, sum and
+     * average (count, sum and avg fields) of the value field of the objects of the collection, so reading them
+     * is a find-one-object by _id instead of a map-reduce. Changes are applied in batches shortly after they are
+     * written. The view is built from scratch the first time, or when the last change applied is no longer in
+     * the oplog, and resumes where it stopped afterwards. A single view is maintained per target collection for
+     * every pooled instance connected to the same database with the same user, until it is stopped or the last
+     * of those instances disconnects. When several processes start the same view, the one holding its lease
+     * maintains it and another takes over once the lease expires.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:start-materialized-view}
+     *
+     * @param collection       the collection the view is computed from
+     * @param targetCollection the collection holding the view
+     * @param groupBy          the field whose values the objects are grouped by
+     * @param valueField       the numeric field counted, summed and averaged; if unspecified, objects are only counted
+     * @param batchSize        the maximum amount of changed objects applied together
+     */
+    @Processor
+    public void startMaterializedView(String collection,
+                                      String targetCollection,
+                                      String groupBy,
+                                      @Optional String valueField,
+                                      @Optional @Default(VIEW_BATCH_SIZE) int batchSize) {
+        resources.startMaterializedView(targetCollection, new MaterializedView(mongo.getDB(BackupConstants.ADMIN_DB),
+            mongo.getDB(BackupConstants.LOCAL_DB), mongo.getDB(database), collection, targetCollection, groupBy,
+            valueField, batchSize));
+    }
+
+    /**
+     * Stops keeping a view up to date. Its contents are kept, and it is brought up to date again when it is
+     * started anew.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:stop-materialized-view}
+     *
+     * @param targetCollection the collection holding the view
+     */
+    @Processor
+    public void stopMaterializedView(String targetCollection) {
+        MaterializedView view = resources.removeMaterializedView(targetCollection);
+        if (view != null) {
+            view.stop();
+        }
+    }
+
+    /**
+     * Returns the statistics of the query shapes recorded since query profiling started or was last reset,
+     * slowest first by 95th percentile latency. Every shape holds its collection, operation, filter, sort and
+     * fields, its count, the documents it returned, its average, 50th, 95th and 99th percentile and maximum
+     * latency in milliseconds, and its last sampled plan, telling whether it scans the whole collection.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:get-query-profile}
+     *
+     * @return the statistics of every query shape, or an empty list if query profiling is disabled
+     */
+    @Processor
+    public List<DBObject> getQueryProfile() {
+        QueryProfiler profiler = getQueryProfiler();
+        return profiler != null ? profiler.getShapes() : new ArrayList<DBObject>();
+    }
+
+    /**
+     * Discards the statistics of every query shape recorded so far
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:reset-query-profile}
+     */
+    @Processor
+    public void resetQueryProfile() {
+        QueryProfiler profiler = getQueryProfiler();
+        if (profiler != null) {
+            profiler.reset();
+        }
+    }
+
+    /**
+     * Proposes indexes for the recorded query shapes whose sampled plan scans the whole collection, and
+     * optionally creates them in the background. The keys of every index are the fields the shape matches by
+     * value, then its sort fields, then the fields it matches by range, headed by a 2d key for a field matched
+     * by a geospatial operator. Fields only matched by operators such as $ne, $nin, $exists or $regex are left
+     * out. The profile is shared by every pooled instance connected to the same database. Every proposed index
+     * holds its collection, its keys, its estimated benefit, the milliseconds spent by the queries it serves
+     * during the profile, the amount of those queries and their filters.
+     * <p/>
+     * {@sample.xml ../../../doc/mongo-connector.xml.sample mongo:advise-indexes}
+     *
+     * @param covering whether the projected fields are appended to the keys, so that the index covers the query
+     * @param create   whether the proposed indexes are created
+     * @return the proposed indexes, most beneficial first, or an empty list if query profiling is disabled
+     */
+    @Processor
+    public List<DBObject> adviseIndexes(@Optional @Default("false") boolean covering,
+                                        @Optional @Default("false") boolean create) {
+        List<DBObject> advice = IndexAdvisor.advise(getQueryProfile(), covering);
+        if (create) {
+            for (DBObject index : advice) {
+                IndexSpec spec = new IndexSpec((DBObject) index.get("keys"));
+                spec.setBackground(true);
+                client.ensureIndex((String) index.get("collection"), spec);
+            }
+        }
+        return advice;
+    }
+
+    private OplogMonitor createOplogMonitor(String outputDirectory, String incrementalTimestampFile) {
+        return new OplogMonitor(mongo.getDB(BackupConstants.ADMIN_DB), mongo.getDB(BackupConstants.LOCAL_DB), database,
+                IncrementalOplogDump.getIncrementalFilePath(outputDirectory, incrementalTimestampFile));
+    }
+
+    private OplogFilter createOplogFilter(List<String> includeCollections,
+                                          List<String> excludeCollections,
+                                          List<String> includeOperations,
+                                          List<String> excludeOperations) {
+        OplogFilter oplogFilter = new OplogFilter(database);
+        oplogFilter.setIncludeCollections(includeCollections);
+        oplogFilter.setExcludeCollections(excludeCollections);
+        oplogFilter.setIncludeOperations(includeOperations);
+        oplogFilter.setExcludeOperations(excludeOperations);
+        return oplogFilter;
+    }
+
 
     /**
      * Takes the output from the dump and restores it. Indexes will be created on a restore.
@@ -972,15 +1785,20 @@ public class MongoCloudConnector {
      * @param inputPath   input path to the dump files, it can be a directory, a zip file or just a bson file
      * @param drop        whether to drop existing collections before restore
      * @param oplogReplay replay oplog for point-in-time restore
+     * @param toTimestamp seconds since the epoch to restore the database to. When set, inputPath is the backup
+     *                    directory holding full and incremental dumps, and the base dump and oplog files needed
+     *                    are picked automatically
      * @throws IOException if an error occurs during restore of the database
      */
     @Processor
     public void restore(@Optional @Default(DEFAULT_OUTPUT_DIRECTORY) String inputPath,
                         @Optional @Default("false") boolean drop,
-                        @Optional @Default("false") boolean oplogReplay) throws IOException {
+                        @Optional @Default("false") boolean oplogReplay,
+                        @Optional Integer toTimestamp) throws IOException {
         MongoRestore mongoRestore = new MongoRestore(client, database);
         mongoRestore.setDrop(drop);
         mongoRestore.setOplogReplay(oplogReplay);
+        mongoRestore.setToTimestamp(toTimestamp);
         mongoRestore.restore(inputPath);
     }
 
@@ -1071,6 +1889,7 @@ public class MongoCloudConnector {
     @Connect
     public void connect(@ConnectionKey String username, @Password String password, @Optional @Default("test") String database) throws ConnectionException {
         DB db = null;
+        String connectionKey;
         try {
             MongoOptions options = new MongoOptions();
 
@@ -1113,12 +1932,95 @@ public class MongoCloudConnector {
 
             mongo = getOrCreateMongoInstance(host, port, options);
             db = getDatabase(mongo, username, password, database);
+            connectionKey = String.format("%s:%d/%s/%s", host, port, this.database, username);
+            if (resources == null) {
+                resources = ConnectionResources.acquire(connectionKey);
+            }
         } catch (MongoException me) {
             throw new ConnectionException(ConnectionExceptionCode.UNKNOWN, null, me.getMessage());
         } catch (UnknownHostException e) {
             throw new ConnectionException(ConnectionExceptionCode.UNKNOWN_HOST, null, e.getMessage());
         }
-        this.client = new MongoClientImpl(db);
+        boolean connected = false;
+        try {
+            // Every instance invalidates the shared cache when it writes, whether it caches results or not
+            final QueryCache sharedCache = resources.getQueryCache();
+            QueryCache queryCache = queryCacheMaxEntries != null
+                ? resources.getQueryCache(queryCacheMaxEntries, queryCacheTtl) : null;
+            if (writeBehindBatchSize != null) {
+                synchronized (resources) {
+                    writeBehindBuffer = resources.getWriteBehindBuffer();
+                    if (writeBehindBuffer == null) {
+                        writeBehindBuffer = createWriteBehindBuffer(db, connectionKey);
+                        // Results read before the buffered writes reached the database are stale
+                        writeBehindBuffer.setFlushListener(new WriteBehindBuffer.FlushListener() {
+                            public void flushed(String collection) {
+                                sharedCache.invalidate(collection);
+                            }
+                        });
+                        resources.setWriteBehindBuffer(writeBehindBuffer);
+                    }
+                }
+            }
+            if (queryCache != null && queryCacheOplogInvalidation && resources.getOplogCacheInvalidator() == null) {
+                resources.startOplogCacheInvalidator(new OplogCacheInvalidator(mongo.getDB(BackupConstants.ADMIN_DB),
+                    mongo.getDB(BackupConstants.LOCAL_DB), this.database, queryCache));
+            }
+            this.client = new MongoClientImpl(db, writeBehindBuffer, queryCache, sharedCache, coalesceReads ? resources.getSingleFlight() : null,
+                idLookupBatchSize != null ? resources.getIdLookupBatcher(db, idLookupBatchSize, idLookupBatchWindow) : null,
+                getQueryProfiler());
+            startOplogMonitor();
+            connected = true;
+        } finally {
+            if (!connected) {
+                // Another attempt acquires the resources again
+                this.client = null;
+                releaseResources();
+            }
+        }
+    }
+
+    private WriteBehindBuffer createWriteBehindBuffer(DB db, String connectionKey) throws ConnectionException {
+        WriteBehindJournal journal = null;
+        if (writeBehindJournalDirectory != null) {
+            try {
+                journal = WriteBehindJournal.open(new File(writeBehindJournalDirectory), connectionKey, db.getName(),
+                    WriteBehindJournal.DEFAULT_SEGMENT_BYTES);
+            } catch (IOException e) {
+                throw new ConnectionException(ConnectionExceptionCode.UNKNOWN, null, e.getMessage());
+            }
+        }
+        try {
+            return new WriteBehindBuffer(db, writeBehindBatchSize, writeBehindMaxDelay, writeBehindWriteConcern,
+                writeBehindPolicy, journal);
+        } catch (RuntimeException e) {
+            // Unlocks the slot, so that the journal can be recovered by a later attempt
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException ioe) {
+                    logger.warn("Could not close the journal in " + journal.getDirectory(), ioe);
+                }
+            }
+            if (e instanceof MongoException) {
+                throw new ConnectionException(ConnectionExceptionCode.UNKNOWN, null, e.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the profiler shared by every pooled instance, or null if query profiling is disabled
+     */
+    private QueryProfiler getQueryProfiler() {
+        return queryProfiling ? resources.getQueryProfiler(queryProfilerExplainInterval, database) : null;
+    }
+
+    private void startOplogMonitor() {
+        if (oplogMonitorInterval != null && resources.getOplogMonitor() == null) {
+            resources.startOplogMonitor(createOplogMonitor(DEFAULT_OUTPUT_DIRECTORY, oplogMonitorTimestampFile),
+                oplogMonitorInterval);
+        }
     }
     
     private static synchronized Mongo getOrCreateMongoInstance(String host, int port, MongoOptions options) throws UnknownHostException {
@@ -1147,6 +2049,18 @@ public class MongoCloudConnector {
     @Disconnect
     public void disconnect() {
         this.client = null;
+        releaseResources();
+    }
+
+    private void releaseResources() {
+        // Closed once the last instance sharing it disconnects
+        writeBehindBuffer = null;
+        synchronized (this) {
+            if (resources != null) {
+                ConnectionResources.release(resources);
+                resources = null;
+            }
+        }
     }
 
     @ValidateConnection
@@ -1289,4 +2203,140 @@ public class MongoCloudConnector {
     public void setFsync(Boolean fsync) {
         this.fsync = fsync;
     }
+
+    public Integer getOplogMonitorInterval() {
+        return oplogMonitorInterval;
+    }
+
+    public void setOplogMonitorInterval(Integer oplogMonitorInterval) {
+        this.oplogMonitorInterval = oplogMonitorInterval;
+    }
+
+    public String getOplogMonitorTimestampFile() {
+        return oplogMonitorTimestampFile;
+    }
+
+    public void setOplogMonitorTimestampFile(String oplogMonitorTimestampFile) {
+        this.oplogMonitorTimestampFile = oplogMonitorTimestampFile;
+    }
+
+    public Integer getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public void setWriteBehindBatchSize(Integer writeBehindBatchSize) {
+        this.writeBehindBatchSize = writeBehindBatchSize;
+    }
+
+    public int getWriteBehindMaxDelay() {
+        return writeBehindMaxDelay;
+    }
+
+    public void setWriteBehindMaxDelay(int writeBehindMaxDelay) {
+        this.writeBehindMaxDelay = writeBehindMaxDelay;
+    }
+
+    public WriteConcern getWriteBehindWriteConcern() {
+        return writeBehindWriteConcern;
+    }
+
+    public void setWriteBehindWriteConcern(WriteConcern writeBehindWriteConcern) {
+        this.writeBehindWriteConcern = writeBehindWriteConcern;
+    }
+
+    public WriteBehindPolicy getWriteBehindPolicy() {
+        return writeBehindPolicy;
+    }
+
+    public void setWriteBehindPolicy(WriteBehindPolicy writeBehindPolicy) {
+        this.writeBehindPolicy = writeBehindPolicy;
+    }
+
+    public String getWriteBehindJournalDirectory() {
+        return writeBehindJournalDirectory;
+    }
+
+    public void setWriteBehindJournalDirectory(String writeBehindJournalDirectory) {
+        this.writeBehindJournalDirectory = writeBehindJournalDirectory;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public void setAsyncThreads(int asyncThreads) {
+        this.asyncThreads = asyncThreads;
+    }
+
+    public int getAsyncMaxInFlight() {
+        return asyncMaxInFlight;
+    }
+
+    public void setAsyncMaxInFlight(int asyncMaxInFlight) {
+        this.asyncMaxInFlight = asyncMaxInFlight;
+    }
+
+    public Integer getQueryCacheMaxEntries() {
+        return queryCacheMaxEntries;
+    }
+
+    public void setQueryCacheMaxEntries(Integer queryCacheMaxEntries) {
+        this.queryCacheMaxEntries = queryCacheMaxEntries;
+    }
+
+    public long getQueryCacheTtl() {
+        return queryCacheTtl;
+    }
+
+    public void setQueryCacheTtl(long queryCacheTtl) {
+        this.queryCacheTtl = queryCacheTtl;
+    }
+
+    public boolean isQueryCacheOplogInvalidation() {
+        return queryCacheOplogInvalidation;
+    }
+
+    public void setQueryCacheOplogInvalidation(boolean queryCacheOplogInvalidation) {
+        this.queryCacheOplogInvalidation = queryCacheOplogInvalidation;
+    }
+
+    public boolean isCoalesceReads() {
+        return coalesceReads;
+    }
+
+    public void setCoalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+    }
+
+    public Integer getIdLookupBatchSize() {
+        return idLookupBatchSize;
+    }
+
+    public void setIdLookupBatchSize(Integer idLookupBatchSize) {
+        this.idLookupBatchSize = idLookupBatchSize;
+    }
+
+    public long getIdLookupBatchWindow() {
+        return idLookupBatchWindow;
+    }
+
+    public void setIdLookupBatchWindow(long idLookupBatchWindow) {
+        this.idLookupBatchWindow = idLookupBatchWindow;
+    }
+
+    public boolean isQueryProfiling() {
+        return queryProfiling;
+    }
+
+    public void setQueryProfiling(boolean queryProfiling) {
+        this.queryProfiling = queryProfiling;
+    }
+
+    public long getQueryProfilerExplainInterval() {
+        return queryProfilerExplainInterval;
+    }
+
+    public void setQueryProfilerExplainInterval(long queryProfilerExplainInterval) {
+        this.queryProfilerExplainInterval = queryProfilerExplainInterval;
+    }
 }
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs database operations on a dedicated pool of threads, bounding the amount of
+ * operations in flight: once the window is full, submitting blocks until an operation
+ * completes. As every thread holds a connection while it runs an operation, the pool
+ * should not be larger than the connections allowed per host.
+ */
+public class AsyncExecutor
+{
+    private static final Logger logger = LoggerFactory.getLogger(AsyncExecutor.class);
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final ExecutorService executor;
+    private final Semaphore window;
+    private final int maxInFlight;
+
+    public AsyncExecutor(int threads, int maxInFlight)
+    {
+        Validate.isTrue(threads > 0, "threads must be greater than zero");
+        Validate.isTrue(maxInFlight > 0, "maxInFlight must be greater than zero");
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.window = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+    }
+
+    public <T> Future<T> submit(final Callable<T> operation)
+    {
+        Validate.notNull(operation);
+        window.acquireUninterruptibly();
+        try
+        {
+            return executor.submit(new Callable<T>()
+            {
+                public T call() throws Exception
+                {
+                    try
+                    {
+                        return operation.call();
+                    }
+                    finally
+                    {
+                        window.release();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            window.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the result of an operation, rethrowing the exception it failed with
+     *
+     * @param timeoutMillis milliseconds to wait, or null to wait for as long as needed
+     */
+    public static Object await(Future<?> future, Long timeoutMillis) throws Exception
+    {
+        Validate.notNull(future);
+        try
+        {
+            return timeoutMillis != null ? future.get(timeoutMillis, TimeUnit.MILLISECONDS) : future.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    public int getInFlight()
+    {
+        return maxInFlight - window.availablePermits();
+    }
+
+    /**
+     * Stops accepting operations and waits for the ones in flight
+     */
+    public void shutdown()
+    {
+        executor.shutdown();
+        try
+        {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            {
+                logger.warn("Asynchronous operations did not finish in {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
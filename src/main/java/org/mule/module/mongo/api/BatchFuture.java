@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Completion of a batch of buffered writes, shared by all the writes of the batch
+ */
+public class BatchFuture implements Future<Void>
+{
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile RuntimeException error;
+
+    public void complete(RuntimeException error)
+    {
+        this.error = error;
+        done.countDown();
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return false;
+    }
+
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    public boolean isDone()
+    {
+        return done.getCount() == 0;
+    }
+
+    public Void get() throws InterruptedException, ExecutionException
+    {
+        done.await();
+        return result();
+    }
+
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if (!done.await(timeout, unit))
+        {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private Void result() throws ExecutionException
+    {
+        if (error != null)
+        {
+            throw new ExecutionException(error);
+        }
+        return null;
+    }
+}
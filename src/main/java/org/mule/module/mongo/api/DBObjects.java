@@ -8,6 +8,9 @@
 
 package org.mule.module.mongo.api;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -16,6 +19,7 @@ import java.util.regex.Pattern;
 
 import org.bson.types.ObjectId;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 
@@ -57,6 +61,113 @@ public final class DBObjects
         throw new IllegalArgumentException("Unsupported object type " + o);
     }
     
+    /**
+     * Lazily adapts an Iterable, Iterator or array of DBObjects or Maps into an
+     * Iterable of DBObjects, so that large streams of documents are not held in memory
+     */
+    public static Iterable<DBObject> fromIterable(final Object o)
+    {
+        final Iterator<?> iterator;
+        if (o instanceof Iterable<?>)
+        {
+            iterator = ((Iterable<?>) o).iterator();
+        }
+        else if (o instanceof Iterator<?>)
+        {
+            iterator = (Iterator<?>) o;
+        }
+        else if (o instanceof Object[])
+        {
+            iterator = Arrays.asList((Object[]) o).iterator();
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unsupported object type " + o);
+        }
+        return new Iterable<DBObject>()
+        {
+            public Iterator<DBObject> iterator()
+            {
+                return new Iterator<DBObject>()
+                {
+                    public boolean hasNext()
+                    {
+                        return iterator.hasNext();
+                    }
+
+                    public DBObject next()
+                    {
+                        return (DBObject) adapt(from(iterator.next()));
+                    }
+
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return a deep copy of the given DBObject, list or value
+     */
+    @SuppressWarnings("unchecked")
+    public static Object copy(Object value)
+    {
+        if (value instanceof BasicDBList)
+        {
+            BasicDBList copy = new BasicDBList();
+            for (Object element : (BasicDBList) value)
+            {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        if (value instanceof DBObject)
+        {
+            DBObject object = (DBObject) value;
+            BasicDBObject copy = new BasicDBObject();
+            for (String field : object.keySet())
+            {
+                copy.put(field, copy(object.get(field)));
+            }
+            return copy;
+        }
+        if (value instanceof List<?>)
+        {
+            List<Object> copy = new ArrayList<Object>();
+            for (Object element : (List<Object>) value)
+            {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * @return the given value as a key of a map of matched objects: numbers the server
+     *         considers equal, like 1, 1L and 1.0, are converted to the same key
+     */
+    public static Object toMatchKey(Object value)
+    {
+        if (value instanceof Double || value instanceof Float)
+        {
+            double number = ((Number) value).doubleValue();
+            if (number == (long) number)
+            {
+                return (long) number;
+            }
+            return number;
+        }
+        if (value instanceof Number)
+        {
+            return ((Number) value).longValue();
+        }
+        return value;
+    }
+
     public static DBObject fromFunction(String function, DBObject dbObject)
     {
     	return new BasicDBObject(function, dbObject);
@@ -0,0 +1,158 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Computes the smallest update that turns a version of an object into another, so that
+ * only the fields that changed are sent and written to the oplog.
+ * <p/>
+ * Embedded documents present in both versions are compared field by field, and their
+ * changed fields are set through dotted paths. Arrays are compared as a whole and set
+ * again if they differ in any element.
+ * <p/>
+ * Changed fields are set to their current value, so the update is right whatever the
+ * stored object holds. Fields declared as counters are instead increased by their
+ * difference, as long as they are integers or longs in both versions, so the update
+ * keeps the increments written concurrently. That is only right if the previous version
+ * is the one the current version was computed from, as any other difference is applied
+ * on top of the stored value.
+ */
+public final class DeltaUpdate
+{
+    private static final String ID_FIELD = "_id";
+    private static final String SET = "$set";
+    private static final String UNSET = "$unset";
+    private static final String INC = "$inc";
+
+    private DeltaUpdate()
+    {
+    }
+
+    /**
+     * @return the update that turns the previous version into the current one, or null if
+     *         they are equal
+     */
+    public static DBObject diff(DBObject previous, DBObject current)
+    {
+        return diff(previous, current, Collections.<String> emptySet());
+    }
+
+    /**
+     * @param counterFields the paths of the fields increased by their difference instead
+     *            of set
+     * @return the update that turns the previous version into the current one, or null if
+     *         they are equal
+     */
+    public static DBObject diff(DBObject previous, DBObject current, Collection<String> counterFields)
+    {
+        BasicDBObject set = new BasicDBObject();
+        BasicDBObject unset = new BasicDBObject();
+        BasicDBObject inc = new BasicDBObject();
+        diff("", previous, current, counterFields, set, unset, inc);
+
+        BasicDBObject update = new BasicDBObject();
+        if (!set.isEmpty())
+        {
+            update.append(SET, set);
+        }
+        if (!unset.isEmpty())
+        {
+            update.append(UNSET, unset);
+        }
+        if (!inc.isEmpty())
+        {
+            update.append(INC, inc);
+        }
+        return update.isEmpty() ? null : update;
+    }
+
+    private static void diff(String prefix,
+                             DBObject previous,
+                             DBObject current,
+                             Collection<String> counterFields,
+                             BasicDBObject set,
+                             BasicDBObject unset,
+                             BasicDBObject inc)
+    {
+        for (String field : current.keySet())
+        {
+            if (prefix.isEmpty() && ID_FIELD.equals(field))
+            {
+                continue;
+            }
+            String path = prefix + field;
+            Object currentValue = current.get(field);
+            if (!previous.containsField(field))
+            {
+                set.put(path, currentValue);
+                continue;
+            }
+            Object previousValue = previous.get(field);
+            if (isDocument(previousValue) && isDocument(currentValue))
+            {
+                diff(path + ".", (DBObject) previousValue, (DBObject) currentValue, counterFields, set, unset, inc);
+            }
+            else if (counterFields.contains(path) && isIncrement(previousValue, currentValue))
+            {
+                long currentNumber = ((Number) currentValue).longValue();
+                long previousNumber = ((Number) previousValue).longValue();
+                long difference = currentNumber - previousNumber;
+                if (((currentNumber ^ previousNumber) & (currentNumber ^ difference)) < 0
+                    || (currentValue instanceof Integer && difference != (int) difference))
+                {
+                    // The difference overflows the type of the field
+                    set.put(path, currentValue);
+                }
+                else if (difference != 0)
+                {
+                    inc.put(path, currentValue instanceof Integer ? Integer.valueOf((int) difference) : Long.valueOf(difference));
+                }
+            }
+            else if (!equal(previousValue, currentValue))
+            {
+                set.put(path, currentValue);
+            }
+        }
+        for (String field : previous.keySet())
+        {
+            if (!current.containsField(field) && !(prefix.isEmpty() && ID_FIELD.equals(field)))
+            {
+                unset.put(prefix + field, 1);
+            }
+        }
+    }
+
+    private static boolean isDocument(Object value)
+    {
+        return value instanceof DBObject && !(value instanceof List<?>);
+    }
+
+    private static boolean isIncrement(Object previousValue, Object currentValue)
+    {
+        return previousValue != null && currentValue != null && previousValue.getClass() == currentValue.getClass()
+               && (currentValue instanceof Integer || currentValue instanceof Long);
+    }
+
+    private static boolean equal(Object previousValue, Object currentValue)
+    {
+        if (previousValue instanceof byte[] && currentValue instanceof byte[])
+        {
+            return Arrays.equals((byte[]) previousValue, (byte[]) currentValue);
+        }
+        return previousValue == null ? currentValue == null : previousValue.equals(currentValue);
+    }
+}
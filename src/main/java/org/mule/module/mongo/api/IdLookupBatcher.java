@@ -0,0 +1,194 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * Batches concurrent lookups by _id on the same collection into a single $in query.
+ * The first lookup of a batch waits for a short window, or until the batch holds a
+ * given amount of ids, while other lookups join it; then it sends one query for all
+ * of them and hands every caller its object. Numeric ids are matched by value, whatever
+ * their type, the way the server matches them.
+ */
+public class IdLookupBatcher
+{
+    private static final String ID_FIELD = "_id";
+
+    private final DB db;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final Map<String, Batch> pending = new HashMap<String, Batch>();
+
+    public IdLookupBatcher(DB db, int maxBatchSize, long windowMicros)
+    {
+        Validate.notNull(db);
+        Validate.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than zero");
+        Validate.isTrue(windowMicros >= 0, "windowMicros must not be negative");
+        this.db = db;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    /**
+     * @return whether the given query only looks up an object by _id
+     */
+    public static boolean isIdLookup(DBObject query)
+    {
+        return query != null && query.keySet().size() == 1 && query.containsField(ID_FIELD)
+               && !(query.get(ID_FIELD) instanceof DBObject);
+    }
+
+    /**
+     * @throws MongoException if there is no object with the given id
+     */
+    public DBObject findById(String collection, Object id, List<String> fields)
+    {
+        String key = collection + '|' + fields;
+        Batch batch;
+        boolean leader = false;
+        synchronized (this)
+        {
+            batch = pending.get(key);
+            if (batch == null)
+            {
+                batch = new Batch(collection, fields);
+                pending.put(key, batch);
+                leader = true;
+            }
+            batch.ids.add(id);
+            if (batch.ids.size() >= maxBatchSize)
+            {
+                pending.remove(key);
+                batch.full.countDown();
+            }
+        }
+
+        if (leader)
+        {
+            try
+            {
+                batch.full.await(windowNanos, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this)
+            {
+                if (pending.get(key) == batch)
+                {
+                    pending.remove(key);
+                }
+            }
+            batch.execute();
+        }
+        else
+        {
+            batch.await();
+        }
+
+        DBObject object = batch.getObject(id);
+        return leader ? object : (DBObject) DBObjects.copy(object);
+    }
+
+    private class Batch
+    {
+        private final String collection;
+        private final List<String> fields;
+        private final Set<Object> ids = new LinkedHashSet<Object>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Map<Object, DBObject> objects = new HashMap<Object, DBObject>();
+        private RuntimeException error;
+
+        public Batch(String collection, List<String> fields)
+        {
+            this.collection = collection;
+            this.fields = fields;
+        }
+
+        public void execute()
+        {
+            try
+            {
+                List<Object> idList;
+                synchronized (IdLookupBatcher.this)
+                {
+                    idList = new ArrayList<Object>(ids);
+                }
+                db.requestEnsureConnection();
+                DBCursor cursor = db.getCollection(collection).find(
+                    new BasicDBObject(ID_FIELD, new BasicDBObject("$in", idList)), FieldsSet.from(fields));
+                try
+                {
+                    while (cursor.hasNext())
+                    {
+                        DBObject object = cursor.next();
+                        objects.put(DBObjects.toMatchKey(object.get(ID_FIELD)), object);
+                    }
+                }
+                finally
+                {
+                    cursor.close();
+                }
+            }
+            catch (RuntimeException e)
+            {
+                error = e;
+            }
+            finally
+            {
+                done.countDown();
+            }
+        }
+
+        public void await()
+        {
+            try
+            {
+                done.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new MongoException("Interrupted while waiting for a batched lookup");
+            }
+        }
+
+        public DBObject getObject(Object id)
+        {
+            if (error != null)
+            {
+                throw error;
+            }
+            DBObject object = objects.get(DBObjects.toMatchKey(id));
+            if (object == null)
+            {
+                throw new MongoException("No object found for query " + new BasicDBObject(ID_FIELD, id));
+            }
+            return object;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Proposes indexes for the query shapes recorded by a {@link QueryProfiler} whose
+ * sampled plan scans the whole collection.
+ * <p/>
+ * The keys of every index follow the equality, sort, range order: first the fields
+ * matched by value or with $in, then the sort fields in their order and direction, and
+ * last the fields matched by range with $gt, $gte, $lt or $lte, so that the index both
+ * narrows and sorts the objects. Optionally, the projected fields are appended so that
+ * the index covers the query. Conditions inside $or are not indexed, as every branch
+ * would need its own, and neither are fields only matched by operators an index barely
+ * narrows, such as $ne, $nin, $not, $exists or $regex.
+ * <p/>
+ * A field matched by a geospatial operator such as $near or $within is indexed as 2d,
+ * heading the keys as compound 2d indexes require.
+ * <p/>
+ * The benefit of an index is estimated as the milliseconds spent by the shapes it
+ * serves during the profile, that is their count times their average latency. An index
+ * whose keys are a prefix of another proposed index of the same collection is folded
+ * into it, as the longer one serves both.
+ */
+public final class IndexAdvisor
+{
+    private static final Set<String> EQUALITY_OPERATORS = new HashSet<String>(Arrays.asList("$in", "$all"));
+    private static final Set<String> RANGE_OPERATORS = new HashSet<String>(Arrays.asList("$gt", "$gte", "$lt",
+        "$lte"));
+    private static final Set<String> GEO_OPERATORS = new HashSet<String>(Arrays.asList("$near", "$nearSphere",
+        "$within", "$geoWithin", "$geoIntersects"));
+    private static final String GEO_INDEX = "2d";
+    private static final String ID_FIELD = "_id";
+
+    private IndexAdvisor()
+    {
+    }
+
+    /**
+     * @param shapes the statistics of the query shapes, as returned by
+     *            {@link QueryProfiler#getShapes()}
+     * @param covering whether the projected fields are appended to the keys
+     * @return the proposed indexes, most beneficial first, each with its collection, its
+     *         keys, its estimated benefit in milliseconds, the amount of queries it serves
+     *         and the filters of the shapes it serves
+     */
+    public static List<DBObject> advise(List<DBObject> shapes, boolean covering)
+    {
+        Map<String, Recommendation> recommendations = new LinkedHashMap<String, Recommendation>();
+        for (DBObject shape : shapes)
+        {
+            if (!isCollectionScan(shape))
+            {
+                continue;
+            }
+            DBObject keys = getKeys(shape, covering);
+            if (keys.keySet().isEmpty())
+            {
+                continue;
+            }
+            String collection = (String) shape.get("collection");
+            String id = collection + '|' + keys;
+            Recommendation recommendation = recommendations.get(id);
+            if (recommendation == null)
+            {
+                recommendation = new Recommendation(collection, keys);
+                recommendations.put(id, recommendation);
+            }
+            recommendation.add(shape);
+        }
+
+        List<Recommendation> merged = fold(new ArrayList<Recommendation>(recommendations.values()));
+        Collections.sort(merged, new Comparator<Recommendation>()
+        {
+            public int compare(Recommendation recommendation1, Recommendation recommendation2)
+            {
+                return Double.compare(recommendation2.benefitMillis, recommendation1.benefitMillis);
+            }
+        });
+        List<DBObject> advice = new ArrayList<DBObject>(merged.size());
+        for (Recommendation recommendation : merged)
+        {
+            advice.add(recommendation.toDBObject());
+        }
+        return advice;
+    }
+
+    /**
+     * @return the keys of the index that serves a query shape, in equality, sort, range
+     *         order
+     */
+    @SuppressWarnings("unchecked")
+    public static DBObject getKeys(DBObject shape, boolean covering)
+    {
+        Set<String> geos = new LinkedHashSet<String>();
+        Set<String> equalities = new LinkedHashSet<String>();
+        Set<String> ranges = new LinkedHashSet<String>();
+        DBObject filter = (DBObject) shape.get("filter");
+        if (filter != null)
+        {
+            classify(filter, geos, equalities, ranges);
+        }
+
+        BasicDBObject keys = new BasicDBObject();
+        if (!geos.isEmpty())
+        {
+            // An index holds a single location field
+            keys.put(geos.iterator().next(), GEO_INDEX);
+        }
+        for (String field : equalities)
+        {
+            if (!keys.containsField(field))
+            {
+                keys.put(field, 1);
+            }
+        }
+        DBObject sort = (DBObject) shape.get("sort");
+        if (sort != null)
+        {
+            for (String field : sort.keySet())
+            {
+                if (!keys.containsField(field))
+                {
+                    keys.put(field, sort.get(field));
+                }
+            }
+        }
+        for (String field : ranges)
+        {
+            if (!keys.containsField(field))
+            {
+                keys.put(field, 1);
+            }
+        }
+        List<String> fields = (List<String>) shape.get("fields");
+        if (covering && fields != null)
+        {
+            for (String field : fields)
+            {
+                if (!keys.containsField(field) && !ID_FIELD.equals(field))
+                {
+                    keys.put(field, 1);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static void classify(DBObject filter, Set<String> geos, Set<String> equalities, Set<String> ranges)
+    {
+        for (String field : filter.keySet())
+        {
+            Object condition = filter.get(field);
+            if ("$and".equals(field) && condition instanceof List<?>)
+            {
+                for (Object element : (List<?>) condition)
+                {
+                    classify((DBObject) element, geos, equalities, ranges);
+                }
+            }
+            else if (field.startsWith("$"))
+            {
+                // $or, $nor and $where cannot be served by a single compound index
+                continue;
+            }
+            else
+            {
+                Match match = getMatch(condition);
+                if (match == Match.GEO)
+                {
+                    geos.add(field);
+                }
+                else if (match == Match.EQUALITY)
+                {
+                    equalities.add(field);
+                }
+                else if (match == Match.RANGE)
+                {
+                    ranges.add(field);
+                }
+            }
+        }
+        // A field both matched by value and by range is narrowed by its equality
+        ranges.removeAll(equalities);
+    }
+
+    /**
+     * @return how a condition narrows its field, the most narrowing of its operators
+     *         when it has many
+     */
+    private static Match getMatch(Object condition)
+    {
+        if (!(condition instanceof DBObject) || condition instanceof List<?>)
+        {
+            return Match.EQUALITY;
+        }
+        Match match = Match.UNINDEXED;
+        boolean operators = false;
+        for (String operator : ((DBObject) condition).keySet())
+        {
+            if (!operator.startsWith("$"))
+            {
+                continue;
+            }
+            operators = true;
+            Match operatorMatch = GEO_OPERATORS.contains(operator) ? Match.GEO
+                : EQUALITY_OPERATORS.contains(operator) ? Match.EQUALITY
+                : RANGE_OPERATORS.contains(operator) ? Match.RANGE
+                : Match.UNINDEXED;
+            if (operatorMatch.compareTo(match) > 0)
+            {
+                match = operatorMatch;
+            }
+        }
+        // Without operators, an embedded document is matched as a whole
+        return operators ? match : Match.EQUALITY;
+    }
+
+    private static boolean isCollectionScan(DBObject shape)
+    {
+        DBObject plan = (DBObject) shape.get("plan");
+        return plan != null && Boolean.TRUE.equals(plan.get("collectionScan"));
+    }
+
+    /**
+     * Folds every recommendation into a longer one of the same collection whose keys it
+     * prefixes
+     */
+    private static List<Recommendation> fold(List<Recommendation> recommendations)
+    {
+        for (Iterator<Recommendation> iterator = recommendations.iterator(); iterator.hasNext();)
+        {
+            Recommendation recommendation = iterator.next();
+            for (Recommendation other : recommendations)
+            {
+                if (other != recommendation && other.collection.equals(recommendation.collection)
+                    && isPrefix(recommendation.keys, other.keys))
+                {
+                    other.merge(recommendation);
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+        return recommendations;
+    }
+
+    private static boolean isPrefix(DBObject keys, DBObject otherKeys)
+    {
+        List<String> fields = new ArrayList<String>(keys.keySet());
+        List<String> otherFields = new ArrayList<String>(otherKeys.keySet());
+        if (fields.size() >= otherFields.size() || !otherFields.subList(0, fields.size()).equals(fields))
+        {
+            return false;
+        }
+        for (String field : fields)
+        {
+            if (!keys.get(field).equals(otherKeys.get(field)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * How a condition narrows its field, from least to most
+     */
+    private enum Match
+    {
+        UNINDEXED, RANGE, EQUALITY, GEO
+    }
+
+    private static final class Recommendation
+    {
+        private final String collection;
+        private final DBObject keys;
+        private final List<Object> filters = new ArrayList<Object>();
+        private long count;
+        private double benefitMillis;
+
+        private Recommendation(String collection, DBObject keys)
+        {
+            this.collection = collection;
+            this.keys = keys;
+        }
+
+        private void add(DBObject shape)
+        {
+            long shapeCount = ((Number) shape.get("count")).longValue();
+            count += shapeCount;
+            benefitMillis += shapeCount * ((Number) shape.get("avgMillis")).doubleValue();
+            filters.add(shape.get("filter"));
+        }
+
+        private void merge(Recommendation other)
+        {
+            count += other.count;
+            benefitMillis += other.benefitMillis;
+            filters.addAll(other.filters);
+        }
+
+        private DBObject toDBObject()
+        {
+            return new BasicDBObject("collection", collection)
+                .append("keys", keys)
+                .append("benefitMillis", benefitMillis)
+                .append("count", count)
+                .append("filters", filters);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+
+package org.mule.module.mongo.api;
+
+import org.apache.commons.lang.Validate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * The keys and options of an index: its fields in order, each with its order or type,
+ * its name and whether it is unique, sparse, built in the background or expires the
+ * objects after a time.
+ */
+public class IndexSpec
+{
+    private final DBObject keys;
+    private String name;
+    private boolean unique;
+    private boolean sparse;
+    private boolean background;
+    private Integer expireAfterSeconds;
+
+    /**
+     * @param keys the indexed fields in order, with 1 or -1 for ascending or descending
+     *            order, or an index type such as "2d"
+     */
+    public IndexSpec(DBObject keys)
+    {
+        Validate.notNull(keys);
+        Validate.isTrue(!keys.keySet().isEmpty(), "An index needs at least one key");
+        this.keys = keys;
+    }
+
+    public DBObject getKeys()
+    {
+        return keys;
+    }
+
+    /**
+     * @return the options of the index as the server expects them
+     */
+    public DBObject getOptions()
+    {
+        BasicDBObject options = new BasicDBObject();
+        if (name != null)
+        {
+            options.put("name", name);
+        }
+        if (unique)
+        {
+            options.put("unique", true);
+        }
+        if (sparse)
+        {
+            options.put("sparse", true);
+        }
+        if (background)
+        {
+            options.put("background", true);
+        }
+        if (expireAfterSeconds != null)
+        {
+            options.put("expireAfterSeconds", expireAfterSeconds);
+        }
+        return options;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @param name the name of the index, or null for the one the driver derives from its keys
+     */
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    public boolean isUnique()
+    {
+        return unique;
+    }
+
+    public void setUnique(boolean unique)
+    {
+        this.unique = unique;
+    }
+
+    public boolean isSparse()
+    {
+        return sparse;
+    }
+
+    /**
+     * @param sparse whether objects lacking the indexed fields are left out of the index
+     */
+    public void setSparse(boolean sparse)
+    {
+        this.sparse = sparse;
+    }
+
+    public boolean isBackground()
+    {
+        return background;
+    }
+
+    /**
+     * @param background whether the index is built without blocking other operations on the database
+     */
+    public void setBackground(boolean background)
+    {
+        this.background = background;
+    }
+
+    public Integer getExpireAfterSeconds()
+    {
+        return expireAfterSeconds;
+    }
+
+    /**
+     * @param expireAfterSeconds seconds after the date held by the indexed field the server
+     *            removes an object, or null for objects never to expire
+     */
+    public void setExpireAfterSeconds(Integer expireAfterSeconds)
+    {
+        this.expireAfterSeconds = expireAfterSeconds;
+    }
+}
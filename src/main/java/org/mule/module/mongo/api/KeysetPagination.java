@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * Range based pagination: instead of skipping the objects of the previous pages, the
+ * query of a page starts right after the sort key of the last object of the previous
+ * one, so every page costs the same whatever its depth. The sort key always ends with
+ * _id so that it identifies a single object; its fields must be present in every object.
+ * <p/>
+ * The continuation token holds the sort order and the key of the last object, serialized
+ * as JSON and encoded as URL safe base 64. It is opaque to callers.
+ */
+public final class KeysetPagination
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String ID_FIELD = "_id";
+    private static final String SORT_FIELD = "s";
+    private static final String KEY_FIELD = "k";
+
+    private KeysetPagination()
+    {
+    }
+
+    /**
+     * @return the given sort order followed by _id, in the direction of the last field
+     */
+    public static DBObject getSortKey(DBObject sort)
+    {
+        BasicDBObject sortKey = new BasicDBObject();
+        int direction = 1;
+        if (sort != null)
+        {
+            for (String field : sort.keySet())
+            {
+                direction = getDirection(sort, field);
+                sortKey.put(field, direction);
+            }
+        }
+        if (!sortKey.containsField(ID_FIELD))
+        {
+            sortKey.put(ID_FIELD, direction);
+        }
+        return sortKey;
+    }
+
+    private static int getDirection(DBObject sort, String field)
+    {
+        Object direction = sort.get(field);
+        return direction instanceof Number && ((Number) direction).intValue() < 0 ? -1 : 1;
+    }
+
+    /**
+     * @return the given fields plus the ones of the sort key, or null if all fields are fetched
+     */
+    public static List<String> getFields(List<String> fields, DBObject sortKey)
+    {
+        if (fields == null || fields.isEmpty())
+        {
+            return fields;
+        }
+        List<String> withKey = new ArrayList<String>(fields);
+        for (String field : sortKey.keySet())
+        {
+            if (!withKey.contains(field))
+            {
+                withKey.add(field);
+            }
+        }
+        return withKey;
+    }
+
+    /**
+     * @return the query of the objects that come after the key in the given token
+     */
+    public static DBObject getQuery(DBObject query, DBObject sortKey, String continuationToken)
+    {
+        if (continuationToken == null)
+        {
+            return query;
+        }
+        List<Object> key = decode(continuationToken, sortKey);
+        List<String> fields = new ArrayList<String>(sortKey.keySet());
+
+        // (k1 > v1) or (k1 = v1 and k2 > v2) or ... with < for descending fields
+        BasicDBList or = new BasicDBList();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            BasicDBObject condition = new BasicDBObject();
+            for (int j = 0; j < i; j++)
+            {
+                condition.put(fields.get(j), key.get(j));
+            }
+            String operator = getDirection(sortKey, fields.get(i)) < 0 ? "$lt" : "$gt";
+            condition.put(fields.get(i), new BasicDBObject(operator, key.get(i)));
+            or.add(condition);
+        }
+        DBObject after = or.size() == 1 ? (DBObject) or.get(0) : new BasicDBObject("$or", or);
+        if (query == null || query.keySet().isEmpty())
+        {
+            return after;
+        }
+        BasicDBList and = new BasicDBList();
+        and.add(query);
+        and.add(after);
+        return new BasicDBObject("$and", and);
+    }
+
+    public static String encode(DBObject sortKey, DBObject lastObject)
+    {
+        BasicDBList key = new BasicDBList();
+        for (String field : sortKey.keySet())
+        {
+            key.add(getPath(lastObject, field));
+        }
+        String json = JSON.serialize(new BasicDBObject(SORT_FIELD, sortKey).append(KEY_FIELD, key));
+        return DatatypeConverter.printBase64Binary(json.getBytes(UTF8)).replace('+', '-').replace('/', '_');
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> decode(String continuationToken, DBObject sortKey)
+    {
+        DBObject token;
+        try
+        {
+            byte[] json = DatatypeConverter.parseBase64Binary(continuationToken.replace('-', '+').replace('_', '/'));
+            token = (DBObject) JSON.parse(new String(json, UTF8));
+        }
+        catch (RuntimeException e)
+        {
+            throw new IllegalArgumentException("Invalid continuation token " + continuationToken, e);
+        }
+        if (!JSON.serialize(sortKey).equals(JSON.serialize(token.get(SORT_FIELD))))
+        {
+            throw new IllegalArgumentException("The continuation token was created for sort order "
+                                               + token.get(SORT_FIELD) + " instead of " + sortKey);
+        }
+        return (List<Object>) token.get(KEY_FIELD);
+    }
+
+    private static Object getPath(DBObject object, String path)
+    {
+        Object value = object;
+        for (String field : path.split("\\."))
+        {
+            if (!(value instanceof DBObject))
+            {
+                return null;
+            }
+            value = ((DBObject) value).get(field);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+
+package org.mule.module.mongo.api;
+
+import java.util.Map;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MapReduceCommand;
+import com.mongodb.MapReduceCommand.OutputType;
+
+/**
+ * Options of a map-reduce: the query, sort and limit that select the objects mapped,
+ * the finalize function, the scope of the functions and how the results are written
+ * to the output collection. Together with {@link MapReduceOutputMode#REDUCE}, a query
+ * selecting only new objects folds them into previous results instead of processing
+ * the whole collection again.
+ */
+public class MapReduceOptions
+{
+    private DBObject query;
+    private DBObject sort;
+    private Integer limit;
+    private String finalizeFunction;
+    private Map<String, Object> scope;
+    private MapReduceOutputMode outputMode = MapReduceOutputMode.REPLACE;
+
+    public MapReduceCommand toCommand(DBCollection collection,
+                                      String mapFunction,
+                                      String reduceFunction,
+                                      String outputCollection)
+    {
+        OutputType outputType = outputCollection != null ? outputMode.getOutputType() : OutputType.INLINE;
+        MapReduceCommand command = new MapReduceCommand(collection, mapFunction, reduceFunction,
+            outputCollection, outputType, query);
+        if (sort != null)
+        {
+            command.setSort(sort);
+        }
+        if (limit != null)
+        {
+            command.setLimit(limit);
+        }
+        if (finalizeFunction != null)
+        {
+            command.setFinalize(finalizeFunction);
+        }
+        if (scope != null)
+        {
+            command.setScope(scope);
+        }
+        return command;
+    }
+
+    public DBObject getQuery()
+    {
+        return query;
+    }
+
+    public void setQuery(DBObject query)
+    {
+        this.query = query;
+    }
+
+    public DBObject getSort()
+    {
+        return sort;
+    }
+
+    public void setSort(DBObject sort)
+    {
+        this.sort = sort;
+    }
+
+    public Integer getLimit()
+    {
+        return limit;
+    }
+
+    public void setLimit(Integer limit)
+    {
+        this.limit = limit;
+    }
+
+    public String getFinalizeFunction()
+    {
+        return finalizeFunction;
+    }
+
+    public void setFinalizeFunction(String finalizeFunction)
+    {
+        this.finalizeFunction = finalizeFunction;
+    }
+
+    public Map<String, Object> getScope()
+    {
+        return scope;
+    }
+
+    public void setScope(Map<String, Object> scope)
+    {
+        this.scope = scope;
+    }
+
+    public MapReduceOutputMode getOutputMode()
+    {
+        return outputMode;
+    }
+
+    public void setOutputMode(MapReduceOutputMode outputMode)
+    {
+        this.outputMode = outputMode;
+    }
+}
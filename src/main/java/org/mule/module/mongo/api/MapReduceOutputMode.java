@@ -0,0 +1,38 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+
+package org.mule.module.mongo.api;
+
+import com.mongodb.MapReduceCommand.OutputType;
+
+/**
+ * How the results of a map-reduce are written to an existing output collection
+ */
+public enum MapReduceOutputMode
+{
+    /** The output collection is replaced by the results */
+    REPLACE(OutputType.REPLACE),
+    /** Results overwrite the objects of the output collection with the same key */
+    MERGE(OutputType.MERGE),
+    /** Results are reduced with the objects of the output collection with the same key */
+    REDUCE(OutputType.REDUCE);
+
+    private final OutputType outputType;
+
+    MapReduceOutputMode(OutputType outputType)
+    {
+        this.outputType = outputType;
+    }
+
+    public OutputType getOutputType()
+    {
+        return outputType;
+    }
+
+}
@@ -38,6 +38,12 @@ public interface MongoClient
                         @NotNull DBObject object,
                         @NotNull WriteConcern writeConcern);
 
+    List<DBObject> insertObjects(@NotNull String collection,
+                                 @NotNull Iterable<DBObject> objects,
+                                 int batchSize,
+                                 boolean ordered,
+                                 @NotNull WriteConcern writeConcern);
+
     void updateObjects(@NotNull String collection,
                        DBObject query,
                        DBObject object,
@@ -45,8 +51,29 @@ public interface MongoClient
                        boolean multi,
                        @NotNull WriteConcern writeConcern);
 
+    List<DBObject> updateObjectsInBulk(@NotNull String collection,
+                                       @NotNull Iterable<DBObject> updates,
+                                       int batchSize,
+                                       @NotNull WriteConcern writeConcern);
+
     void saveObject(@NotNull String collection, @NotNull DBObject object, @NotNull WriteConcern writeConcern);
 
+    /**
+     * Updates an object by its _id sending only the fields that changed from its previous
+     * version, as computed by {@link DeltaUpdate}. Nothing is sent if no field changed.
+     *
+     * @param previous the previous version of the object, or null to read the stored one;
+     *            if there is none the object is saved as a whole
+     * @param counterFields the paths of the fields increased by their difference instead
+     *            of set, or null
+     * @return whether a write was sent
+     */
+    boolean updateObjectDelta(@NotNull String collection,
+                              DBObject previous,
+                              @NotNull DBObject object,
+                              List<String> counterFields,
+                              @NotNull WriteConcern writeConcern);
+
     void removeObjects(@NotNull String collection, DBObject query, @NotNull WriteConcern writeConcern);
 
     Iterable<DBObject> mapReduceObjects(@NotNull String collection,
@@ -54,14 +81,112 @@ public interface MongoClient
                                         @NotNull String reduceFunction,
                                         String outputCollection);
 
+    /**
+     * Same as {@link #mapReduceObjects(String, String, String, String)}, mapping only the
+     * objects selected by the given options and writing the results to the output
+     * collection as they say
+     */
+    Iterable<DBObject> mapReduceObjects(@NotNull String collection,
+                                        @NotNull String mapFunction,
+                                        @NotNull String reduceFunction,
+                                        String outputCollection,
+                                        MapReduceOptions options);
+
+    /**
+     * Runs an aggregation pipeline on the server, which must be MongoDB 2.2 or later.
+     * Without an output collection the results are returned inline, so they must fit in
+     * a single document of 16MB. With one, they are written to it through the $out stage
+     * of MongoDB 2.6, replacing its contents, and read lazily from it.
+     *
+     * @param outputCollection the collection the results are written to, or null
+     */
+    Iterable<DBObject> aggregate(@NotNull String collection,
+                                 @NotNull List<DBObject> pipeline,
+                                 String outputCollection);
+
     long countObjects(@NotNull String collection, DBObject query);
 
     Iterable<DBObject> findObjects(@NotNull String collection, DBObject query, List<String> fields, Integer numToSkip, Integer limit);
 
+    /**
+     * Same as {@link #findObjects(String, DBObject, List, Integer, Integer)}, applying the given
+     * cursor options. Unless the results are cached, the returned iterable is lazy: documents
+     * are fetched as it is traversed.
+     */
+    Iterable<DBObject> findObjects(@NotNull String collection,
+                                   DBObject query,
+                                   List<String> fields,
+                                   Integer numToSkip,
+                                   Integer limit,
+                                   QueryOptions options);
+
     DBObject findOneObject(@NotNull String collection, DBObject query, List<String> fields);
 
+    /**
+     * Finds a page of the objects that match a given query in the given sort order. Pages are
+     * delimited by the sort key instead of skipping the objects of the previous pages.
+     *
+     * @param continuationToken the token of the previous page, or null for the first one
+     * @see KeysetPagination
+     */
+    Page findObjectsPage(@NotNull String collection,
+                         DBObject query,
+                         List<String> fields,
+                         DBObject sort,
+                         int pageSize,
+                         String continuationToken);
+
+    /**
+     * Same as {@link #findOneObject(String, DBObject, List)}, applying the given cursor options,
+     * so that for instance the first object of a given sort order is returned
+     */
+    DBObject findOneObject(@NotNull String collection, DBObject query, List<String> fields, QueryOptions options);
+
+    /**
+     * Finds the objects whose key field holds any of the given values, sending them in
+     * $in queries of up to chunkSize values each. Numbers are matched by value whatever
+     * their type, and an object whose key field is an array is found for every element.
+     *
+     * @param keyField the field looked up, _id if null
+     * @param executor executor the chunks are queried in parallel on, or null to query
+     *            them one after another
+     * @return the object found for every given value, in the same order, with null for
+     *         the values no object was found for
+     */
+    List<DBObject> findObjectsByIds(@NotNull String collection,
+                                    String keyField,
+                                    List<?> ids,
+                                    List<String> fields,
+                                    int chunkSize,
+                                    AsyncExecutor executor);
+
+    /**
+     * Atomically updates or removes the first object that matches the given query in the
+     * given sort order, in a single round trip
+     *
+     * @param remove whether the object is removed instead of updated
+     * @param update the update applied to the object, unless it is removed
+     * @param returnNew whether the object is returned as updated instead of as it was
+     * @param upsert whether an object is inserted if none matches the query
+     * @return the object, or null if none matched the query
+     */
+    DBObject findAndModifyObject(@NotNull String collection,
+                                 DBObject query,
+                                 List<String> fields,
+                                 DBObject sort,
+                                 boolean remove,
+                                 DBObject update,
+                                 boolean returnNew,
+                                 boolean upsert);
+
     void createIndex(String collection, String field, IndexOrder order);
 
+    /**
+     * Creates an index unless the driver already created it through this connection.
+     * Indexes dropped through this client are created again by the next call.
+     */
+    void ensureIndex(@NotNull String collection, @NotNull IndexSpec spec);
+
     void dropIndex(String collection, String name);
 
     Collection<DBObject> listIndices(String collection);
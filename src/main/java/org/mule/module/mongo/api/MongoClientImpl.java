@@ -9,38 +9,121 @@
 package org.mule.module.mongo.api;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.validation.constraints.NotNull;
 
 import com.mongodb.*;
 import org.apache.commons.lang.Validate;
+import org.bson.BSON;
 import org.bson.types.ObjectId;
 
-import com.mongodb.MapReduceCommand.OutputType;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSDBFile;
 import com.mongodb.gridfs.GridFSInputFile;
 
 public class MongoClientImpl implements MongoClient
 {
+    /** Wire size bound of a batch when the server does not report its own */
+    private static final int DEFAULT_MAX_BATCH_BYTES = 16 * 1024 * 1024;
+    /** Room left in every batch for the _id the driver adds to documents */
+    private static final int ID_OVERHEAD_BYTES = 32;
+
     private final DB db;
+    private final WriteBehindBuffer writeBehindBuffer;
+    private final QueryCache queryCache;
+    private final QueryCache invalidatedCache;
+    private final SingleFlight singleFlight;
+    private final IdLookupBatcher idLookupBatcher;
+    private final QueryProfiler queryProfiler;
+    /** Commands that drop the indexes of the collection they name */
+    private static final Set<String> INDEX_DROPPING_COMMANDS = new HashSet<String>(Arrays.asList("drop",
+        "dropIndexes", "deleteIndexes"));
 
     public MongoClientImpl(DB db)
+    {
+        this(db, null, null, null, null, null);
+    }
+
+    /**
+     * @param writeBehindBuffer buffer inserts and saves go through instead of being
+     *            sent right away, or null to write through
+     * @param queryCache cache of the results of findOneObject and of findObjects with a
+     *            limit and no tailable cursor, or null to always query the database
+     * @param singleFlight coalescer of identical concurrent findOneObject and countObjects
+     *            reads, or null to send every read
+     * @param idLookupBatcher batcher of concurrent findOneObject lookups by _id into a
+     *            single query, or null to send every lookup on its own
+     * @param queryProfiler profiler queries and writes are recorded in, or null to not
+     *            profile them
+     */
+    public MongoClientImpl(DB db,
+                           WriteBehindBuffer writeBehindBuffer,
+                           QueryCache queryCache,
+                           SingleFlight singleFlight,
+                           IdLookupBatcher idLookupBatcher,
+                           QueryProfiler queryProfiler)
+    {
+        this(db, writeBehindBuffer, queryCache, null, singleFlight, idLookupBatcher, queryProfiler);
+    }
+
+    /**
+     * @param sharedCache cache of other clients of the same database, invalidated by the
+     *            writes of this client without caching its results, or null. Ignored if
+     *            a query cache is given.
+     */
+    public MongoClientImpl(DB db,
+                           WriteBehindBuffer writeBehindBuffer,
+                           QueryCache queryCache,
+                           QueryCache sharedCache,
+                           SingleFlight singleFlight,
+                           IdLookupBatcher idLookupBatcher,
+                           QueryProfiler queryProfiler)
     {
         Validate.notNull(db);
         this.db = db;
+        this.writeBehindBuffer = writeBehindBuffer;
+        this.queryCache = queryCache;
+        this.invalidatedCache = queryCache != null ? queryCache : sharedCache;
+        this.singleFlight = singleFlight;
+        this.idLookupBatcher = idLookupBatcher;
+        this.queryProfiler = queryProfiler;
     }
 
-    public long countObjects(@NotNull String collection, DBObject query)
+    public long countObjects(@NotNull final String collection, final DBObject query)
     {
         Validate.notNull(collection);
-        if (query == null)
+        if (singleFlight == null)
         {
-            return openSession().getCollection(collection).count();
+            return queryCount(collection, query);
         }
-        return openSession().getCollection(collection).count(query);
+        return singleFlight.execute(QueryCache.getKey(collection, "count", query, null, null, null), new Callable<Long>()
+        {
+            public Long call()
+            {
+                return queryCount(collection, query);
+            }
+        });
+    }
+
+    private long queryCount(String collection, DBObject query)
+    {
+        long start = System.nanoTime();
+        DBCollection dbCollection = openSession().getCollection(collection);
+        long count = query == null ? dbCollection.count() : dbCollection.count(query);
+        profile(dbCollection, "count", query, null, null, 0, start, 1);
+        return count;
     }
 
     public void createCollection(@NotNull String collection, boolean capped, Integer maxObjects, Integer size)
@@ -74,13 +157,20 @@ public class MongoClientImpl implements MongoClient
     }
 
     public void dropDatabase() {
+        Set<String> collections = openSession().getCollectionNames();
         openSession().dropDatabase();
+        resetIndexCaches(collections);
+        invalidateAll();
     }
 
     public void dropCollection(@NotNull String collection)
     {
         Validate.notNull(collection);
-        openSession().getCollection(collection).drop();
+        flushBufferedWrites(collection);
+        DBCollection dbCollection = openSession().getCollection(collection);
+        dbCollection.drop();
+        dbCollection.resetIndexCache();
+        invalidate(collection);
     }
 
     public boolean existsCollection(@NotNull String collection)
@@ -90,10 +180,55 @@ public class MongoClientImpl implements MongoClient
     }
 
     public Iterable<DBObject> findObjects(@NotNull String collection, DBObject query, List<String> fields, Integer numToSkip, Integer limit)
+    {
+        return findObjects(collection, query, fields, numToSkip, limit, null);
+    }
+
+    public Iterable<DBObject> findObjects(@NotNull String collection,
+                                          DBObject query,
+                                          List<String> fields,
+                                          Integer numToSkip,
+                                          Integer limit,
+                                          QueryOptions options)
     {
         Validate.notNull(collection);
+        // Only bounded results are cached, as caching reads them eagerly
+        if (queryCache == null || limit == null || (options != null && options.isTailable()))
+        {
+            return queryObjects(collection, query, fields, numToSkip, limit, options);
+        }
+        String key = QueryCache.getKey(collection, "find", query, fields, numToSkip, limit);
+        if (options != null)
+        {
+            key += '|' + options.getResultKey();
+        }
+        @SuppressWarnings("unchecked")
+        List<DBObject> objects = (List<DBObject>) queryCache.get(collection, key);
+        if (objects == null)
+        {
+            long generation = queryCache.getGeneration(collection);
+            objects = new ArrayList<DBObject>();
+            for (DBObject object : queryObjects(collection, query, fields, numToSkip, limit, options))
+            {
+                objects.add(object);
+            }
+            queryCache.put(collection, key, generation, objects);
+        }
+        return objects;
+    }
 
+    private Iterable<DBObject> queryObjects(String collection,
+                                            DBObject query,
+                                            List<String> fields,
+                                            Integer numToSkip,
+                                            Integer limit,
+                                            QueryOptions options)
+    {
         DBCursor dbCursor = openSession().getCollection(collection).find(query, FieldsSet.from(fields));
+        if (options != null)
+        {
+            dbCursor = options.apply(dbCursor);
+        }
         if (numToSkip != null)
         {
             dbCursor = dbCursor.skip(numToSkip);
@@ -103,13 +238,64 @@ public class MongoClientImpl implements MongoClient
             dbCursor = dbCursor.limit(limit);
         }
 
+        if (queryProfiler != null)
+        {
+            return bug5588Workaournd(queryProfiler.profile(dbCursor, options != null ? options.getSort() : null,
+                limit != null ? limit : 0));
+        }
         return bug5588Workaournd(dbCursor);
     }
 
-    public DBObject findOneObject(@NotNull String collection, DBObject query, List<String> fields)
+    public DBObject findOneObject(@NotNull final String collection, final DBObject query, final List<String> fields)
     {
         Validate.notNull(collection);
-        DBObject element = openSession().getCollection(collection).findOne(query, FieldsSet.from(fields));
+        if (queryCache == null && singleFlight == null)
+        {
+            return queryOneObject(collection, query, fields);
+        }
+        String key = QueryCache.getKey(collection, "findOne", query, fields, null, null);
+        long generation = 0;
+        if (queryCache != null)
+        {
+            DBObject cached = (DBObject) queryCache.get(collection, key);
+            if (cached != null)
+            {
+                return cached;
+            }
+            generation = queryCache.getGeneration(collection);
+        }
+        DBObject element;
+        if (singleFlight == null)
+        {
+            element = queryOneObject(collection, query, fields);
+        }
+        else
+        {
+            element = singleFlight.execute(key, new Callable<DBObject>()
+            {
+                public DBObject call()
+                {
+                    return queryOneObject(collection, query, fields);
+                }
+            });
+        }
+        if (queryCache != null)
+        {
+            queryCache.put(collection, key, generation, element);
+        }
+        return element;
+    }
+
+    private DBObject queryOneObject(String collection, DBObject query, List<String> fields)
+    {
+        if (idLookupBatcher != null && IdLookupBatcher.isIdLookup(query))
+        {
+            return idLookupBatcher.findById(collection, query.get("_id"), fields);
+        }
+        long start = System.nanoTime();
+        DBCollection dbCollection = openSession().getCollection(collection);
+        DBObject element = dbCollection.findOne(query, FieldsSet.from(fields));
+        profile(dbCollection, "findOne", query, null, fields, 1, start, element != null ? 1 : 0);
         if (element == null)
         {
             throw new MongoException("No object found for query " + query);
@@ -117,6 +303,207 @@ public class MongoClientImpl implements MongoClient
         return element;
     }
 
+    public Page findObjectsPage(@NotNull String collection,
+                                DBObject query,
+                                List<String> fields,
+                                DBObject sort,
+                                int pageSize,
+                                String continuationToken)
+    {
+        Validate.notNull(collection);
+        Validate.isTrue(pageSize > 0, "pageSize must be greater than zero");
+        DBObject sortKey = KeysetPagination.getSortKey(sort);
+        long start = System.nanoTime();
+        DBCollection dbCollection = openSession().getCollection(collection);
+        DBCursor dbCursor = dbCollection
+            .find(KeysetPagination.getQuery(query, sortKey, continuationToken),
+                FieldsSet.from(KeysetPagination.getFields(fields, sortKey)))
+            .sort(sortKey)
+            .limit(pageSize + 1);
+        try
+        {
+            // One more object than the page holds tells whether there is a next page
+            List<DBObject> objects = new ArrayList<DBObject>(pageSize);
+            while (objects.size() < pageSize && dbCursor.hasNext())
+            {
+                objects.add(dbCursor.next());
+            }
+            String nextToken = dbCursor.hasNext()
+                ? KeysetPagination.encode(sortKey, objects.get(objects.size() - 1))
+                : null;
+            profile(dbCollection, "findPage", query, sortKey, fields, pageSize + 1, start, objects.size());
+            return new Page(objects, nextToken);
+        }
+        finally
+        {
+            dbCursor.close();
+        }
+    }
+
+    public DBObject findOneObject(@NotNull String collection, DBObject query, List<String> fields, QueryOptions options)
+    {
+        if (options == null)
+        {
+            return findOneObject(collection, query, fields);
+        }
+        Validate.notNull(collection);
+        long start = System.nanoTime();
+        DBCollection dbCollection = openSession().getCollection(collection);
+        DBCursor dbCursor = options.apply(dbCollection.find(query, FieldsSet.from(fields))).limit(1);
+        try
+        {
+            boolean found = dbCursor.hasNext();
+            profile(dbCollection, "findOne", query, options.getSort(), fields, 1, start, found ? 1 : 0);
+            if (!found)
+            {
+                throw new MongoException("No object found for query " + query);
+            }
+            return dbCursor.next();
+        }
+        finally
+        {
+            dbCursor.close();
+        }
+    }
+
+    public List<DBObject> findObjectsByIds(@NotNull final String collection,
+                                           String keyField,
+                                           List<?> ids,
+                                           List<String> fields,
+                                           int chunkSize,
+                                           AsyncExecutor executor)
+    {
+        Validate.notNull(collection);
+        Validate.notNull(ids);
+        Validate.isTrue(chunkSize > 0, "chunkSize must be greater than zero");
+        final String key = keyField != null ? keyField : "_id";
+        List<String> keyFields = fields;
+        if (fields != null && !fields.contains(key))
+        {
+            // The key is needed to match every object with the value it was found for
+            keyFields = new ArrayList<String>(fields);
+            keyFields.add(key);
+        }
+        final DBObject fieldsObject = FieldsSet.from(keyFields);
+
+        List<Object> distinctIds = new ArrayList<Object>(new LinkedHashSet<Object>(ids));
+        List<List<Object>> chunks = new ArrayList<List<Object>>();
+        for (int i = 0; i < distinctIds.size(); i += chunkSize)
+        {
+            chunks.add(distinctIds.subList(i, Math.min(i + chunkSize, distinctIds.size())));
+        }
+
+        Map<Object, DBObject> found = new HashMap<Object, DBObject>();
+        if (executor == null || chunks.size() < 2)
+        {
+            for (List<Object> chunk : chunks)
+            {
+                findChunk(collection, key, chunk, fieldsObject, found);
+            }
+        }
+        else
+        {
+            List<Future<Map<Object, DBObject>>> futures = new ArrayList<Future<Map<Object, DBObject>>>();
+            for (final List<Object> chunk : chunks.subList(1, chunks.size()))
+            {
+                futures.add(executor.submit(new Callable<Map<Object, DBObject>>()
+                {
+                    public Map<Object, DBObject> call()
+                    {
+                        return findChunk(collection, key, chunk, fieldsObject, new HashMap<Object, DBObject>());
+                    }
+                }));
+            }
+            // The first chunk is queried by the calling thread meanwhile
+            findChunk(collection, key, chunks.get(0), fieldsObject, found);
+            for (Future<Map<Object, DBObject>> future : futures)
+            {
+                for (Map.Entry<Object, DBObject> entry : awaitChunk(future).entrySet())
+                {
+                    if (!found.containsKey(entry.getKey()))
+                    {
+                        found.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+
+        List<DBObject> objects = new ArrayList<DBObject>(ids.size());
+        for (Object id : ids)
+        {
+            objects.add(found.get(DBObjects.toMatchKey(id)));
+        }
+        return objects;
+    }
+
+    private Map<Object, DBObject> findChunk(String collection,
+                                            String key,
+                                            List<Object> ids,
+                                            DBObject fields,
+                                            Map<Object, DBObject> found)
+    {
+        DBCursor dbCursor = openSession().getCollection(collection)
+            .find(new BasicDBObject(key, new BasicDBObject("$in", ids)), fields);
+        try
+        {
+            while (dbCursor.hasNext())
+            {
+                DBObject object = dbCursor.next();
+                Object value = getField(object, key);
+                // $in matches an array key by any of its elements
+                for (Object element : value instanceof List<?> ? (List<?>) value : Collections.singletonList(value))
+                {
+                    Object matchKey = DBObjects.toMatchKey(element);
+                    if (!found.containsKey(matchKey))
+                    {
+                        found.put(matchKey, object);
+                    }
+                }
+            }
+            return found;
+        }
+        finally
+        {
+            dbCursor.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, DBObject> awaitChunk(Future<Map<Object, DBObject>> future)
+    {
+        try
+        {
+            return (Map<Object, DBObject>) AsyncExecutor.await(future, null);
+        }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted while waiting for a chunk of objects", e);
+        }
+        catch (Exception e)
+        {
+            throw new MongoException("Could not find a chunk of objects", e);
+        }
+    }
+
+    private static Object getField(DBObject object, String path)
+    {
+        Object value = object;
+        for (String name : path.split("\\."))
+        {
+            if (!(value instanceof DBObject))
+            {
+                return null;
+            }
+            value = ((DBObject) value).get(name);
+        }
+        return value;
+    }
+
     public String insertObject(@NotNull String collection,
                                @NotNull DBObject object,
                                @NotNull WriteConcern writeConcern)
@@ -124,14 +511,109 @@ public class MongoClientImpl implements MongoClient
         Validate.notNull(collection);
         Validate.notNull(object);
         Validate.notNull(writeConcern);
+        if (writeBehindBuffer != null)
+        {
+            Object id = writeBehindBuffer.insert(collection, object);
+            invalidate(collection);
+            return id instanceof ObjectId ? ((ObjectId) id).toStringMongod() : null;
+        }
         openSession().getCollection(collection).insert(object,
             writeConcern.toMongoWriteConcern(openSession()));
+        invalidate(collection);
         ObjectId id = (ObjectId) object.get("_id");
         if (id == null) return null;
 
         return id.toStringMongod();
     }
 
+    public List<DBObject> insertObjects(@NotNull String collection,
+                                        @NotNull Iterable<DBObject> objects,
+                                        int batchSize,
+                                        boolean ordered,
+                                        @NotNull WriteConcern writeConcern)
+    {
+        Validate.notNull(collection);
+        Validate.notNull(objects);
+        Validate.notNull(writeConcern);
+        Validate.isTrue(batchSize > 0, "batchSize must be greater than zero");
+
+        DB session = openSession();
+        DBCollection dbCollection = session.getCollection(collection);
+        com.mongodb.WriteConcern mongoWriteConcern = writeConcern.toMongoWriteConcern(session)
+            .continueOnErrorForInsert(!ordered);
+        int maxBatchBytes = session.getMongo().getMaxBsonObjectSize();
+        if (maxBatchBytes <= 0)
+        {
+            maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+        }
+
+        List<DBObject> results = new ArrayList<DBObject>();
+        List<DBObject> batch = new ArrayList<DBObject>(batchSize);
+        int batchBytes = 0;
+        for (DBObject object : objects)
+        {
+            int objectBytes = BSON.encode(object).length + ID_OVERHEAD_BYTES;
+            if (!batch.isEmpty() && (batch.size() == batchSize || batchBytes + objectBytes > maxBatchBytes))
+            {
+                if (!insertBatch(dbCollection, batch, mongoWriteConcern, results) && ordered)
+                {
+                    return results;
+                }
+                batchBytes = 0;
+            }
+            batch.add(object);
+            batchBytes += objectBytes;
+        }
+        if (!batch.isEmpty())
+        {
+            insertBatch(dbCollection, batch, mongoWriteConcern, results);
+        }
+        return results;
+    }
+
+    /**
+     * Inserts a batch of objects in a single round trip, adding its result to the given list and clearing it.
+     * The ids of the batch are only part of the result if the write concern confirmed them all.
+     * 
+     * @return whether the batch was inserted without errors
+     */
+    private boolean insertBatch(DBCollection dbCollection,
+                                List<DBObject> batch,
+                                com.mongodb.WriteConcern writeConcern,
+                                List<DBObject> results)
+    {
+        BasicDBObject result = new BasicDBObject("batch", results.size()).append("count", batch.size());
+        boolean ok = true;
+        try
+        {
+            dbCollection.insert(batch, writeConcern);
+        }
+        catch (MongoException e)
+        {
+            ok = false;
+            result.append("error", e.getMessage());
+        }
+        invalidate(dbCollection.getName());
+        result.append("ok", ok);
+
+        // Ids are only reported once the server acknowledged the whole batch: a failed batch may
+        // have inserted any part of it, and an unacknowledged one none
+        if (ok && writeConcern.callGetLastError())
+        {
+            List<Object> ids = new ArrayList<Object>(batch.size());
+            for (DBObject object : batch)
+            {
+                Object id = object.get("_id");
+                ids.add(id instanceof ObjectId ? ((ObjectId) id).toStringMongod() : id);
+            }
+            result.append("ids", ids);
+        }
+
+        results.add(result);
+        batch.clear();
+        return ok;
+    }
+
     public Collection<String> listCollections()
     {
         return openSession().getCollectionNames();
@@ -141,26 +623,87 @@ public class MongoClientImpl implements MongoClient
                                                @NotNull String mapFunction,
                                                @NotNull String reduceFunction,
                                                String outputCollection)
+    {
+        return mapReduceObjects(collection, mapFunction, reduceFunction, outputCollection, null);
+    }
+
+    public Iterable<DBObject> mapReduceObjects(@NotNull String collection,
+                                               @NotNull String mapFunction,
+                                               @NotNull String reduceFunction,
+                                               String outputCollection,
+                                               MapReduceOptions options)
     {
         Validate.notNull(collection);
         Validate.notEmpty(mapFunction);
         Validate.notEmpty(reduceFunction);
-        return bug5588Workaournd(openSession().getCollection(collection)
-            .mapReduce(mapFunction, reduceFunction, outputCollection, outputTypeFor(outputCollection), null)
-            .results());
+        DBCollection dbCollection = openSession().getCollection(collection);
+        MapReduceOptions mapReduceOptions = options != null ? options : new MapReduceOptions();
+        try
+        {
+            return bug5588Workaournd(dbCollection.mapReduce(
+                mapReduceOptions.toCommand(dbCollection, mapFunction, reduceFunction, outputCollection)).results());
+        }
+        finally
+        {
+            if (outputCollection != null)
+            {
+                invalidate(outputCollection);
+            }
+        }
     }
 
-    private OutputType outputTypeFor(String outputCollection)
+    @SuppressWarnings("unchecked")
+    public Iterable<DBObject> aggregate(@NotNull String collection,
+                                        @NotNull List<DBObject> pipeline,
+                                        String outputCollection)
     {
-        return outputCollection != null ? OutputType.REPLACE : OutputType.INLINE;
+        Validate.notNull(collection);
+        Validate.notEmpty(pipeline);
+        DB session = openSession();
+        List<DBObject> stages = new ArrayList<DBObject>(pipeline);
+        if (outputCollection != null)
+        {
+            stages.add(new BasicDBObject("$out", outputCollection));
+        }
+        // The driver has no aggregation helper, so the command is sent as is
+        CommandResult result;
+        try
+        {
+            result = session.command(new BasicDBObject("aggregate", collection).append("pipeline", stages));
+        }
+        finally
+        {
+            if (outputCollection != null)
+            {
+                invalidate(outputCollection);
+            }
+        }
+        result.throwOnError();
+        if (outputCollection != null)
+        {
+            return bug5588Workaournd(session.getCollection(outputCollection).find());
+        }
+        return bug5588Workaournd((Iterable<DBObject>) (Iterable<?>) result.get("result"));
     }
 
     public void removeObjects(@NotNull String collection, DBObject query, @NotNull WriteConcern writeConcern)
     {
         Validate.notNull(collection);
         Validate.notNull(writeConcern);
-        openSession().getCollection(collection).remove(query != null ? query : new BasicDBObject(),
-            writeConcern.toMongoWriteConcern(openSession()));
+        flushBufferedWrites(collection);
+        try
+        {
+            long start = System.nanoTime();
+            DBCollection dbCollection = openSession().getCollection(collection);
+            dbCollection.remove(query != null ? query : new BasicDBObject(),
+                writeConcern.toMongoWriteConcern(openSession()));
+            profile(dbCollection, "remove", query, null, null, 0, start, 0);
+        }
+        finally
+        {
+            // Invalidated once the write is done so that no concurrent read caches the previous state
+            invalidate(collection);
+        }
     }
 
     public void saveObject(@NotNull String collection,
@@ -170,7 +713,15 @@ public class MongoClientImpl implements MongoClient
         Validate.notNull(collection);
         Validate.notNull(object);
         Validate.notNull(writeConcern);
-        openSession().getCollection(collection).save(object, writeConcern.toMongoWriteConcern(openSession()));
+        if (writeBehindBuffer != null)
+        {
+            writeBehindBuffer.save(collection, object);
+        }
+        else
+        {
+            openSession().getCollection(collection).save(object, writeConcern.toMongoWriteConcern(openSession()));
+        }
+        invalidate(collection);
     }
 
     public void updateObjects(@NotNull String collection,
@@ -182,9 +733,168 @@ public class MongoClientImpl implements MongoClient
     {
         Validate.notNull(collection);
         Validate.notNull(writeConcern);
-        openSession().getCollection(collection).update(query, object, upsert, multi,
-            writeConcern.toMongoWriteConcern(openSession()));
+        flushBufferedWrites(collection);
+        try
+        {
+            long start = System.nanoTime();
+            DBCollection dbCollection = openSession().getCollection(collection);
+            dbCollection.update(query, object, upsert, multi, writeConcern.toMongoWriteConcern(openSession()));
+            profile(dbCollection, "update", query, null, null, multi ? 0 : 1, start, 0);
+        }
+        finally
+        {
+            invalidate(collection);
+        }
+    }
 
+    public boolean updateObjectDelta(@NotNull String collection,
+                                     DBObject previous,
+                                     @NotNull DBObject object,
+                                     List<String> counterFields,
+                                     @NotNull WriteConcern writeConcern)
+    {
+        Validate.notNull(collection);
+        Validate.notNull(object);
+        Validate.notNull(writeConcern);
+        Object id = object.get("_id");
+        Validate.notNull(id, "The object must have an _id");
+        DBObject query = new BasicDBObject("_id", id);
+        DBObject stored = previous;
+        if (stored == null)
+        {
+            // The stored version must include the buffered saves, or fields they added are never unset
+            flushBufferedWrites(collection);
+            long start = System.nanoTime();
+            DBCollection dbCollection = openSession().getCollection(collection);
+            stored = dbCollection.findOne(query);
+            profile(dbCollection, "findOne", query, null, null, 1, start, stored != null ? 1 : 0);
+        }
+        if (stored == null)
+        {
+            saveObject(collection, object, writeConcern);
+            return true;
+        }
+        DBObject update = counterFields != null
+            ? DeltaUpdate.diff(stored, object, counterFields)
+            : DeltaUpdate.diff(stored, object);
+        if (update == null)
+        {
+            return false;
+        }
+        updateObjects(collection, query, update, false, false, writeConcern);
+        return true;
+    }
+
+    public DBObject findAndModifyObject(@NotNull String collection,
+                                        DBObject query,
+                                        List<String> fields,
+                                        DBObject sort,
+                                        boolean remove,
+                                        DBObject update,
+                                        boolean returnNew,
+                                        boolean upsert)
+    {
+        Validate.notNull(collection);
+        Validate.isTrue(remove != (update != null), "Either remove or an update must be given");
+        Validate.isTrue(!remove || (!returnNew && !upsert), "A removed object can be neither returned new nor upserted");
+        flushBufferedWrites(collection);
+        try
+        {
+            long start = System.nanoTime();
+            DBCollection dbCollection = openSession().getCollection(collection);
+            DBObject object = dbCollection.findAndModify(query, FieldsSet.from(fields), sort, remove, update,
+                returnNew, upsert);
+            profile(dbCollection, "findAndModify", query, sort, fields, 1, start, object != null ? 1 : 0);
+            return object;
+        }
+        finally
+        {
+            invalidate(collection);
+        }
+    }
+
+    public List<DBObject> updateObjectsInBulk(@NotNull String collection,
+                                              @NotNull Iterable<DBObject> updates,
+                                              int batchSize,
+                                              @NotNull WriteConcern writeConcern)
+    {
+        Validate.notNull(collection);
+        Validate.notNull(updates);
+        Validate.notNull(writeConcern);
+        Validate.isTrue(batchSize > 0, "batchSize must be greater than zero");
+        flushBufferedWrites(collection);
+
+        DB session = openSession();
+        DBCollection dbCollection = session.getCollection(collection);
+        com.mongodb.WriteConcern mongoWriteConcern = writeConcern.toMongoWriteConcern(session);
+
+        List<DBObject> results = new ArrayList<DBObject>();
+        List<DBObject> batch = new ArrayList<DBObject>(batchSize);
+        for (DBObject update : updates)
+        {
+            batch.add(update);
+            if (batch.size() == batchSize)
+            {
+                updateBatch(session, dbCollection, batch, mongoWriteConcern, results);
+            }
+        }
+        if (!batch.isEmpty())
+        {
+            updateBatch(session, dbCollection, batch, mongoWriteConcern, results);
+        }
+        return results;
+    }
+
+    /**
+     * Sends a batch of updates without waiting for each one and then waits for the
+     * acknowledgement once. The batch is sent in a request of its own, so that every
+     * update and the acknowledgement go through the same connection: the server has
+     * applied the whole batch when the last update is acknowledged. Only the error of
+     * that last update is reported, so the result tells how many updates went unverified.
+     */
+    private void updateBatch(DB session,
+                             DBCollection dbCollection,
+                             List<DBObject> batch,
+                             com.mongodb.WriteConcern writeConcern,
+                             List<DBObject> results)
+    {
+        BasicDBObject result = new BasicDBObject("batch", results.size()).append("count", batch.size());
+        boolean ok = true;
+        int unverified = batch.size();
+        session.requestStart();
+        try
+        {
+            session.requestEnsureConnection();
+            for (DBObject spec : batch)
+            {
+                dbCollection.update(UpdateSpec.getQuery(spec), UpdateSpec.getUpdate(spec), UpdateSpec.isUpsert(spec),
+                    UpdateSpec.isMulti(spec), com.mongodb.WriteConcern.NORMAL);
+            }
+            if (writeConcern.callGetLastError())
+            {
+                // Any update but the last may have failed without an error being reported
+                unverified = batch.size() - 1;
+                String error = session.getLastError(writeConcern).getString("err");
+                if (error != null)
+                {
+                    ok = false;
+                    result.append("error", error);
+                }
+            }
+        }
+        catch (MongoException e)
+        {
+            ok = false;
+            result.append("error", e.getMessage());
+        }
+        finally
+        {
+            session.requestDone();
+        }
+        invalidate(dbCollection.getName());
+        result.append("ok", ok).append("unverified", unverified);
+        results.add(result);
+        batch.clear();
     }
 
     public void createIndex(String collection, String field, IndexOrder order)
@@ -192,9 +902,31 @@ public class MongoClientImpl implements MongoClient
         openSession().getCollection(collection).createIndex(new BasicDBObject(field, order.getValue()));
     }
 
+    public void ensureIndex(@NotNull String collection, @NotNull IndexSpec spec)
+    {
+        Validate.notNull(collection);
+        Validate.notNull(spec);
+        // The driver remembers the indexes it created, by name, so they are only sent once
+        openSession().getCollection(collection).ensureIndex(spec.getKeys(), spec.getOptions());
+    }
+
     public void dropIndex(String collection, String name)
     {
-        openSession().getCollection(collection).dropIndex(name);
+        DBCollection dbCollection = openSession().getCollection(collection);
+        dbCollection.dropIndex(name);
+        dbCollection.resetIndexCache();
+    }
+
+    /**
+     * Makes the driver forget the indexes it created on the given collections, so that
+     * ensuring them creates them again
+     */
+    private void resetIndexCaches(Collection<String> collections)
+    {
+        for (String collection : collections)
+        {
+            db.getCollection(collection).resetIndexCache();
+        }
     }
 
     public Collection<DBObject> listIndices(String collection)
@@ -251,7 +983,42 @@ public class MongoClientImpl implements MongoClient
     
     public DBObject executeComamnd(DBObject command)
     {
-    	return openSession().command(command);
+        Collection<String> droppedIndexes = Collections.emptySet();
+        String name = command.keySet().isEmpty() ? null : command.keySet().iterator().next();
+        if (INDEX_DROPPING_COMMANDS.contains(name) && command.get(name) instanceof String)
+        {
+            droppedIndexes = Collections.singleton((String) command.get(name));
+        }
+        else if ("dropDatabase".equals(name) || "renameCollection".equals(name))
+        {
+            droppedIndexes = openSession().getCollectionNames();
+        }
+        try
+        {
+            return openSession().command(command);
+        }
+        finally
+        {
+            // Commands may write to any collection or drop indexes
+            resetIndexCaches(droppedIndexes);
+            invalidateAll();
+        }
+    }
+
+    private void invalidate(String collection)
+    {
+        if (invalidatedCache != null)
+        {
+            invalidatedCache.invalidate(collection);
+        }
+    }
+
+    private void invalidateAll()
+    {
+        if (invalidatedCache != null)
+        {
+            invalidatedCache.invalidateAll();
+        }
     }
 
     protected GridFS getGridFs()
@@ -259,6 +1026,38 @@ public class MongoClientImpl implements MongoClient
         return new GridFS(openSession());
     }
 
+    /**
+     * Sends the writes buffered for a collection, so that an update or remove that is not
+     * buffered does not overtake them
+     */
+    private void flushBufferedWrites(String collection)
+    {
+        if (writeBehindBuffer != null)
+        {
+            writeBehindBuffer.flush(collection);
+        }
+    }
+
+    /**
+     * Records an operation started at the given {@link System#nanoTime()} in the query
+     * profiler, if any
+     */
+    private void profile(DBCollection dbCollection,
+                         String operation,
+                         DBObject query,
+                         DBObject sort,
+                         List<String> fields,
+                         int limit,
+                         long start,
+                         long documents)
+    {
+        if (queryProfiler != null)
+        {
+            queryProfiler.record(dbCollection, operation, query, sort, FieldsSet.from(fields), limit,
+                System.nanoTime() - start, documents);
+        }
+    }
+
     /*
      * see http://www.mulesoft.org/jira/browse/MULE-5588
      */
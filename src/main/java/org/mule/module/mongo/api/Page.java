@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.util.List;
+
+import com.mongodb.DBObject;
+
+/**
+ * A page of objects and the continuation token to fetch the following one
+ */
+public class Page
+{
+    private final List<DBObject> objects;
+    private final String continuationToken;
+
+    public Page(List<DBObject> objects, String continuationToken)
+    {
+        this.objects = objects;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<DBObject> getObjects()
+    {
+        return objects;
+    }
+
+    /**
+     * @return the token of the next page, or null if this is the last one
+     */
+    public String getContinuationToken()
+    {
+        return continuationToken;
+    }
+
+    public boolean hasNext()
+    {
+        return continuationToken != null;
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.Validate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * In process cache of query results, bounded in entries with least recently used
+ * eviction and expiring entries after a time to live.
+ * <p/>
+ * Every collection has a generation that is increased by the writes done through the
+ * same client. Entries of a previous generation are stale, and a result read while a
+ * write happened is not cached, so a query never returns a result older than the last
+ * write to its collection done through the client. Writes done by other processes are
+ * only seen once the entry expires.
+ * <p/>
+ * Cached objects are copied in and out so that callers cannot modify them.
+ * <p/>
+ * A cache created without a size holds nothing until it is sized, so that clients that
+ * do not cache results can share it and invalidate it before a client that caches does.
+ */
+public class QueryCache
+{
+    private int maxEntries;
+    private long ttlMillis;
+    private final Map<String, Entry> entries;
+    private final Map<String, Long> generations = new HashMap<String, Long>();
+    private long globalGeneration;
+    private long hits;
+    private long misses;
+
+    public QueryCache(int maxEntries, long ttlMillis)
+    {
+        this();
+        resize(maxEntries, ttlMillis);
+    }
+
+    public QueryCache()
+    {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > QueryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Sets the bounds of the cache, evicting the least recently used entries beyond them
+     */
+    public synchronized void resize(int maxEntries, long ttlMillis)
+    {
+        Validate.isTrue(maxEntries > 0, "maxEntries must be greater than zero");
+        Validate.isTrue(ttlMillis > 0, "ttlMillis must be greater than zero");
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        Iterator<String> keys = entries.keySet().iterator();
+        while (entries.size() > maxEntries)
+        {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    public synchronized int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    public synchronized long getTtlMillis()
+    {
+        return ttlMillis;
+    }
+
+    /**
+     * @return a key of the given query that does not depend on the order of its top level fields
+     */
+    @SuppressWarnings("unchecked")
+    public static String getKey(String collection,
+                                String operation,
+                                DBObject query,
+                                List<String> fields,
+                                Integer numToSkip,
+                                Integer limit)
+    {
+        StringBuilder key = new StringBuilder(collection).append('|').append(operation).append('|');
+        if (query != null)
+        {
+            // Embedded documents are matched field by field in order, so only top level fields are sorted
+            Map<String, Object> sorted = new TreeMap<String, Object>(query.toMap());
+            key.append(JSON.serialize(new BasicDBObject(sorted)));
+        }
+        return key.append('|').append(fields).append('|').append(numToSkip).append('|').append(limit).toString();
+    }
+
+    /**
+     * @return the generation a result read from now on belongs to, to be passed to
+     *         {@link #put(String, String, long, Object)}
+     */
+    public synchronized long getGeneration(String collection)
+    {
+        Long generation = generations.get(collection);
+        return globalGeneration + (generation != null ? generation : 0);
+    }
+
+    /**
+     * @return a copy of the cached result, or null if there is none or it is stale
+     */
+    public synchronized Object get(String collection, String key)
+    {
+        Entry entry = entries.get(key);
+        if (entry != null && (entry.generation != getGeneration(collection) || entry.expiration < System.currentTimeMillis()))
+        {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null)
+        {
+            misses++;
+            return null;
+        }
+        hits++;
+        return DBObjects.copy(entry.value);
+    }
+
+    /**
+     * Caches a result unless its collection was written since the given generation
+     */
+    public synchronized void put(String collection, String key, long generation, Object value)
+    {
+        if (maxEntries > 0 && generation == getGeneration(collection))
+        {
+            entries.put(key, new Entry(DBObjects.copy(value), generation, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    public synchronized void invalidate(String collection)
+    {
+        Long generation = generations.get(collection);
+        generations.put(collection, generation != null ? generation + 1 : 1);
+    }
+
+    /**
+     * Invalidates every collection, after a write whose target is unknown
+     */
+    public synchronized void invalidateAll()
+    {
+        // Generations are summed, so increasing the global one changes them all
+        globalGeneration++;
+        entries.clear();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    private static final class Entry
+    {
+        private final Object value;
+        private final long generation;
+        private final long expiration;
+
+        private Entry(Object value, long generation, long expiration)
+        {
+            this.value = value;
+            this.generation = generation;
+            this.expiration = expiration;
+        }
+    }
+}
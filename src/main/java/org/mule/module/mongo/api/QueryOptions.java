@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import com.mongodb.Bytes;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * Cursor options of a query, applied on the server: sort order, index hint, batch
+ * size, maximum amount of index or collection entries scanned and tailable cursors
+ * over capped collections.
+ */
+public class QueryOptions
+{
+    private DBObject sort;
+    private DBObject hint;
+    private String hintIndex;
+    private Integer batchSize;
+    private Integer maxScan;
+    private boolean tailable;
+
+    public DBCursor apply(DBCursor cursor)
+    {
+        if (sort != null)
+        {
+            cursor = cursor.sort(sort);
+        }
+        if (hint != null)
+        {
+            cursor = cursor.hint(hint);
+        }
+        else if (hintIndex != null)
+        {
+            cursor = cursor.hint(hintIndex);
+        }
+        if (batchSize != null)
+        {
+            cursor = cursor.batchSize(batchSize);
+        }
+        if (maxScan != null)
+        {
+            cursor = cursor.addSpecial("$maxScan", maxScan);
+        }
+        if (tailable)
+        {
+            cursor = cursor.addOption(Bytes.QUERYOPTION_TAILABLE).addOption(Bytes.QUERYOPTION_AWAITDATA);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the options that may change which documents are returned or their order,
+     *         to tell apart the cached results of the same query
+     */
+    public String getResultKey()
+    {
+        return sort + "|" + hint + "|" + hintIndex + "|" + maxScan;
+    }
+
+    public DBObject getSort()
+    {
+        return sort;
+    }
+
+    /**
+     * @param sort the fields to sort by, with 1 for ascending and -1 for descending order
+     */
+    public void setSort(DBObject sort)
+    {
+        this.sort = sort;
+    }
+
+    public DBObject getHint()
+    {
+        return hint;
+    }
+
+    /**
+     * @param hint the key pattern of the index the query must use
+     */
+    public void setHint(DBObject hint)
+    {
+        this.hint = hint;
+    }
+
+    public String getHintIndex()
+    {
+        return hintIndex;
+    }
+
+    /**
+     * @param hintIndex the name of the index the query must use
+     */
+    public void setHintIndex(String hintIndex)
+    {
+        this.hintIndex = hintIndex;
+    }
+
+    public Integer getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the amount of documents the server returns per round trip
+     */
+    public void setBatchSize(Integer batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    public Integer getMaxScan()
+    {
+        return maxScan;
+    }
+
+    /**
+     * @param maxScan the maximum amount of documents or index keys the server scans
+     */
+    public void setMaxScan(Integer maxScan)
+    {
+        this.maxScan = maxScan;
+    }
+
+    public boolean isTailable()
+    {
+        return tailable;
+    }
+
+    /**
+     * @param tailable whether the cursor waits for new documents at the end of a capped collection
+     */
+    public void setTailable(boolean tailable)
+    {
+        this.tailable = tailable;
+    }
+}
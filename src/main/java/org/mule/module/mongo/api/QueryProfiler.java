@@ -0,0 +1,507 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.util.JSON;
+
+/**
+ * Records the latency and the amount of documents returned of every operation, grouped
+ * by the shape of its query: the query with every literal value replaced by 1, so that
+ * queries differing only in their values share a shape. Latency percentiles are computed
+ * over the last {@link #LATENCY_SAMPLES} operations of every shape.
+ * <p/>
+ * The plan of every shape is sampled with explain on a background thread at most once
+ * per explain interval, telling whether its queries use an index or scan the whole
+ * collection. As explain runs the query, it is bounded by the limit of the operation
+ * sampled. Shapes are bounded in number, evicting the least recently seen.
+ */
+public class QueryProfiler implements QueryProfilerMBean
+{
+    public static final int DEFAULT_MAX_SHAPES = 1000;
+    public static final int LATENCY_SAMPLES = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryProfiler.class);
+    private static final String OBJECT_NAME = "org.mule.module.mongo:type=QueryProfiler,database=";
+    private static final int EXPLAIN_QUEUE_SIZE = 100;
+    private static final String COLLECTION_SCAN_CURSOR = "BasicCursor";
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final long explainIntervalMillis;
+    private final int maxShapes;
+    private final Map<String, Shape> shapes;
+    private final ThreadPoolExecutor explainer;
+    private long recordedOperations;
+    private ObjectName objectName;
+
+    /**
+     * @param explainIntervalMillis minimum milliseconds between two explains of the same
+     *            shape, or 0 to never explain
+     */
+    public QueryProfiler(long explainIntervalMillis, int maxShapes)
+    {
+        Validate.isTrue(explainIntervalMillis >= 0, "explainIntervalMillis must not be negative");
+        Validate.isTrue(maxShapes > 0, "maxShapes must be greater than zero");
+        this.explainIntervalMillis = explainIntervalMillis;
+        this.maxShapes = maxShapes;
+        this.shapes = new LinkedHashMap<String, Shape>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Shape> eldest)
+            {
+                return size() > QueryProfiler.this.maxShapes;
+            }
+        };
+        // Explains waiting beyond the queue are dropped, they are only samples
+        this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(EXPLAIN_QUEUE_SIZE), new ThreadFactory()
+            {
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "mongo-query-profiler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * @return the shape of a query: its fields and operators, with every literal value
+     *         replaced by 1 and top level fields sorted
+     */
+    @SuppressWarnings("unchecked")
+    public static DBObject getShape(DBObject query)
+    {
+        if (query == null)
+        {
+            return new BasicDBObject();
+        }
+        return (DBObject) normalize(new BasicDBObject(new TreeMap<String, Object>(query.toMap())));
+    }
+
+    private static Object normalize(Object value)
+    {
+        if (value instanceof List<?>)
+        {
+            // Lists of conditions, as in $or, keep their shapes; lists of values, as in $in, collapse
+            List<Object> shapes = new ArrayList<Object>();
+            for (Object element : (List<?>) value)
+            {
+                if (!(element instanceof DBObject))
+                {
+                    return 1;
+                }
+                shapes.add(normalize(element));
+            }
+            return shapes;
+        }
+        if (value instanceof DBObject)
+        {
+            DBObject object = (DBObject) value;
+            BasicDBObject shape = new BasicDBObject();
+            for (String field : object.keySet())
+            {
+                shape.put(field, normalize(object.get(field)));
+            }
+            return shape;
+        }
+        return 1;
+    }
+
+    /**
+     * Records an operation with no limit
+     */
+    public void record(DBCollection collection,
+                       String operation,
+                       DBObject query,
+                       DBObject sort,
+                       DBObject fields,
+                       long elapsedNanos,
+                       long documents)
+    {
+        record(collection, operation, query, sort, fields, 0, elapsedNanos, documents);
+    }
+
+    /**
+     * Records an operation, sampling its plan if its shape was not explained during the
+     * last explain interval
+     *
+     * @param collection the collection queried, used to explain the query
+     * @param operation the name of the operation, such as find or count
+     * @param limit the maximum amount of documents the operation reads, or 0 for no limit
+     * @param elapsedNanos the time the operation took
+     * @param documents the amount of documents the operation returned
+     */
+    public void record(DBCollection collection,
+                       String operation,
+                       DBObject query,
+                       DBObject sort,
+                       DBObject fields,
+                       int limit,
+                       long elapsedNanos,
+                       long documents)
+    {
+        recordOperation(collection, operation, query, sort, fields, limit, elapsedNanos, documents);
+    }
+
+    private Shape recordOperation(DBCollection collection,
+                                  String operation,
+                                  DBObject query,
+                                  DBObject sort,
+                                  DBObject fields,
+                                  int limit,
+                                  long elapsedNanos,
+                                  long documents)
+    {
+        Shape shape = countOperation(collection, operation, query, sort, fields);
+        shape.add(elapsedNanos, documents);
+        sampleExplain(collection, query, sort, fields, limit, shape);
+        return shape;
+    }
+
+    private Shape countOperation(DBCollection collection, String operation, DBObject query, DBObject sort, DBObject fields)
+    {
+        DBObject filterShape = getShape(query);
+        String key = collection.getName() + '|' + operation + '|' + JSON.serialize(filterShape) + '|'
+                     + JSON.serialize(sort) + '|' + (fields != null ? fields.keySet() : null);
+        synchronized (this)
+        {
+            recordedOperations++;
+            Shape existing = shapes.get(key);
+            if (existing == null)
+            {
+                existing = new Shape(collection.getName(), operation, filterShape, sort,
+                    fields != null ? new ArrayList<String>(fields.keySet()) : null);
+                shapes.put(key, existing);
+            }
+            return existing;
+        }
+    }
+
+    private void sampleExplain(DBCollection collection,
+                               final DBObject query,
+                               final DBObject sort,
+                               final DBObject fields,
+                               final int limit,
+                               final Shape shape)
+    {
+        if (explainIntervalMillis > 0 && shape.claimExplain(System.currentTimeMillis(), explainIntervalMillis))
+        {
+            final DBCollection dbCollection = collection;
+            explainer.execute(new Runnable()
+            {
+                public void run()
+                {
+                    explain(dbCollection, query, sort, fields, limit, shape);
+                }
+            });
+        }
+    }
+
+    private void explain(DBCollection collection, DBObject query, DBObject sort, DBObject fields, int limit, Shape shape)
+    {
+        try
+        {
+            DBCursor cursor = collection.find(query != null ? query : new BasicDBObject(), fields);
+            if (sort != null)
+            {
+                cursor = cursor.sort(sort);
+            }
+            if (limit > 0)
+            {
+                cursor = cursor.limit(limit);
+            }
+            DBObject explain = cursor.explain();
+            BasicDBObject plan = new BasicDBObject();
+            for (String field : Arrays.asList("cursor", "n", "nscanned", "nscannedObjects", "scanAndOrder", "indexOnly", "millis"))
+            {
+                if (explain.containsField(field))
+                {
+                    plan.put(field, explain.get(field));
+                }
+            }
+            Object cursorType = explain.get("cursor");
+            plan.put("collectionScan", cursorType instanceof String && ((String) cursorType).startsWith(COLLECTION_SCAN_CURSOR));
+            shape.setPlan(plan);
+        }
+        catch (RuntimeException e)
+        {
+            logger.debug("Could not explain a query on " + collection.getName(), e);
+        }
+    }
+
+    /**
+     * Wraps the cursor of a find so that every traversal is recorded once its query
+     * returns, with the time the first batch took to arrive. Traversals abandoned before
+     * the end of the cursor are recorded too, and the documents they read are added to
+     * their shape as the caller reads them.
+     *
+     * @param limit the limit of the find, or 0 for no limit
+     */
+    public Iterable<DBObject> profile(final DBCursor cursor, final DBObject sort, final int limit)
+    {
+        return new Iterable<DBObject>()
+        {
+            public Iterator<DBObject> iterator()
+            {
+                final Iterator<DBObject> iterator = cursor.iterator();
+                return new Iterator<DBObject>()
+                {
+                    private Shape shape;
+
+                    public boolean hasNext()
+                    {
+                        if (shape != null)
+                        {
+                            return iterator.hasNext();
+                        }
+                        // The first call sends the query and waits for the first batch
+                        long start = System.nanoTime();
+                        boolean hasNext = iterator.hasNext();
+                        long elapsedNanos = System.nanoTime() - start;
+                        shape = recordOperation(cursor.getCollection(), "find", cursor.getQuery(), sort,
+                            cursor.getKeysWanted(), limit, elapsedNanos, 0);
+                        return hasNext;
+                    }
+
+                    public DBObject next()
+                    {
+                        if (shape == null)
+                        {
+                            hasNext();
+                        }
+                        DBObject next = iterator.next();
+                        shape.addDocuments(1);
+                        return next;
+                    }
+
+                    public void remove()
+                    {
+                        iterator.remove();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return the statistics of every shape, slowest first by 95th percentile latency
+     */
+    public List<DBObject> getShapes()
+    {
+        List<Shape> snapshot;
+        synchronized (this)
+        {
+            snapshot = new ArrayList<Shape>(shapes.values());
+        }
+        List<DBObject> statistics = new ArrayList<DBObject>(snapshot.size());
+        for (Shape shape : snapshot)
+        {
+            statistics.add(shape.toDBObject());
+        }
+        Collections.sort(statistics, new Comparator<DBObject>()
+        {
+            public int compare(DBObject statistics1, DBObject statistics2)
+            {
+                return Double.compare((Double) statistics2.get("p95Millis"), (Double) statistics1.get("p95Millis"));
+            }
+        });
+        return statistics;
+    }
+
+    public synchronized int getShapeCount()
+    {
+        return shapes.size();
+    }
+
+    public synchronized long getRecordedOperations()
+    {
+        return recordedOperations;
+    }
+
+    public String[] getSlowestShapes()
+    {
+        List<String> lines = new ArrayList<String>();
+        for (DBObject statistics : getShapes())
+        {
+            lines.add(statistics.toString());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public String[] getCollectionScans()
+    {
+        List<String> lines = new ArrayList<String>();
+        for (DBObject statistics : getShapes())
+        {
+            DBObject plan = (DBObject) statistics.get("plan");
+            if (plan != null && Boolean.TRUE.equals(plan.get("collectionScan")))
+            {
+                lines.add(statistics.toString());
+            }
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    public synchronized void reset()
+    {
+        shapes.clear();
+        recordedOperations = 0;
+    }
+
+    /**
+     * Registers this profiler in the platform MBean server
+     */
+    public synchronized void register(String database)
+    {
+        try
+        {
+            ObjectName name = new ObjectName(OBJECT_NAME + ObjectName.quote(database));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        }
+        catch (InstanceAlreadyExistsException e)
+        {
+            logger.debug("A query profiler for {} is already registered", database);
+        }
+        catch (JMException e)
+        {
+            logger.warn("Could not register query profiler for " + database, e);
+        }
+    }
+
+    /**
+     * Unregisters this profiler and stops explaining queries
+     */
+    public synchronized void shutdown()
+    {
+        explainer.shutdownNow();
+        if (objectName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch (JMException e)
+            {
+                logger.warn("Could not unregister query profiler " + objectName, e);
+            }
+            objectName = null;
+        }
+    }
+
+    private static final class Shape
+    {
+        private final String collection;
+        private final String operation;
+        private final DBObject filter;
+        private final DBObject sort;
+        private final List<String> fields;
+        private final long[] latencies = new long[LATENCY_SAMPLES];
+        private long count;
+        private long documents;
+        private long totalNanos;
+        private long maxNanos;
+        private long lastExplainMillis;
+        private DBObject plan;
+
+        private Shape(String collection, String operation, DBObject filter, DBObject sort, List<String> fields)
+        {
+            this.collection = collection;
+            this.operation = operation;
+            this.filter = filter;
+            this.sort = sort;
+            this.fields = fields;
+        }
+
+        private synchronized void add(long elapsedNanos, long returned)
+        {
+            latencies[(int) (count % LATENCY_SAMPLES)] = elapsedNanos;
+            count++;
+            documents += returned;
+            totalNanos += elapsedNanos;
+            maxNanos = Math.max(maxNanos, elapsedNanos);
+        }
+
+        private synchronized void addDocuments(long returned)
+        {
+            documents += returned;
+        }
+
+        private synchronized boolean claimExplain(long now, long intervalMillis)
+        {
+            if (lastExplainMillis != 0 && now - lastExplainMillis < intervalMillis)
+            {
+                return false;
+            }
+            lastExplainMillis = now;
+            return true;
+        }
+
+        private synchronized void setPlan(DBObject plan)
+        {
+            this.plan = plan;
+        }
+
+        private synchronized DBObject toDBObject()
+        {
+            long[] samples = Arrays.copyOf(latencies, (int) Math.min(count, LATENCY_SAMPLES));
+            Arrays.sort(samples);
+            return new BasicDBObject("collection", collection)
+                .append("operation", operation)
+                .append("filter", filter)
+                .append("sort", sort)
+                .append("fields", fields)
+                .append("count", count)
+                .append("documents", documents)
+                .append("avgMillis", count > 0 ? totalNanos / NANOS_PER_MILLI / count : 0.0)
+                .append("p50Millis", percentile(samples, 0.50))
+                .append("p95Millis", percentile(samples, 0.95))
+                .append("p99Millis", percentile(samples, 0.99))
+                .append("maxMillis", maxNanos / NANOS_PER_MILLI)
+                .append("plan", plan);
+        }
+
+        private static double percentile(long[] sortedSamples, double percentile)
+        {
+            if (sortedSamples.length == 0)
+            {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(percentile * sortedSamples.length) - 1;
+            return sortedSamples[Math.max(index, 0)] / NANOS_PER_MILLI;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+/**
+ * JMX view of the query shapes recorded by a {@link QueryProfiler}
+ */
+public interface QueryProfilerMBean
+{
+    int getShapeCount();
+
+    long getRecordedOperations();
+
+    /**
+     * @return a line per shape, slowest first by 95th percentile latency
+     */
+    String[] getSlowestShapes();
+
+    /**
+     * @return a line per shape whose last sampled plan scans the whole collection
+     */
+    String[] getCollectionScans();
+
+    void reset();
+}
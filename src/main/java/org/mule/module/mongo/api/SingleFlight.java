@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.mongodb.MongoException;
+
+/**
+ * Coalesces identical concurrent reads: while a read with a given key is in flight,
+ * the callers of the same read wait for its result instead of sending their own. Each
+ * waiting caller gets its own copy of the result, or the exception the read failed with.
+ * <p/>
+ * A caller joining a read in flight may miss a write that completed after that read was
+ * sent, which is the price of not sending its own read.
+ */
+public class SingleFlight
+{
+    private final ConcurrentMap<String, FutureTask<Object>> inFlight = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Callable<T> read)
+    {
+        FutureTask<Object> task = new FutureTask<Object>((Callable<Object>) read);
+        FutureTask<Object> leader = inFlight.putIfAbsent(key, task);
+        if (leader == null)
+        {
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                inFlight.remove(key, task);
+            }
+            return (T) getResult(task);
+        }
+        return (T) DBObjects.copy(getResult(leader));
+    }
+
+    private Object getResult(FutureTask<Object> task)
+    {
+        try
+        {
+            return task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted while waiting for a coalesced read");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MongoException("Coalesced read failed", e.getCause());
+        }
+    }
+
+    public int getInFlight()
+    {
+        return inFlight.size();
+    }
+}
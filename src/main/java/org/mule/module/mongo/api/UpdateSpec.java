@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * The fields of an update specification sent through
+ * {@link MongoClient#updateObjectsInBulk(String, Iterable, int, WriteConcern)}
+ */
+public final class UpdateSpec
+{
+    public static final String QUERY = "query";
+    public static final String UPDATE = "update";
+    public static final String UPSERT = "upsert";
+    public static final String MULTI = "multi";
+
+    private UpdateSpec()
+    {
+    }
+
+    public static DBObject from(DBObject query, DBObject update, boolean upsert, boolean multi)
+    {
+        return new BasicDBObject(QUERY, query).append(UPDATE, update).append(UPSERT, upsert).append(MULTI, multi);
+    }
+
+    public static DBObject getQuery(DBObject spec)
+    {
+        DBObject query = (DBObject) spec.get(QUERY);
+        return query != null ? query : new BasicDBObject();
+    }
+
+    public static DBObject getUpdate(DBObject spec)
+    {
+        DBObject update = (DBObject) spec.get(UPDATE);
+        if (update == null)
+        {
+            throw new IllegalArgumentException("Update specification without " + UPDATE + ": " + spec);
+        }
+        return update;
+    }
+
+    public static boolean isUpsert(DBObject spec)
+    {
+        return Boolean.TRUE.equals(spec.get(UPSERT));
+    }
+
+    public static boolean isMulti(DBObject spec)
+    {
+        return Boolean.TRUE.equals(spec.get(MULTI));
+    }
+}
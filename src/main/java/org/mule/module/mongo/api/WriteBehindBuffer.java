@@ -0,0 +1,576 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * Buffers inserts and saves per collection and flushes every buffer as a batch once it
+ * holds a given amount of writes or a given time has elapsed. Consecutive inserts are
+ * sent as a single bulk insert, and saves of the same _id with no other write of that
+ * _id in between are coalesced so only the last one reaches the server.
+ * <p/>
+ * Batches are flushed in order by a single thread, and the writes of a batch are sent in
+ * the order they were buffered through a single connection, so writes to the same
+ * collection reach the server in the order they were buffered. Updates and removes are
+ * not buffered: {@link #flush(String)} must be called before sending them so that they
+ * do not overtake buffered writes. Callers block once the buffer holds
+ * {@link #CAPACITY_BATCHES} full batches that have not been flushed yet. A batch that
+ * fails because the server cannot be reached is retried on the next flush, ignoring the
+ * duplicate key errors of the inserts applied by the failed attempt.
+ * <p/>
+ * With a {@link WriteBehindJournal}, every write is on disk before it is acknowledged,
+ * and the writes a previous process journaled but did not flush are buffered again
+ * when the buffer is created.
+ */
+public class WriteBehindBuffer
+{
+    /** Batches that can be pending before writers block */
+    public static final int CAPACITY_BATCHES = 10;
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindBuffer.class);
+    private static final String ID_FIELD = "_id";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final DB db;
+    private final int maxBatchSize;
+    private final WriteConcern writeConcern;
+    private final WriteBehindPolicy policy;
+    private final WriteBehindJournal journal;
+    private final Semaphore capacity;
+    private final ScheduledExecutorService flusher;
+    private final Map<String, CollectionBuffer> buffers = new HashMap<String, CollectionBuffer>();
+    /** Batches taken out of the buffers, flushed in the order they were taken */
+    private final LinkedList<CollectionBuffer> ready = new LinkedList<CollectionBuffer>();
+    private final Runnable flushReady = new Runnable()
+    {
+        public void run()
+        {
+            flushReady();
+        }
+    };
+    private volatile FlushListener flushListener;
+    private boolean closed;
+
+    public WriteBehindBuffer(DB db,
+                             int maxBatchSize,
+                             long maxDelayMillis,
+                             WriteConcern writeConcern,
+                             WriteBehindPolicy policy)
+    {
+        this(db, maxBatchSize, maxDelayMillis, writeConcern, policy, null);
+    }
+
+    /**
+     * @param journal journal writes are recorded in before being buffered, or null
+     */
+    public WriteBehindBuffer(DB db,
+                             int maxBatchSize,
+                             long maxDelayMillis,
+                             WriteConcern writeConcern,
+                             WriteBehindPolicy policy,
+                             WriteBehindJournal journal)
+    {
+        Validate.notNull(db);
+        Validate.isTrue(maxBatchSize > 0, "maxBatchSize must be greater than zero");
+        Validate.isTrue(maxDelayMillis > 0, "maxDelayMillis must be greater than zero");
+        Validate.notNull(writeConcern);
+        Validate.notNull(policy);
+        this.db = db;
+        this.maxBatchSize = maxBatchSize;
+        this.writeConcern = writeConcern;
+        this.policy = policy;
+        this.journal = journal;
+        this.capacity = new Semaphore(maxBatchSize * CAPACITY_BATCHES);
+        this.flusher = Executors.newSingleThreadScheduledExecutor();
+        this.flusher.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                flushAll();
+            }
+        }, maxDelayMillis, maxDelayMillis, TimeUnit.MILLISECONDS);
+        if (journal != null)
+        {
+            try
+            {
+                recover();
+            }
+            catch (RuntimeException e)
+            {
+                flusher.shutdownNow();
+                throw e;
+            }
+        }
+    }
+
+    private void recover()
+    {
+        try
+        {
+            List<DBObject> records = journal.recover();
+            if (!records.isEmpty())
+            {
+                logger.info("Recovering {} journaled writes from {}", records.size(), journal.getDirectory());
+            }
+            for (DBObject record : records)
+            {
+                // Recovered inserts may have been applied already, so they are saved instead
+                add(WriteBehindJournal.getCollection(record), WriteBehindJournal.getObject(record), false);
+            }
+            journal.discardRecovered();
+        }
+        catch (IOException e)
+        {
+            throw new MongoException("Could not recover the journal in " + journal.getDirectory(), e);
+        }
+    }
+
+    /**
+     * @param flushListener listener notified after every batch is sent, or null
+     */
+    public void setFlushListener(FlushListener flushListener)
+    {
+        this.flushListener = flushListener;
+    }
+
+    /**
+     * Buffers an insert, assigning the object an _id if it has none
+     *
+     * @return the _id of the object
+     */
+    public Object insert(String collection, DBObject object)
+    {
+        Object id = ensureId(object);
+        await(add(collection, object, true));
+        return id;
+    }
+
+    /**
+     * Buffers a save, assigning the object an _id if it has none
+     */
+    public void save(String collection, DBObject object)
+    {
+        ensureId(object);
+        await(add(collection, object, false));
+    }
+
+    private Object ensureId(DBObject object)
+    {
+        Object id = object.get(ID_FIELD);
+        if (id == null)
+        {
+            id = new ObjectId();
+            object.put(ID_FIELD, id);
+        }
+        return id;
+    }
+
+    private Future<Void> add(String collection, DBObject object, boolean insert)
+    {
+        Validate.notNull(collection);
+        Validate.notNull(object);
+        WriteBehindJournal.JournaledWrite journaledWrite = null;
+        if (journal != null)
+        {
+            try
+            {
+                journaledWrite = journal.append(collection, object, insert);
+            }
+            catch (IOException e)
+            {
+                throw new MongoException("Could not journal a write to " + collection, e);
+            }
+        }
+        capacity.acquireUninterruptibly();
+        synchronized (this)
+        {
+            if (closed)
+            {
+                capacity.release();
+                if (journaledWrite != null)
+                {
+                    journal.release(journaledWrite);
+                }
+                throw new IllegalStateException("The write-behind buffer is closed");
+            }
+            CollectionBuffer buffer = buffers.get(collection);
+            if (buffer == null)
+            {
+                buffer = new CollectionBuffer(collection);
+                buffers.put(collection, buffer);
+            }
+            buffer.add(object, insert, journaledWrite);
+            if (buffer.size() >= maxBatchSize)
+            {
+                ready.add(buffers.remove(collection));
+                flusher.execute(flushReady);
+            }
+            return buffer.future;
+        }
+    }
+
+    private void await(Future<Void> future)
+    {
+        if (policy != WriteBehindPolicy.BATCH)
+        {
+            return;
+        }
+        try
+        {
+            future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new MongoException("Interrupted while waiting for the write-behind batch");
+        }
+        catch (ExecutionException e)
+        {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Flushes every buffered write and waits until the batches are acknowledged
+     */
+    public void flush()
+    {
+        try
+        {
+            flusher.submit(new Runnable()
+            {
+                public void run()
+                {
+                    flushAll();
+                }
+            }).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Flushes the buffered writes to a collection, and the batches taken before them, and
+     * waits until they are acknowledged
+     */
+    public void flush(final String collection)
+    {
+        synchronized (this)
+        {
+            CollectionBuffer buffer = buffers.remove(collection);
+            if (buffer == null && ready.isEmpty())
+            {
+                return;
+            }
+            if (buffer != null)
+            {
+                ready.add(buffer);
+            }
+        }
+        try
+        {
+            flusher.submit(flushReady).get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e)
+        {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    /**
+     * Stops accepting writes, flushes the buffered ones and stops the flushing thread.
+     * The journal, if any, is closed keeping the writes that could not be flushed.
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+        }
+        flush();
+        flusher.shutdown();
+        try
+        {
+            if (!flusher.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            {
+                logger.warn("Write-behind buffer did not finish flushing in {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        failUnflushed();
+        if (journal != null)
+        {
+            try
+            {
+                journal.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Could not close the journal in " + journal.getDirectory(), e);
+            }
+        }
+    }
+
+    private synchronized void failUnflushed()
+    {
+        ready.addAll(buffers.values());
+        buffers.clear();
+        for (CollectionBuffer buffer : ready)
+        {
+            logger.error("Closing with {} buffered writes to {} that could not be flushed{}", new Object[]{
+                buffer.size(), buffer.collection, journal != null ? ", they are kept in the journal" : ""});
+            buffer.future.complete(new MongoException("The write-behind buffer was closed before flushing the write"));
+        }
+        ready.clear();
+    }
+
+    private void flushAll()
+    {
+        synchronized (this)
+        {
+            ready.addAll(buffers.values());
+            buffers.clear();
+        }
+        flushReady();
+    }
+
+    private void flushReady()
+    {
+        while (true)
+        {
+            CollectionBuffer buffer;
+            synchronized (this)
+            {
+                buffer = ready.poll();
+            }
+            if (buffer == null)
+            {
+                return;
+            }
+            if (!buffer.flush())
+            {
+                synchronized (this)
+                {
+                    ready.addFirst(buffer);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Notified once the writes buffered for a collection have been sent, for instance to
+     * drop the results cached before they reached the database
+     */
+    public interface FlushListener
+    {
+        void flushed(String collection);
+    }
+
+    private class CollectionBuffer
+    {
+        private final String collection;
+        /** Writes in the order they were buffered, each an object and whether it is an insert */
+        private final List<DBObject> objects = new ArrayList<DBObject>();
+        private final List<Boolean> insertFlags = new ArrayList<Boolean>();
+        /** Position of the last write of every _id, if it is a save that can be coalesced */
+        private final Map<Object, Integer> lastSaves = new HashMap<Object, Integer>();
+        private final List<WriteBehindJournal.JournaledWrite> journaledWrites =
+            new ArrayList<WriteBehindJournal.JournaledWrite>();
+        private final BatchFuture future = new BatchFuture();
+        private boolean retrying;
+
+        public CollectionBuffer(String collection)
+        {
+            this.collection = collection;
+        }
+
+        public void add(DBObject object, boolean insert, WriteBehindJournal.JournaledWrite journaledWrite)
+        {
+            if (journaledWrite != null)
+            {
+                journaledWrites.add(journaledWrite);
+            }
+            Object id = object.get(ID_FIELD);
+            if (insert)
+            {
+                lastSaves.remove(id);
+            }
+            else
+            {
+                Integer lastSave = lastSaves.get(id);
+                if (lastSave != null)
+                {
+                    // Coalesced with a previous save of the same _id
+                    objects.set(lastSave, object);
+                    capacity.release();
+                    return;
+                }
+                lastSaves.put(id, objects.size());
+            }
+            objects.add(object);
+            insertFlags.add(insert);
+        }
+
+        public int size()
+        {
+            return objects.size();
+        }
+
+        /**
+         * @return false if the server could not be reached and the batch must be retried
+         */
+        public boolean flush()
+        {
+            RuntimeException error = null;
+            // Unacknowledged saves and the getLastError that follows them must share a connection
+            db.requestStart();
+            try
+            {
+                db.requestEnsureConnection();
+                send(db.getCollection(collection), writeConcern.toMongoWriteConcern(db));
+            }
+            catch (MongoException.Network e)
+            {
+                logger.warn("Could not reach the server to flush " + size() + " buffered writes to "
+                            + collection + ", will retry", e);
+                retrying = true;
+                return false;
+            }
+            catch (RuntimeException e)
+            {
+                logger.error("Could not flush " + size() + " buffered writes to " + collection, e);
+                error = e;
+            }
+            finally
+            {
+                db.requestDone();
+                FlushListener listener = flushListener;
+                if (listener != null)
+                {
+                    // Even a failed batch may have applied some of its writes
+                    listener.flushed(collection);
+                }
+            }
+            capacity.release(size());
+            if (journal != null)
+            {
+                journal.release(journaledWrites);
+            }
+            future.complete(error);
+            return true;
+        }
+
+        private void send(DBCollection dbCollection, com.mongodb.WriteConcern mongoWriteConcern)
+        {
+            boolean unacknowledged = false;
+            int i = 0;
+            while (i < objects.size())
+            {
+                if (!insertFlags.get(i))
+                {
+                    dbCollection.save(objects.get(i), com.mongodb.WriteConcern.NORMAL);
+                    unacknowledged = true;
+                    i++;
+                    continue;
+                }
+                int end = i;
+                while (end < objects.size() && insertFlags.get(end))
+                {
+                    end++;
+                }
+                if (unacknowledged)
+                {
+                    checkLastError(mongoWriteConcern);
+                    unacknowledged = false;
+                }
+                insert(dbCollection, objects.subList(i, end), mongoWriteConcern);
+                i = end;
+            }
+            if (unacknowledged)
+            {
+                checkLastError(mongoWriteConcern);
+            }
+        }
+
+        private void insert(DBCollection dbCollection, List<DBObject> inserts, com.mongodb.WriteConcern mongoWriteConcern)
+        {
+            if (!retrying)
+            {
+                dbCollection.insert(new ArrayList<DBObject>(inserts), mongoWriteConcern);
+                return;
+            }
+            // The failed attempt may have applied some of the inserts already
+            for (DBObject object : inserts)
+            {
+                try
+                {
+                    dbCollection.insert(object, mongoWriteConcern.callGetLastError()
+                        ? mongoWriteConcern
+                        : com.mongodb.WriteConcern.SAFE);
+                }
+                catch (MongoException.DuplicateKey e)
+                {
+                    logger.debug("Insert of {} to {} was applied before the retry", object.get(ID_FIELD), collection);
+                }
+            }
+        }
+
+        private void checkLastError(com.mongodb.WriteConcern mongoWriteConcern)
+        {
+            if (mongoWriteConcern.callGetLastError())
+            {
+                String lastError = db.getLastError(mongoWriteConcern).getString("err");
+                if (lastError != null)
+                {
+                    throw new MongoException(lastError);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,688 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URLEncoder;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang.Validate;
+import org.bson.BSON;
+import org.bson.BSONDecoder;
+import org.bson.BSONObject;
+import org.bson.BasicBSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+
+/**
+ * Append-only journal of the writes buffered by a {@link WriteBehindBuffer}, so that
+ * writes acknowledged before being flushed survive a crash of the process.
+ * <p/>
+ * Records are appended sequentially to segment files and forced to disk with group
+ * commit: while a thread forces a group of records, the records appended meanwhile are
+ * gathered and forced together by the next one. A segment is closed once it is full and
+ * every write reserved in it is on disk. When a group cannot be forced, its writes fail,
+ * the bytes they left are cut off their segments and the next group starts a new segment.
+ * <p/>
+ * Releasing writes once they have reached the database appends a marker naming them, so
+ * that only the writes never released are returned by {@link #recover()} when the
+ * segments are found by the next process. Segments are deleted in the order they were
+ * created once every write recorded in them has been released, so the markers of a
+ * segment outlive the writes they name. A write flushed right before a crash, whose
+ * marker did not reach the disk, is still sent again.
+ * <p/>
+ * Every journal holds a lock on its directory. {@link #open(File, String, String, long)}
+ * picks the first free slot below the directory of a connection, named after its host,
+ * port, database and user, so that a journal is only recovered by a connection to the
+ * same database. Every record also holds its database, and a journal holding writes to
+ * another database is not recovered.
+ */
+public class WriteBehindJournal
+{
+    public static final long DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindJournal.class);
+    private static final String LOCK_FILE = "journal.lock";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_EXTENSION = ".bson";
+    private static final String DATABASE_FIELD = "d";
+    private static final String COLLECTION_FIELD = "c";
+    private static final String INSERT_FIELD = "i";
+    private static final String OBJECT_FIELD = "o";
+    private static final String SEQUENCE_FIELD = "s";
+    private static final String RELEASED_FIELD = "r";
+
+    private final File directory;
+    private final String database;
+    private final long maxSegmentBytes;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private final List<File> recovered = new ArrayList<File>();
+
+    private final ReentrantLock journalLock = new ReentrantLock();
+    private final Condition committedCondition = journalLock.newCondition();
+    private List<PendingRecord> pending = new ArrayList<PendingRecord>();
+    private boolean committing;
+    /** Segments not deleted yet, in the order they were created */
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private Segment current;
+    private long nextSegment;
+    private boolean closed;
+
+    /**
+     * Opens the journal of the first slot below the directory of the given connection
+     * that is not locked by another journal
+     *
+     * @param root the directory the journals of every connection are kept in
+     * @param connectionKey the host, port, database and user of the connection
+     * @param database the database the journaled writes are sent to
+     */
+    public static WriteBehindJournal open(File root, String connectionKey, String database, long maxSegmentBytes)
+        throws IOException
+    {
+        File connectionDirectory = new File(root, URLEncoder.encode(connectionKey, "UTF-8"));
+        for (int slot = 0;; slot++)
+        {
+            WriteBehindJournal journal = tryOpen(new File(connectionDirectory, String.valueOf(slot)), database,
+                maxSegmentBytes);
+            if (journal != null)
+            {
+                return journal;
+            }
+        }
+    }
+
+    private static WriteBehindJournal tryOpen(File directory, String database, long maxSegmentBytes)
+        throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+        RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+        FileLock lock = null;
+        try
+        {
+            lock = lockFile.getChannel().tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            // Locked by a journal of this same process
+        }
+        if (lock == null)
+        {
+            lockFile.close();
+            return null;
+        }
+        return new WriteBehindJournal(directory, database, maxSegmentBytes, lockFile, lock);
+    }
+
+    private WriteBehindJournal(File directory,
+                               String database,
+                               long maxSegmentBytes,
+                               RandomAccessFile lockFile,
+                               FileLock lock) throws IOException
+    {
+        Validate.notNull(database);
+        Validate.isTrue(maxSegmentBytes > 0, "maxSegmentBytes must be greater than zero");
+        this.directory = directory;
+        this.database = database;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.lockFile = lockFile;
+        this.lock = lock;
+
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                long number = getSegmentNumber(file);
+                if (number >= 0)
+                {
+                    recovered.add(file);
+                    nextSegment = Math.max(nextSegment, number + 1);
+                }
+            }
+        }
+        Collections.sort(recovered, new Comparator<File>()
+        {
+            public int compare(File file1, File file2)
+            {
+                long number1 = getSegmentNumber(file1);
+                long number2 = getSegmentNumber(file2);
+                return number1 < number2 ? -1 : (number1 == number2 ? 0 : 1);
+            }
+        });
+        current = newSegment();
+    }
+
+    private Segment newSegment()
+    {
+        Segment segment = new Segment(new File(directory, SEGMENT_PREFIX + nextSegment + SEGMENT_EXTENSION),
+            nextSegment++);
+        segments.add(segment);
+        return segment;
+    }
+
+    private static long getSegmentNumber(File file)
+    {
+        String name = file.getName();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_EXTENSION))
+        {
+            return -1;
+        }
+        try
+        {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXTENSION.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the writes recorded by a previous process and never released, in the order
+     * they were recorded. A record torn by the crash at the end of a segment is skipped.
+     *
+     * @throws IOException if a write was recorded for another database
+     */
+    public List<DBObject> recover() throws IOException
+    {
+        List<DBObject> records = new ArrayList<DBObject>();
+        Set<Object> released = new HashSet<Object>();
+        for (File file : recovered)
+        {
+            BSONDecoder bsonDecoder = new DefaultDBDecoder();
+            InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
+            try
+            {
+                while (inputStream.available() != 0)
+                {
+                    BSONObject bsonObject = bsonDecoder.readObject(inputStream);
+                    if (bsonObject == null)
+                    {
+                        continue;
+                    }
+                    if (bsonObject.containsField(RELEASED_FIELD))
+                    {
+                        released.addAll((List<?>) bsonObject.get(RELEASED_FIELD));
+                    }
+                    else
+                    {
+                        records.add(new BasicDBObject((BasicBSONObject) bsonObject));
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn("Skipping the incomplete end of journal segment " + file, e);
+            }
+            catch (IOException e)
+            {
+                logger.warn("Skipping the incomplete end of journal segment " + file, e);
+            }
+            finally
+            {
+                inputStream.close();
+            }
+        }
+        for (Iterator<DBObject> iterator = records.iterator(); iterator.hasNext();)
+        {
+            DBObject record = iterator.next();
+            if (released.contains(record.get(SEQUENCE_FIELD)))
+            {
+                iterator.remove();
+            }
+            else if (!database.equals(record.get(DATABASE_FIELD)))
+            {
+                throw new IOException("The journal in " + directory + " holds writes to database "
+                                      + record.get(DATABASE_FIELD) + ", not to " + database);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Deletes the segments of the previous process once their writes have been recorded again
+     */
+    public void discardRecovered()
+    {
+        for (File file : recovered)
+        {
+            if (!file.delete())
+            {
+                logger.warn("Could not delete recovered journal segment {}", file);
+            }
+        }
+        recovered.clear();
+    }
+
+    public static String getCollection(DBObject record)
+    {
+        return (String) record.get(COLLECTION_FIELD);
+    }
+
+    public static boolean isInsert(DBObject record)
+    {
+        return Boolean.TRUE.equals(record.get(INSERT_FIELD));
+    }
+
+    public static DBObject getObject(DBObject record)
+    {
+        return (DBObject) record.get(OBJECT_FIELD);
+    }
+
+    /**
+     * Records a write and returns once it is on disk
+     *
+     * @return the write recorded, to be {@link #release(Collection) released} once it has
+     *         reached the database
+     */
+    public JournaledWrite append(String collection, DBObject object, boolean insert) throws IOException
+    {
+        BasicDBObject write = new BasicDBObject(DATABASE_FIELD, database).append(COLLECTION_FIELD, collection)
+            .append(INSERT_FIELD, insert)
+            .append(OBJECT_FIELD, object);
+        PendingRecord record = reserve(write, true);
+        commit(record);
+        return new JournaledWrite(record.segment, record.sequence);
+    }
+
+    /**
+     * Reserves room for a record in the current segment, numbering it after the records
+     * reserved in that segment so far
+     */
+    private PendingRecord reserve(BasicDBObject bsonObject, boolean write) throws IOException
+    {
+        journalLock.lock();
+        try
+        {
+            if (closed)
+            {
+                throw new IOException("The journal is closed");
+            }
+            if (current.reserved >= maxSegmentBytes)
+            {
+                seal(current);
+                current = newSegment();
+            }
+            long sequence = (current.number << 32) | current.records++;
+            byte[] bytes = BSON.encode(write ? bsonObject.append(SEQUENCE_FIELD, sequence) : bsonObject);
+            PendingRecord record = new PendingRecord(current, bytes, sequence, write);
+            current.reserved += bytes.length;
+            if (write)
+            {
+                current.references++;
+            }
+            pending.add(record);
+            return record;
+        }
+        finally
+        {
+            journalLock.unlock();
+        }
+    }
+
+    private void commit(PendingRecord record) throws IOException
+    {
+        journalLock.lock();
+        try
+        {
+            while (!record.done)
+            {
+                if (committing)
+                {
+                    committedCondition.awaitUninterruptibly();
+                    continue;
+                }
+                // Become the leader of the group of records appended so far
+                committing = true;
+                List<PendingRecord> group = pending;
+                pending = new ArrayList<PendingRecord>();
+                journalLock.unlock();
+                IOException error = null;
+                try
+                {
+                    write(group);
+                }
+                catch (IOException e)
+                {
+                    error = e;
+                }
+                finally
+                {
+                    journalLock.lock();
+                    committing = false;
+                }
+                for (PendingRecord committed : group)
+                {
+                    committed.done = true;
+                    committed.failure = error;
+                }
+                if (error != null)
+                {
+                    discard(group);
+                }
+                else
+                {
+                    for (PendingRecord committed : group)
+                    {
+                        committed.segment.written += committed.bytes.length;
+                    }
+                }
+                for (PendingRecord committed : group)
+                {
+                    closeIfWritten(committed.segment);
+                }
+                committedCondition.signalAll();
+            }
+            if (record.failure != null)
+            {
+                throw new IOException("Could not write to the journal in " + directory, record.failure);
+            }
+        }
+        finally
+        {
+            journalLock.unlock();
+        }
+    }
+
+    private void write(List<PendingRecord> group) throws IOException
+    {
+        Set<Segment> written = new LinkedHashSet<Segment>();
+        for (PendingRecord record : group)
+        {
+            record.segment.getOutputStream().write(record.bytes);
+            written.add(record.segment);
+        }
+        for (Segment segment : written)
+        {
+            segment.getOutputStream().flush();
+            segment.getOutputStream().getChannel().force(false);
+        }
+    }
+
+    /**
+     * Forgets the writes of a group that could not be forced, cutting whatever part of
+     * them reached the segments, and seals those segments so that no later write follows
+     * a torn record
+     */
+    private void discard(List<PendingRecord> group)
+    {
+        Set<Segment> failed = new LinkedHashSet<Segment>();
+        for (PendingRecord record : group)
+        {
+            record.segment.reserved -= record.bytes.length;
+            if (record.write)
+            {
+                record.segment.references--;
+            }
+            failed.add(record.segment);
+        }
+        for (Segment segment : failed)
+        {
+            segment.closeOutputStream();
+            try
+            {
+                segment.truncate();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Could not cut the failed writes off journal segment " + segment.file, e);
+            }
+            seal(segment);
+            if (segment == current)
+            {
+                current = newSegment();
+            }
+        }
+    }
+
+    private void seal(Segment segment)
+    {
+        segment.sealed = true;
+        closeIfWritten(segment);
+    }
+
+    /**
+     * Closes a full segment once every write reserved in it is on disk
+     */
+    private void closeIfWritten(Segment segment)
+    {
+        if (segment.sealed && segment.written == segment.reserved)
+        {
+            segment.closeOutputStream();
+            deleteReleased();
+        }
+    }
+
+    public void release(JournaledWrite write)
+    {
+        release(Collections.singletonList(write));
+    }
+
+    /**
+     * Releases writes that have reached the database, recording a marker so that they
+     * are not sent again by the next process. Full segments are deleted once all their
+     * writes have been released.
+     */
+    public void release(Collection<JournaledWrite> writes)
+    {
+        if (writes.isEmpty())
+        {
+            return;
+        }
+        List<Long> sequences = new ArrayList<Long>(writes.size());
+        for (JournaledWrite write : writes)
+        {
+            sequences.add(write.sequence);
+        }
+        try
+        {
+            commit(reserve(new BasicDBObject(RELEASED_FIELD, sequences), false));
+        }
+        catch (IOException e)
+        {
+            // Released anyway: a segment whose writes all reached the database can go
+            logger.warn("Could not record the release of " + writes.size() + " writes in the journal in "
+                        + directory + ", they will be sent again if the process crashes", e);
+        }
+        journalLock.lock();
+        try
+        {
+            for (JournaledWrite write : writes)
+            {
+                write.segment.references--;
+            }
+            deleteReleased();
+        }
+        finally
+        {
+            journalLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the oldest segments as long as they are full and released, so that no
+     * segment outlives the markers of its writes
+     */
+    private void deleteReleased()
+    {
+        while (!segments.isEmpty())
+        {
+            Segment segment = segments.get(0);
+            if (!segment.sealed || segment.references > 0 || segment.outputStream != null)
+            {
+                return;
+            }
+            segments.remove(0);
+            if (segment.file.exists() && !segment.file.delete())
+            {
+                logger.warn("Could not delete journal segment {}", segment.file);
+            }
+        }
+    }
+
+    /**
+     * Closes the journal. Segments holding writes that were not released are kept to be
+     * recovered by the next process.
+     */
+    public void close() throws IOException
+    {
+        journalLock.lock();
+        try
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            while (committing)
+            {
+                committedCondition.awaitUninterruptibly();
+            }
+            for (Segment segment : segments)
+            {
+                segment.sealed = true;
+                segment.closeOutputStream();
+            }
+            deleteReleased();
+        }
+        finally
+        {
+            journalLock.unlock();
+        }
+        lock.release();
+        lockFile.close();
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * A write recorded in the journal
+     */
+    public static final class JournaledWrite
+    {
+        private final Segment segment;
+        private final long sequence;
+
+        private JournaledWrite(Segment segment, long sequence)
+        {
+            this.segment = segment;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * A file of the journal
+     */
+    private static final class Segment
+    {
+        private final File file;
+        private final long number;
+        private FileOutputStream outputStream;
+        private long reserved;
+        private long written;
+        private int records;
+        private int references;
+        private boolean sealed;
+
+        private Segment(File file, long number)
+        {
+            this.file = file;
+            this.number = number;
+        }
+
+        private FileOutputStream getOutputStream() throws IOException
+        {
+            if (outputStream == null)
+            {
+                outputStream = new FileOutputStream(file, true);
+            }
+            return outputStream;
+        }
+
+        private void closeOutputStream()
+        {
+            if (outputStream != null)
+            {
+                try
+                {
+                    outputStream.close();
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Could not close journal segment " + file, e);
+                }
+                outputStream = null;
+            }
+        }
+
+        private void truncate() throws IOException
+        {
+            if (file.exists())
+            {
+                RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+                try
+                {
+                    randomAccessFile.setLength(written);
+                }
+                finally
+                {
+                    randomAccessFile.close();
+                }
+            }
+        }
+    }
+
+    private static final class PendingRecord
+    {
+        private final Segment segment;
+        private final byte[] bytes;
+        private final long sequence;
+        /** Whether the record is a write, rather than a release marker */
+        private final boolean write;
+        private boolean done;
+        private IOException failure;
+
+        private PendingRecord(Segment segment, byte[] bytes, long sequence, boolean write)
+        {
+            this.segment = segment;
+            this.bytes = bytes;
+            this.sequence = sequence;
+            this.write = write;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+/**
+ * When a write buffered by a {@link WriteBehindBuffer} is acknowledged to its caller
+ */
+public enum WriteBehindPolicy
+{
+    /** As soon as the write is buffered. Errors of the batch are only logged */
+    IMMEDIATE,
+    /** Once the batch holding the write has been flushed with the configured write concern */
+    BATCH
+}
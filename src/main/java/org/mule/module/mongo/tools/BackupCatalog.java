@@ -0,0 +1,327 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.DBObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.Validate;
+import org.bson.types.BSONTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the full dumps and incremental oplog segments found in a backup root directory,
+ * persisted next to them so that only new or modified backups are scanned again.
+ * <p/>
+ * The oplog is known to be covered from the end of a full dump by the incremental runs
+ * recorded in the directory, see {@link IncrementalRun}, even through quiet periods with
+ * no segment. Segments written before runs were recorded are trusted to follow each
+ * other, as their coverage cannot be verified.
+ */
+public class BackupCatalog
+{
+    public static final String CATALOG_FILE = "backup_catalog.txt";
+
+    private static final Logger logger = LoggerFactory.getLogger(BackupCatalog.class);
+
+    private File root;
+    private List<BackupCatalogEntry> entries = new ArrayList<BackupCatalogEntry>();
+    private List<IncrementalRun> runs = new ArrayList<IncrementalRun>();
+
+    public BackupCatalog(String rootPath)
+    {
+        Validate.notNull(rootPath);
+        this.root = new File(rootPath);
+    }
+
+    /**
+     * Scans the root directory, reusing the indexed time ranges of unchanged backups, and saves the index
+     */
+    public void refresh() throws IOException
+    {
+        Map<String, BackupCatalogEntry> indexed = load();
+        entries.clear();
+
+        File[] files = root.listFiles();
+        if(files == null)
+        {
+            throw new IOException("Backup directory " + root + " does not exist");
+        }
+        for(File file : files)
+        {
+            BackupCatalogEntry entry = indexed.get(file.getName());
+            if(entry == null || !entry.isUpToDate())
+            {
+                entry = scan(file);
+            }
+            if(entry != null)
+            {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries);
+        runs = IncrementalRun.load(root);
+        save();
+    }
+
+    public RestorePlan plan(BSONTimestamp toTimestamp) throws IOException
+    {
+        BackupCatalogEntry baseDump = null;
+        for(BackupCatalogEntry entry : entries)
+        {
+            if(entry.getType() == BackupCatalogEntry.Type.DUMP
+               && BackupUtils.compare(entry.getEnd(), toTimestamp) <= 0
+               && (baseDump == null || BackupUtils.compare(entry.getEnd(), baseDump.getEnd()) > 0))
+            {
+                baseDump = entry;
+            }
+        }
+        if(baseDump == null)
+        {
+            throw new IOException("No full dump in " + root + " is consistent before " + toTimestamp);
+        }
+
+        Map<String, BackupCatalogEntry> segments = new HashMap<String, BackupCatalogEntry>();
+        List<BackupCatalogEntry> oplogSegments = new ArrayList<BackupCatalogEntry>();
+        for(BackupCatalogEntry entry : entries)
+        {
+            if(entry.getType() == BackupCatalogEntry.Type.OPLOG)
+            {
+                segments.put(entry.getFile().getName(), entry);
+                if(BackupUtils.compare(entry.getEnd(), baseDump.getStart()) >= 0
+                   && BackupUtils.compare(entry.getStart(), toTimestamp) <= 0)
+                {
+                    oplogSegments.add(entry);
+                }
+            }
+        }
+
+        Set<String> runFiles = new HashSet<String>();
+        for(IncrementalRun run : runs)
+        {
+            if(run.getFileName() != null)
+            {
+                runFiles.add(run.getFileName());
+            }
+        }
+        List<BackupCatalogEntry> legacySegments = new ArrayList<BackupCatalogEntry>();
+        for(BackupCatalogEntry segment : oplogSegments)
+        {
+            if(!runFiles.contains(segment.getFile().getName()))
+            {
+                legacySegments.add(segment);
+            }
+        }
+
+        // Runs are recorded in the order they ran, each starting from the checkpoint of the previous one, so
+        // any run starting after the end of the previous ones leaves a gap
+        BSONTimestamp coveredUntil = baseDump.getEnd();
+        int legacy = 0;
+        for(IncrementalRun run : runs)
+        {
+            while(legacy < legacySegments.size()
+                  && BackupUtils.compare(legacySegments.get(legacy).getStart(), run.getFrom()) <= 0)
+            {
+                coveredUntil = extendByLegacySegment(legacySegments.get(legacy++), coveredUntil);
+            }
+            if(BackupUtils.compare(run.getTo(), coveredUntil) <= 0
+               || BackupUtils.compare(coveredUntil, toTimestamp) >= 0)
+            {
+                continue;
+            }
+            if(BackupUtils.compare(run.getFrom(), coveredUntil) > 0)
+            {
+                throw new IOException("The oplog of " + root + " has a gap between " + coveredUntil + " and "
+                                      + run.getFrom() + ", the checkpoint fell off the oplog or a run is missing");
+            }
+            if(run.getFileName() != null && !segments.containsKey(run.getFileName()))
+            {
+                throw new IOException("The incremental dump " + run.getFileName() + " is missing from " + root);
+            }
+            coveredUntil = run.getTo();
+        }
+        while(legacy < legacySegments.size())
+        {
+            coveredUntil = extendByLegacySegment(legacySegments.get(legacy++), coveredUntil);
+        }
+        if(coveredUntil.getTime() < toTimestamp.getTime())
+        {
+            throw new IOException("The backups in " + root + " only reach " + coveredUntil + ", not " + toTimestamp);
+        }
+        return new RestorePlan(baseDump, oplogSegments, toTimestamp);
+    }
+
+    /**
+     * @return the end of the coverage extended by a segment dumped before runs were recorded
+     */
+    private BSONTimestamp extendByLegacySegment(BackupCatalogEntry segment, BSONTimestamp coveredUntil)
+    {
+        if(BackupUtils.compare(segment.getEnd(), coveredUntil) <= 0)
+        {
+            return coveredUntil;
+        }
+        logger.warn("Cannot verify that no oplog entry is missing before {}, it was dumped before runs were recorded",
+            segment.getFile());
+        return segment.getEnd();
+    }
+
+    public List<BackupCatalogEntry> getEntries()
+    {
+        return Collections.unmodifiableList(entries);
+    }
+
+    private BackupCatalogEntry scan(File file) throws IOException
+    {
+        if(file.isFile() && BackupUtils.isBsonFile(file) && file.getName().startsWith(BackupConstants.OPLOG))
+        {
+            return scanOplogSegment(file);
+        }
+        if(file.isDirectory() && new File(file.getPath() + ".zip").exists())
+        {
+            // Already indexed through its zip file
+            return null;
+        }
+        if(file.isDirectory() || ZipUtils.isZipFile(file))
+        {
+            return scanDump(file);
+        }
+        return null;
+    }
+
+    private BackupCatalogEntry scanOplogSegment(File file) throws IOException
+    {
+        List<DBObject> oplogEntries = new RestoreFile(file).getCollectionObjects();
+        if(oplogEntries.isEmpty())
+        {
+            return null;
+        }
+        return new BackupCatalogEntry(BackupCatalogEntry.Type.OPLOG, file,
+                                      getTimestamp(oplogEntries.get(0)),
+                                      getTimestamp(oplogEntries.get(oplogEntries.size() - 1)),
+                                      file.lastModified());
+    }
+
+    private BackupCatalogEntry scanDump(File file) throws IOException
+    {
+        BSONTimestamp start = parseDumpStart(file);
+        if(start == null)
+        {
+            return null;
+        }
+
+        File directory = file;
+        if(ZipUtils.isZipFile(file))
+        {
+            directory = new File(BackupUtils.removeExtension(file.getPath()));
+            org.mule.util.FileUtils.unzip(file, directory);
+        }
+
+        BSONTimestamp end = null;
+        long lastModified = 0;
+        File[] dumpFiles = directory.listFiles();
+        for(File dumpFile : dumpFiles != null ? dumpFiles : new File[0])
+        {
+            lastModified = Math.max(lastModified, dumpFile.lastModified());
+            if(BackupUtils.isBsonFile(dumpFile) && dumpFile.getName().startsWith(BackupConstants.OPLOG))
+            {
+                List<DBObject> oplogEntries = new RestoreFile(dumpFile).getCollectionObjects();
+                if(!oplogEntries.isEmpty())
+                {
+                    end = getTimestamp(oplogEntries.get(oplogEntries.size() - 1));
+                }
+            }
+        }
+        if(end == null)
+        {
+            // Without an oplog the data is only known to be consistent once the last file was written
+            end = new BSONTimestamp((int) (lastModified / 1000), 0);
+        }
+        return new BackupCatalogEntry(BackupCatalogEntry.Type.DUMP, file, start, end, file.lastModified());
+    }
+
+    private BSONTimestamp parseDumpStart(File file)
+    {
+        String name = ZipUtils.isZipFile(file) ? BackupUtils.removeExtension(file.getName()) : file.getName();
+        return BackupUtils.parseDumpTimestamp(name);
+    }
+
+    private BSONTimestamp getTimestamp(DBObject oplogEntry)
+    {
+        return (BSONTimestamp) oplogEntry.get(BackupConstants.TIMESTAMP_FIELD);
+    }
+
+    private Map<String, BackupCatalogEntry> load() throws IOException
+    {
+        Map<String, BackupCatalogEntry> indexed = new HashMap<String, BackupCatalogEntry>();
+        File catalogFile = new File(root, CATALOG_FILE);
+        if(!catalogFile.exists())
+        {
+            return indexed;
+        }
+        BufferedReader input = null;
+        try
+        {
+            input = new BufferedReader(new InputStreamReader(new FileInputStream(catalogFile), "UTF-8"));
+            String line;
+            while((line = input.readLine()) != null)
+            {
+                if(line.length() > 0)
+                {
+                    BackupCatalogEntry entry = BackupCatalogEntry.parse(root, line);
+                    indexed.put(entry.getFile().getName(), entry);
+                }
+            }
+            return indexed;
+        }
+        finally
+        {
+            if(input != null)
+            {
+                input.close();
+            }
+        }
+    }
+
+    private void save() throws IOException
+    {
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter(new FileOutputStream(new File(root, CATALOG_FILE)), "UTF-8");
+            for(BackupCatalogEntry entry : entries)
+            {
+                writer.write(entry.format());
+                writer.write("\n");
+            }
+        }
+        finally
+        {
+            if(writer != null)
+            {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import java.io.File;
+
+import org.bson.types.BSONTimestamp;
+
+/**
+ * A full dump or an oplog segment of a backup directory, with the time range it covers.
+ * For a full dump, start is when the dump began and end is the point from which its data is consistent.
+ */
+public class BackupCatalogEntry implements Comparable<BackupCatalogEntry>
+{
+    public enum Type
+    {
+        DUMP, OPLOG
+    }
+
+    private static final String SEPARATOR = "|";
+
+    private Type type;
+    private File file;
+    private BSONTimestamp start;
+    private BSONTimestamp end;
+    private long lastModified;
+
+    public BackupCatalogEntry(Type type, File file, BSONTimestamp start, BSONTimestamp end, long lastModified)
+    {
+        this.type = type;
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.lastModified = lastModified;
+    }
+
+    public static BackupCatalogEntry parse(File root, String line)
+    {
+        String[] parts = line.split("\\|");
+        return new BackupCatalogEntry(Type.valueOf(parts[0]),
+                                      new File(root, parts[1]),
+                                      new BSONTimestamp(Integer.parseInt(parts[2]), Integer.parseInt(parts[3])),
+                                      new BSONTimestamp(Integer.parseInt(parts[4]), Integer.parseInt(parts[5])),
+                                      Long.parseLong(parts[6]));
+    }
+
+    public String format()
+    {
+        return type + SEPARATOR + file.getName() + SEPARATOR
+               + start.getTime() + SEPARATOR + start.getInc() + SEPARATOR
+               + end.getTime() + SEPARATOR + end.getInc() + SEPARATOR
+               + lastModified;
+    }
+
+    public boolean isUpToDate()
+    {
+        return file.exists() && file.lastModified() == lastModified;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public BSONTimestamp getStart()
+    {
+        return start;
+    }
+
+    public BSONTimestamp getEnd()
+    {
+        return end;
+    }
+
+    public int compareTo(BackupCatalogEntry entry)
+    {
+        return BackupUtils.compare(start, entry.getStart());
+    }
+}
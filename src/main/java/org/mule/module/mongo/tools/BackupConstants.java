@@ -15,4 +15,6 @@ public class BackupConstants
     public static final String LOCAL_DB = "local";
     public static final String TIMESTAMP_FIELD = "ts";
     public static final String NAMESPACE_FIELD = "ns";
+    public static final String OPERATION_FIELD = "op";
+    public static final String NOOP_OPERATION = "n";
 }
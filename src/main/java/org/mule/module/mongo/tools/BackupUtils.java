@@ -10,13 +10,21 @@
 package org.mule.module.mongo.tools;
 
 import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
 import java.util.regex.Pattern;
 
+import org.bson.types.BSONTimestamp;
+
 
 public class BackupUtils
 {
     private static final String SYSTEM_COLLECTION_PREFIX = "system.";
     private static final String BSON_EXTENSION = "bson";
+    private static final String REGEX_SPECIAL_CHARACTERS = "\\^$.|?*+()[]{}-";
+    private static final int DUMP_TIMESTAMP_LENGTH = 17;
 
     public static boolean isBsonFile(File file)
     {
@@ -50,7 +58,83 @@ public class BackupUtils
 
     public static Pattern getNamespacePattern(String database)
     {
-        return Pattern.compile("^" + database + ".*");
+        return Pattern.compile(getNamespaceRegex(database));
+    }
+
+    /**
+     * Regex matching every namespace of the given database, anchored on the
+     * database name and the dot so that other databases sharing its prefix are left out
+     */
+    public static String getNamespaceRegex(String database)
+    {
+        return "^" + escapeRegex(database) + "\\.";
+    }
+
+    public static String getNamespace(String database, String collection)
+    {
+        return database + "." + collection;
+    }
+
+    public static int compare(BSONTimestamp timestamp, BSONTimestamp otherTimestamp)
+    {
+        if(timestamp.getTime() != otherTimestamp.getTime())
+        {
+            return timestamp.getTime() < otherTimestamp.getTime() ? -1 : 1;
+        }
+        if(timestamp.getInc() != otherTimestamp.getInc())
+        {
+            return timestamp.getInc() < otherTimestamp.getInc() ? -1 : 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the suffix dump names end with for the given time, with minute precision
+     */
+    public static String formatDumpTimestamp(BSONTimestamp timestamp)
+    {
+        return getDumpTimestampFormat().format(new Date(timestamp.getTime() * 1000L));
+    }
+
+    /**
+     * @return the time a dump name ends with, or null if it does not end with one
+     */
+    public static BSONTimestamp parseDumpTimestamp(String name)
+    {
+        if(name.length() <= DUMP_TIMESTAMP_LENGTH)
+        {
+            return null;
+        }
+        try
+        {
+            long time = getDumpTimestampFormat().parse(name.substring(name.length() - DUMP_TIMESTAMP_LENGTH)).getTime();
+            return new BSONTimestamp((int) (time / 1000), 0);
+        }
+        catch(ParseException e)
+        {
+            return null;
+        }
+    }
+
+    private static SimpleDateFormat getDumpTimestampFormat()
+    {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(MongoDump.TIMESTAMP_FORMAT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return dateFormat;
+    }
+
+    private static String escapeRegex(String literal)
+    {
+        StringBuilder escaped = new StringBuilder();
+        for(char c : literal.toCharArray())
+        {
+            if(REGEX_SPECIAL_CHARACTERS.indexOf(c) != -1)
+            {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
     }
 
 }
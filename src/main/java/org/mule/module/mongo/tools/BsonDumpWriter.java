@@ -10,9 +10,12 @@ package org.mule.module.mongo.tools;
 
 import com.mongodb.DBObject;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 
 import org.bson.BSON;
 
@@ -55,4 +58,28 @@ public class BsonDumpWriter extends DumpWriter
             }
         }
     }
+
+    @Override
+    public void writeObjects(String collection, List<DBObject> dbObjects) throws IOException
+    {
+        OutputStream outputStream = null;
+        File outputFile = new File(getFilePath(collection));
+        outputFile.getParentFile().mkdirs();
+        try
+        {
+            // Open the file once for the whole batch instead of once per document
+            outputStream = new BufferedOutputStream(new FileOutputStream(outputFile, true));
+            for(DBObject dbObject : dbObjects)
+            {
+                outputStream.write(BSON.encode(dbObject));
+            }
+        }
+        finally
+        {
+            if(outputStream != null)
+            {
+                outputStream.close();
+            }
+        }
+    }
 }
@@ -12,6 +12,7 @@ import com.mongodb.DBObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 public abstract class DumpWriter
 {
@@ -50,4 +51,12 @@ public abstract class DumpWriter
 
     public abstract void writeObject(String collection, DBObject dbObject) throws IOException;
 
+    public void writeObjects(String collection, List<DBObject> dbObjects) throws IOException
+    {
+        for(DBObject dbObject : dbObjects)
+        {
+            writeObject(collection, dbObject);
+        }
+    }
+
 }
@@ -20,6 +20,8 @@ public class IncrementalMongoDump extends AbstractMongoUtility
 {
     private Map<String, DB> dbs = new HashMap<String, DB>();
     private String incrementalTimestampFile;
+    private int batchSize = IncrementalOplogDump.DEFAULT_BATCH_SIZE;
+    private OplogFilter oplogFilter;
 
     public void dump(String outputDirectory, String database) throws IOException
     {
@@ -29,6 +31,8 @@ public class IncrementalMongoDump extends AbstractMongoUtility
         incrementalOplogDump.setDatabase(database);
         incrementalOplogDump.setIncrementalTimestampFile(incrementalTimestampFile);
         incrementalOplogDump.setDBs(dbs);
+        incrementalOplogDump.setBatchSize(batchSize);
+        incrementalOplogDump.setOplogFilter(oplogFilter);
         Future<Void> future = executor.submit(incrementalOplogDump);
         propagateException(future);
     }
@@ -42,4 +46,14 @@ public class IncrementalMongoDump extends AbstractMongoUtility
     {
         this.incrementalTimestampFile = incrementalTimestampFile;
     }
+
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    public void setOplogFilter(OplogFilter oplogFilter)
+    {
+        this.oplogFilter = oplogFilter;
+    }
 }
@@ -22,15 +22,24 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.Validate;
 import org.bson.types.BSONTimestamp;
@@ -38,11 +47,14 @@ import org.bson.types.BSONTimestamp;
 public class IncrementalOplogDump implements Callable<Void>
 {
     private static final String INCREMENTAL_LAST_TIMESTAMP = "incremental_last_timestamp.txt";
+    public static final int DEFAULT_BATCH_SIZE = 1000;
 
     private Map<String, DB> dbs = new HashMap<String, DB>();
     private String incrementalTimestampFile;
     private String outputDirectory;
     private String database;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private OplogFilter oplogFilter;
 
     public Void call() throws Exception
     {
@@ -55,47 +67,138 @@ public class IncrementalOplogDump implements Callable<Void>
         Validate.notNull(outputDirectory);
         Validate.notNull(database);
 
-        String incrementalFilePath = incrementalTimestampFile != null? incrementalTimestampFile :
-                                     outputDirectory + File.separator + INCREMENTAL_LAST_TIMESTAMP;
+        String incrementalFilePath = getIncrementalFilePath(outputDirectory, incrementalTimestampFile);
         BSONTimestamp lastTimestamp = getLastTimestamp(incrementalFilePath);
+        BSONTimestamp checkpoint = lastTimestamp;
 
         DBCollection oplogCollection = new OplogCollection(dbs.get(BackupConstants.ADMIN_DB), dbs.get(BackupConstants.LOCAL_DB)).getOplogCollection();
-        DBCursor oplogCursor;
+        // Every entry of the database up to the end of the oplog is returned by the query below, so the run
+        // covers up to there even if the database had no entry since the checkpoint
+        BSONTimestamp firstOplogTimestamp = getBoundaryTimestamp(oplogCollection, 1);
+        BSONTimestamp lastOplogTimestamp = getBoundaryTimestamp(oplogCollection, -1);
+        BSONTimestamp runStart = checkpoint;
+        if(runStart == null || (firstOplogTimestamp != null && BackupUtils.compare(runStart, firstOplogTimestamp) < 0))
+        {
+            runStart = firstOplogTimestamp;
+        }
+        DBObject query = (oplogFilter != null ? oplogFilter : new OplogFilter(database)).toQuery();
         if(lastTimestamp != null)
         {
-            DBObject query = new BasicDBObject();
-            query.put(BackupConstants.TIMESTAMP_FIELD, new BasicDBObject("$gt", lastTimestamp));
-            // Filter only oplogs for given database
-            query.put(BackupConstants.NAMESPACE_FIELD, BackupUtils.getNamespacePattern(database));
-
-            oplogCursor = oplogCollection.find(query);
-            oplogCursor.addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+            // The checkpoint entry itself is dumped again so that consecutive files overlap. Coverage is
+            // proven by the runs recorded, see IncrementalRun
+            query.put(BackupConstants.TIMESTAMP_FIELD, new BasicDBObject("$gte", lastTimestamp));
         }
-        else
+
+        DBCursor oplogCursor = oplogCollection.find(query);
+        if(lastTimestamp != null)
         {
-            oplogCursor = oplogCollection.find();
+            oplogCursor.addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
         }
 
+        oplogCursor.batchSize(batchSize);
+
         DumpWriter dumpWriter = new BsonDumpWriter(outputDirectory);
         String oplogCollectionTimestamp = BackupConstants.OPLOG + appendTimestamp();
+        boolean written = false;
+
+        // Up to a couple of cursor batches are buffered between the reading and the writing stage
+        BlockingQueue<DBObject> queue = new ArrayBlockingQueue<DBObject>(2 * batchSize);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Void> reader = executor.submit(new OplogReader(oplogCursor, queue));
 
         try
         {
-            while(oplogCursor.hasNext())
+            List<DBObject> batch = new ArrayList<DBObject>(batchSize);
+            boolean endOfOplog = false;
+            while(!endOfOplog)
+            {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+
+                // The end marker is always the last entry the reader enqueues
+                if(batch.get(batch.size() - 1) == OplogReader.END_OF_OPLOG)
+                {
+                    batch.remove(batch.size() - 1);
+                    endOfOplog = true;
+                }
+
+                if(endOfOplog && lastTimestamp == checkpoint && isOnlyCheckpoint(batch, checkpoint))
+                {
+                    // Nothing happened since the checkpoint, no file is needed
+                    batch.clear();
+                }
+                if(!batch.isEmpty())
+                {
+                    dumpWriter.writeObjects(oplogCollectionTimestamp, batch);
+                    written = true;
+                    lastTimestamp = (BSONTimestamp) batch.get(batch.size() - 1).get(BackupConstants.TIMESTAMP_FIELD);
+                    batch.clear();
+                }
+            }
+            AbstractMongoUtility.propagateException(reader);
+            if(Thread.currentThread().isInterrupted())
             {
-                DBObject oplogEntry = oplogCursor.next();
-                lastTimestamp = (BSONTimestamp)oplogEntry.get("ts");
+                throw new InterruptedIOException("Interrupted while waiting for the oplog reader");
+            }
 
-                dumpWriter.writeObject(oplogCollectionTimestamp, oplogEntry);
+            if(lastOplogTimestamp != null
+               && (lastTimestamp == null || BackupUtils.compare(lastOplogTimestamp, lastTimestamp) > 0))
+            {
+                lastTimestamp = lastOplogTimestamp;
+            }
+            if(runStart != null && lastTimestamp != null)
+            {
+                new IncrementalRun(runStart, lastTimestamp,
+                    written ? new File(dumpWriter.getFilePath(oplogCollectionTimestamp)).getName() : null)
+                    .record(new File(outputDirectory));
             }
+            // Only a complete run moves the checkpoint, a failed one is dumped again from the same point
+            writeLastTimestamp(incrementalFilePath, lastTimestamp);
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while dumping the oplog");
+            interrupted.initCause(ie);
+            throw interrupted;
         }
         finally
         {
-            writeLastTimestamp(incrementalFilePath, lastTimestamp);
+            executor.shutdownNow();
+            // The cursor must not be closed while the reader may still be using it
+            awaitTermination(executor);
+            oplogCursor.close();
+        }
+    }
+
+    private void awaitTermination(ExecutorService executor)
+    {
+        boolean interrupted = Thread.interrupted();
+        boolean terminated = false;
+        while(!terminated)
+        {
+            try
+            {
+                terminated = executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException ie)
+            {
+                interrupted = true;
+            }
         }
+        if(interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String getIncrementalFilePath(String outputDirectory, String incrementalTimestampFile)
+    {
+        return incrementalTimestampFile != null? incrementalTimestampFile :
+               outputDirectory + File.separator + INCREMENTAL_LAST_TIMESTAMP;
     }
 
-    private BSONTimestamp getLastTimestamp(String incrementalFilePath) throws IOException
+    public static BSONTimestamp getLastTimestamp(String incrementalFilePath) throws IOException
     {
         File incrementalFile = new File(incrementalFilePath);
         if(!incrementalFile.exists())
@@ -120,6 +223,25 @@ public class IncrementalOplogDump implements Callable<Void>
         }
     }
 
+    private BSONTimestamp getBoundaryTimestamp(DBCollection oplogCollection, int naturalOrder)
+    {
+        DBCursor cursor = oplogCollection.find().sort(new BasicDBObject("$natural", naturalOrder)).limit(1);
+        try
+        {
+            return cursor.hasNext() ? (BSONTimestamp) cursor.next().get(BackupConstants.TIMESTAMP_FIELD) : null;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    private boolean isOnlyCheckpoint(List<DBObject> batch, BSONTimestamp checkpoint)
+    {
+        return checkpoint != null && batch.size() == 1
+               && BackupUtils.compare((BSONTimestamp) batch.get(0).get(BackupConstants.TIMESTAMP_FIELD), checkpoint) == 0;
+    }
+
     private void writeLastTimestamp(String incrementalFilePath, BSONTimestamp lastTimestamp) throws IOException
     {
         if(lastTimestamp != null)
@@ -168,4 +290,15 @@ public class IncrementalOplogDump implements Callable<Void>
     {
         this.database = database;
     }
+
+    public void setBatchSize(int batchSize)
+    {
+        Validate.isTrue(batchSize > 0, "batchSize must be greater than zero");
+        this.batchSize = batchSize;
+    }
+
+    public void setOplogFilter(OplogFilter oplogFilter)
+    {
+        this.oplogFilter = oplogFilter;
+    }
 }
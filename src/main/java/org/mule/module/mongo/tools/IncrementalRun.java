@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.BSONTimestamp;
+
+/**
+ * A successful run of the incremental dump, recorded in the output directory. A run
+ * proves that every oplog entry of the dumped database between its bounds is in its
+ * segment file, or that there was none when it wrote no file, so a quiet database is
+ * covered without any segment.
+ */
+public class IncrementalRun
+{
+    public static final String RUNS_FILE = "incremental_runs.txt";
+
+    private static final String SEPARATOR = "|";
+
+    private BSONTimestamp from;
+    private BSONTimestamp to;
+    private String fileName;
+
+    /**
+     * @param from the checkpoint the run started from, or the first entry of the oplog if
+     *            the checkpoint was no longer in it
+     * @param to the last entry of the oplog when the run started reading it
+     * @param fileName the name of the segment file written, or null if there was nothing
+     *            to dump
+     */
+    public IncrementalRun(BSONTimestamp from, BSONTimestamp to, String fileName)
+    {
+        this.from = from;
+        this.to = to;
+        this.fileName = fileName;
+    }
+
+    public static IncrementalRun parse(String line)
+    {
+        String[] parts = line.split("\\|", -1);
+        return new IncrementalRun(new BSONTimestamp(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])),
+                                  new BSONTimestamp(Integer.parseInt(parts[2]), Integer.parseInt(parts[3])),
+                                  parts[4].length() > 0 ? parts[4] : null);
+    }
+
+    public String format()
+    {
+        return from.getTime() + SEPARATOR + from.getInc() + SEPARATOR
+               + to.getTime() + SEPARATOR + to.getInc() + SEPARATOR
+               + (fileName != null ? fileName : "");
+    }
+
+    /**
+     * @return the runs recorded in the given directory, in the order they ran
+     */
+    public static List<IncrementalRun> load(File directory) throws IOException
+    {
+        List<IncrementalRun> runs = new ArrayList<IncrementalRun>();
+        File runsFile = new File(directory, RUNS_FILE);
+        if(!runsFile.exists())
+        {
+            return runs;
+        }
+        BufferedReader input = null;
+        try
+        {
+            input = new BufferedReader(new InputStreamReader(new FileInputStream(runsFile), "UTF-8"));
+            String line;
+            while((line = input.readLine()) != null)
+            {
+                if(line.length() > 0)
+                {
+                    runs.add(parse(line));
+                }
+            }
+            return runs;
+        }
+        finally
+        {
+            if(input != null)
+            {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Appends this run to the runs recorded in the given directory
+     */
+    public void record(File directory) throws IOException
+    {
+        Writer writer = null;
+        try
+        {
+            writer = new OutputStreamWriter(new FileOutputStream(new File(directory, RUNS_FILE), true), "UTF-8");
+            writer.write(format());
+            writer.write("\n");
+        }
+        finally
+        {
+            if(writer != null)
+            {
+                writer.close();
+            }
+        }
+    }
+
+    public BSONTimestamp getFrom()
+    {
+        return from;
+    }
+
+    public BSONTimestamp getTo()
+    {
+        return to;
+    }
+
+    public String getFileName()
+    {
+        return fileName;
+    }
+}
@@ -0,0 +1,644 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.Validate;
+import org.bson.types.BSONTimestamp;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a collection holding the count, sum and average of a numeric field of the
+ * objects of a source collection, grouped by the value of another field, up to date by
+ * tailing the oplog. Every object of the view has the group value as _id, so reading a
+ * group is a lookup by _id.
+ * <p/>
+ * What every source object contributes to the view is recorded in a contributions
+ * collection. Oplog entries only tell which objects changed: those are read again in
+ * batches and the view is increased by the difference between their current and their
+ * recorded contributions. As deltas are computed against the recorded state, replaying
+ * entries already applied does not count them twice.
+ * <p/>
+ * Every batch is first recorded as pending in the contributions collection, with its
+ * deltas and its contributions, and dropped once both are applied. Every group of the
+ * view holds the id of the last batch that increased it, so a batch interrupted midway
+ * is completed on retry without increasing a group twice.
+ * <p/>
+ * The oplog position of the last batch applied is recorded too, so maintenance resumes
+ * where it stopped. When there is no recorded position, or it is no longer in the oplog,
+ * the view is built from scratch by scanning the source collection.
+ * <p/>
+ * Only the holder of a lease recorded in the contributions collection maintains the
+ * view, so that several processes started on the same target do not apply the same
+ * changes. The lease is renewed while maintaining the view and taken over by another
+ * process once it expires, so the clocks of those processes must agree within a
+ * fraction of {@link #LEASE_MILLIS}.
+ */
+public class MaterializedView implements Runnable
+{
+    public static final String COUNT_FIELD = "count";
+    public static final String SUM_FIELD = "sum";
+    public static final String AVERAGE_FIELD = "avg";
+    public static final long LEASE_MILLIS = 30000;
+
+    private static final Logger logger = LoggerFactory.getLogger(MaterializedView.class);
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_BATCH_DELAY_MILLIS = 100;
+    private static final String ID_FIELD = "_id";
+    private static final String OBJECT_FIELD = "o";
+    private static final String QUERY_FIELD = "o2";
+    private static final String KEY_FIELD = "k";
+    private static final String VALUE_FIELD = "v";
+    private static final String CONTRIBUTIONS_SUFFIX = ".contributions";
+    /** _id of the document of the contributions collection holding the last oplog position applied */
+    private static final String CHECKPOINT_ID = "$checkpoint";
+    /** _id of the document of the contributions collection holding the batch being applied */
+    private static final String PENDING_ID = "$pending";
+    /** Field of the groups of the view and of the pending batch holding the id of the batch */
+    private static final String BATCH_FIELD = "batch";
+    private static final String GROUPS_FIELD = "groups";
+    private static final String SAVED_FIELD = "saved";
+    private static final String REMOVED_FIELD = "removed";
+    /** _id of the document of the contributions collection holding the lease */
+    private static final String LEASE_ID = "$lease";
+    private static final String OWNER_FIELD = "owner";
+    private static final String EXPIRES_FIELD = "expires";
+
+    private OplogCollection oplogCollection;
+    private DB db;
+    private String database;
+    private String sourceCollection;
+    private String targetCollection;
+    private String groupBy;
+    private String valueField;
+    private int batchSize;
+    private volatile boolean running;
+    private BSONTimestamp lastTimestamp;
+    private Thread thread;
+    private final String owner = new ObjectId().toString();
+    private long leaseExpiry;
+
+    /**
+     * @param groupBy the field whose values the source objects are grouped by
+     * @param valueField the numeric field counted, summed and averaged, or null to only count
+     * @param batchSize the maximum amount of changed objects applied together
+     */
+    public MaterializedView(DB admin,
+                            DB local,
+                            DB db,
+                            String sourceCollection,
+                            String targetCollection,
+                            String groupBy,
+                            String valueField,
+                            int batchSize)
+    {
+        Validate.notNull(db);
+        Validate.notNull(sourceCollection);
+        Validate.notNull(targetCollection);
+        Validate.notNull(groupBy);
+        Validate.isTrue(batchSize > 0, "batchSize must be greater than zero");
+        this.oplogCollection = new OplogCollection(admin, local);
+        this.db = db;
+        this.database = db.getName();
+        this.sourceCollection = sourceCollection;
+        this.targetCollection = targetCollection;
+        this.groupBy = groupBy;
+        this.valueField = valueField;
+        this.batchSize = batchSize;
+    }
+
+    public synchronized void start()
+    {
+        if(thread != null)
+        {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "mongo-materialized-view-" + database + "." + targetCollection);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop()
+    {
+        running = false;
+        if(thread != null)
+        {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public void run()
+    {
+        try
+        {
+            while(running)
+            {
+                try
+                {
+                    tail();
+                }
+                catch(Exception e)
+                {
+                    if(!running)
+                    {
+                        return;
+                    }
+                    logger.warn("Could not maintain the materialized view " + targetCollection + ", retrying", e);
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                }
+            }
+        }
+        catch(InterruptedException e)
+        {
+            return;
+        }
+        finally
+        {
+            releaseLease();
+        }
+    }
+
+    private void tail() throws Exception
+    {
+        if(!holdLease())
+        {
+            logger.debug("The materialized view {} is maintained by another process", targetCollection);
+            // Another process may move the checkpoint meanwhile
+            lastTimestamp = null;
+            Thread.sleep(RETRY_DELAY_MILLIS);
+            return;
+        }
+        DBCollection oplog = oplogCollection.getOplogCollection();
+        if(lastTimestamp == null)
+        {
+            lastTimestamp = getCheckpoint();
+        }
+        if(lastTimestamp != null)
+        {
+            BSONTimestamp first = getBoundaryTimestamp(oplog, 1);
+            if(first != null && BackupUtils.compare(lastTimestamp, first) < 0)
+            {
+                logger.warn("The last change applied to the materialized view {} is no longer in the oplog, "
+                            + "rebuilding it", targetCollection);
+                lastTimestamp = null;
+            }
+        }
+        if(lastTimestamp == null)
+        {
+            rebuild(oplog);
+        }
+        else
+        {
+            DBObject pending = db.getCollection(targetCollection + CONTRIBUTIONS_SUFFIX)
+                .findOne(new BasicDBObject(ID_FIELD, PENDING_ID));
+            if(pending != null)
+            {
+                logger.info("Completing the batch interrupted while maintaining {}", targetCollection);
+                complete(pending);
+            }
+        }
+
+        OplogFilter filter = new OplogFilter(database);
+        filter.setIncludeCollections(Arrays.asList(sourceCollection, "$cmd"));
+        DBObject query = filter.toQuery();
+        if(lastTimestamp != null)
+        {
+            query.put(BackupConstants.TIMESTAMP_FIELD, new BasicDBObject("$gt", lastTimestamp));
+        }
+        DBCursor cursor = oplog.find(query)
+            .addOption(Bytes.QUERYOPTION_TAILABLE)
+            .addOption(Bytes.QUERYOPTION_AWAITDATA)
+            .addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+        try
+        {
+            Set<Object> changed = new LinkedHashSet<Object>();
+            BSONTimestamp batchTimestamp = null;
+            long batchStart = 0;
+            boolean found = false;
+            while(running)
+            {
+                if(!holdLease())
+                {
+                    lastTimestamp = null;
+                    return;
+                }
+                // Waiting for entries returns false once no entry arrives for a while
+                boolean hasNext = cursor.hasNext();
+                if(hasNext)
+                {
+                    DBObject entry = cursor.next();
+                    found = true;
+                    batchTimestamp = (BSONTimestamp) entry.get(BackupConstants.TIMESTAMP_FIELD);
+                    if(changed.isEmpty())
+                    {
+                        batchStart = System.currentTimeMillis();
+                    }
+                    if(sourceCollection.equals(OplogOperations.getDroppedCollection(entry)))
+                    {
+                        apply(changed, null);
+                        clear();
+                        apply(changed, batchTimestamp);
+                        batchTimestamp = null;
+                    }
+                    else
+                    {
+                        Object id = getChangedId(entry);
+                        if(id != null)
+                        {
+                            changed.add(id);
+                        }
+                    }
+                }
+                if(batchTimestamp != null && (!hasNext || changed.size() >= batchSize
+                                              || System.currentTimeMillis() - batchStart >= MAX_BATCH_DELAY_MILLIS))
+                {
+                    apply(changed, batchTimestamp);
+                    batchTimestamp = null;
+                }
+                if(!hasNext && cursor.getCursorId() == 0)
+                {
+                    // The cursor died, query again from the last entry applied. A cursor
+                    // matching no entry dies right away, so wait before querying again.
+                    if(!found)
+                    {
+                        Thread.sleep(RETRY_DELAY_MILLIS);
+                    }
+                    return;
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the _id of the source object an oplog entry changes, or null if it changes none
+     */
+    Object getChangedId(DBObject entry)
+    {
+        String operation = (String) entry.get(BackupConstants.OPERATION_FIELD);
+        if(!BackupUtils.getNamespace(database, sourceCollection).equals(entry.get(BackupConstants.NAMESPACE_FIELD)))
+        {
+            return null;
+        }
+        if(OplogOperations.UPDATE.equals(operation))
+        {
+            return ((DBObject) entry.get(QUERY_FIELD)).get(ID_FIELD);
+        }
+        if(OplogOperations.INSERT.equals(operation) || OplogOperations.DELETE.equals(operation))
+        {
+            return ((DBObject) entry.get(OBJECT_FIELD)).get(ID_FIELD);
+        }
+        return null;
+    }
+
+    /**
+     * Builds the view from scratch, starting to tail the oplog from the last entry
+     * written before scanning the source collection
+     */
+    private void rebuild(DBCollection oplog)
+    {
+        logger.info("Building the materialized view {} from {}", targetCollection, sourceCollection);
+        BSONTimestamp start = getBoundaryTimestamp(oplog, -1);
+        clear();
+        Set<Object> ids = new LinkedHashSet<Object>();
+        DBCursor cursor = db.getCollection(sourceCollection).find(new BasicDBObject(), new BasicDBObject(ID_FIELD, 1));
+        try
+        {
+            while(cursor.hasNext())
+            {
+                ids.add(cursor.next().get(ID_FIELD));
+                if(ids.size() >= batchSize)
+                {
+                    if(!holdLease())
+                    {
+                        throw new IllegalStateException("Lost the lease of the materialized view " + targetCollection);
+                    }
+                    apply(ids, null);
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        apply(ids, start != null ? start : new BSONTimestamp());
+    }
+
+    private void clear()
+    {
+        db.getCollection(targetCollection).remove(new BasicDBObject());
+        db.getCollection(targetCollection + CONTRIBUTIONS_SUFFIX).remove(
+            new BasicDBObject(ID_FIELD, new BasicDBObject("$ne", LEASE_ID)));
+    }
+
+    /**
+     * Takes or renews the lease of the view, unless it was renewed less than half a
+     * lease ago
+     *
+     * @return false if another process holds the lease
+     */
+    private boolean holdLease()
+    {
+        long now = System.currentTimeMillis();
+        if(leaseExpiry - now > LEASE_MILLIS / 2)
+        {
+            return true;
+        }
+        BasicDBObject query = new BasicDBObject(ID_FIELD, LEASE_ID).append("$or", Arrays.asList(
+            new BasicDBObject(OWNER_FIELD, owner),
+            new BasicDBObject(EXPIRES_FIELD, new BasicDBObject("$lt", new Date(now)))));
+        try
+        {
+            db.getCollection(targetCollection + CONTRIBUTIONS_SUFFIX).update(query,
+                new BasicDBObject("$set", new BasicDBObject(OWNER_FIELD, owner).append(EXPIRES_FIELD,
+                    new Date(now + LEASE_MILLIS))), true, false, WriteConcern.SAFE);
+        }
+        catch(MongoException.DuplicateKey e)
+        {
+            // Held by another process, so the lease document exists and did not match
+            leaseExpiry = 0;
+            return false;
+        }
+        leaseExpiry = now + LEASE_MILLIS;
+        return true;
+    }
+
+    private void releaseLease()
+    {
+        if(leaseExpiry == 0)
+        {
+            return;
+        }
+        leaseExpiry = 0;
+        try
+        {
+            db.getCollection(targetCollection + CONTRIBUTIONS_SUFFIX).remove(
+                new BasicDBObject(ID_FIELD, LEASE_ID).append(OWNER_FIELD, owner));
+        }
+        catch(RuntimeException e)
+        {
+            logger.warn("Could not release the lease of the materialized view " + targetCollection, e);
+        }
+    }
+
+    /**
+     * Applies the changes of the given source objects to the view, recording the given
+     * oplog position if any
+     */
+    private void apply(Set<Object> ids, BSONTimestamp timestamp)
+    {
+        DBCollection contributions = db.getCollection(targetCollection + CONTRIBUTIONS_SUFFIX);
+        if(!ids.isEmpty())
+        {
+            Map<Object, DBObject> recorded = findByIds(contributions, ids);
+            Map<Object, DBObject> current = new HashMap<Object, DBObject>();
+            for(DBObject object : findByIds(db.getCollection(sourceCollection), ids).values())
+            {
+                DBObject contribution = getContribution(object);
+                if(contribution != null)
+                {
+                    current.put(object.get(ID_FIELD), contribution);
+                }
+            }
+
+            Map<Object, double[]> deltas = new HashMap<Object, double[]>();
+            for(Object id : ids)
+            {
+                addDelta(deltas, recorded.get(id), -1);
+                addDelta(deltas, current.get(id), 1);
+            }
+            List<DBObject> groups = new ArrayList<DBObject>();
+            for(Map.Entry<Object, double[]> entry : deltas.entrySet())
+            {
+                double[] delta = entry.getValue();
+                if(delta[0] != 0 || delta[1] != 0)
+                {
+                    groups.add(new BasicDBObject(KEY_FIELD, entry.getKey()).append(COUNT_FIELD, (long) delta[0])
+                        .append(SUM_FIELD, delta[1]));
+                }
+            }
+            List<DBObject> saved = new ArrayList<DBObject>();
+            List<Object> removed = new ArrayList<Object>();
+            for(Object id : ids)
+            {
+                DBObject contribution = current.get(id);
+                if(contribution != null)
+                {
+                    saved.add(contribution);
+                }
+                else if(recorded.containsKey(id))
+                {
+                    removed.add(id);
+                }
+            }
+
+            DBObject batch = new BasicDBObject(ID_FIELD, PENDING_ID).append(BATCH_FIELD, new ObjectId())
+                .append(GROUPS_FIELD, groups)
+                .append(SAVED_FIELD, saved)
+                .append(REMOVED_FIELD, removed);
+            contributions.save(batch);
+            complete(batch);
+            ids.clear();
+        }
+        if(timestamp != null)
+        {
+            contributions.save(
+                new BasicDBObject(ID_FIELD, CHECKPOINT_ID).append(BackupConstants.TIMESTAMP_FIELD, timestamp));
+            lastTimestamp = timestamp;
+        }
+    }
+
+    private Map<Object, DBObject> findByIds(DBCollection collection, Set<Object> ids)
+    {
+        Map<Object, DBObject> objects = new HashMap<Object, DBObject>();
+        DBCursor cursor = collection.find(new BasicDBObject(ID_FIELD, new BasicDBObject("$in", new ArrayList<Object>(ids))));
+        try
+        {
+            while(cursor.hasNext())
+            {
+                DBObject object = cursor.next();
+                objects.put(object.get(ID_FIELD), object);
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        return objects;
+    }
+
+    /**
+     * @return what the given source object contributes to the view, or null if it lacks
+     *         the group or the value
+     */
+    DBObject getContribution(DBObject object)
+    {
+        Object key = getField(object, groupBy);
+        if(key == null)
+        {
+            return null;
+        }
+        double value = 0;
+        if(valueField != null)
+        {
+            Object fieldValue = getField(object, valueField);
+            if(!(fieldValue instanceof Number))
+            {
+                return null;
+            }
+            value = ((Number) fieldValue).doubleValue();
+        }
+        return new BasicDBObject(ID_FIELD, object.get(ID_FIELD)).append(KEY_FIELD, key).append(VALUE_FIELD, value);
+    }
+
+    private static Object getField(DBObject object, String path)
+    {
+        Object value = object;
+        for(String name : path.split("\\."))
+        {
+            if(!(value instanceof DBObject))
+            {
+                return null;
+            }
+            value = ((DBObject) value).get(name);
+        }
+        return value;
+    }
+
+    private static void addDelta(Map<Object, double[]> deltas, DBObject contribution, int sign)
+    {
+        if(contribution == null)
+        {
+            return;
+        }
+        Object key = contribution.get(KEY_FIELD);
+        double[] delta = deltas.get(key);
+        if(delta == null)
+        {
+            delta = new double[2];
+            deltas.put(key, delta);
+        }
+        delta[0] += sign;
+        delta[1] += sign * ((Number) contribution.get(VALUE_FIELD)).doubleValue();
+    }
+
+    /**
+     * Applies a batch recorded as pending: increases the groups that do not hold its id
+     * yet, records its contributions and drops it. Completing a batch again changes nothing.
+     */
+    void complete(DBObject batch)
+    {
+        Object batchId = batch.get(BATCH_FIELD);
+        DBCollection target = db.getCollection(targetCollection);
+        for(Object group : (List<?>) batch.get(GROUPS_FIELD))
+        {
+            DBObject delta = (DBObject) group;
+            applyDelta(target, batchId, delta.get(KEY_FIELD), ((Number) delta.get(COUNT_FIELD)).longValue(),
+                ((Number) delta.get(SUM_FIELD)).doubleValue());
+        }
+        DBCollection contributions = db.getCollection(targetCollection + CONTRIBUTIONS_SUFFIX);
+        for(Object contribution : (List<?>) batch.get(SAVED_FIELD))
+        {
+            contributions.save((DBObject) contribution);
+        }
+        for(Object id : (List<?>) batch.get(REMOVED_FIELD))
+        {
+            contributions.remove(new BasicDBObject(ID_FIELD, id));
+        }
+        contributions.remove(new BasicDBObject(ID_FIELD, PENDING_ID));
+    }
+
+    private void applyDelta(DBCollection target, Object batchId, Object key, long countDelta, double sumDelta)
+    {
+        BasicDBObject query = new BasicDBObject(ID_FIELD, key);
+        DBObject group = target.findAndModify(
+            new BasicDBObject(ID_FIELD, key).append(BATCH_FIELD, new BasicDBObject("$ne", batchId)), null, null, false,
+            new BasicDBObject("$inc", new BasicDBObject(COUNT_FIELD, countDelta).append(SUM_FIELD, sumDelta))
+                .append("$set", new BasicDBObject(BATCH_FIELD, batchId)), true, false);
+        if(group == null)
+        {
+            // Either increased by an earlier attempt of this batch, or new
+            group = target.findOne(query);
+            if(group == null)
+            {
+                if(countDelta <= 0)
+                {
+                    // Emptied and removed by an earlier attempt of this batch
+                    return;
+                }
+                group = new BasicDBObject(ID_FIELD, key).append(COUNT_FIELD, countDelta)
+                    .append(SUM_FIELD, sumDelta)
+                    .append(BATCH_FIELD, batchId);
+                target.insert(group);
+            }
+        }
+        long count = ((Number) group.get(COUNT_FIELD)).longValue();
+        if(count <= 0)
+        {
+            target.remove(query);
+        }
+        else
+        {
+            double sum = ((Number) group.get(SUM_FIELD)).doubleValue();
+            target.update(query, new BasicDBObject("$set", new BasicDBObject(AVERAGE_FIELD, sum / count)));
+        }
+    }
+
+    private BSONTimestamp getCheckpoint()
+    {
+        DBObject checkpoint = db.getCollection(targetCollection + CONTRIBUTIONS_SUFFIX)
+            .findOne(new BasicDBObject(ID_FIELD, CHECKPOINT_ID));
+        return checkpoint != null ? (BSONTimestamp) checkpoint.get(BackupConstants.TIMESTAMP_FIELD) : null;
+    }
+
+    /**
+     * @return the first or the last entry of the oplog, in the given natural order
+     */
+    private BSONTimestamp getBoundaryTimestamp(DBCollection oplog, int naturalOrder)
+    {
+        DBCursor cursor = oplog.find().sort(new BasicDBObject("$natural", naturalOrder)).limit(1);
+        try
+        {
+            return cursor.hasNext() ? (BSONTimestamp) cursor.next().get(BackupConstants.TIMESTAMP_FIELD) : null;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    public String getTargetCollection()
+    {
+        return targetCollection;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.DBObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Rebuilds one collection of a dump by applying its oplog entries, in order, to the documents
+ * of the base dump. The oplog entries are spilled to a file as they are added and the base
+ * dump is streamed, so memory is bounded by the oplog entries of this collection, grouped by
+ * the document they change, and not by the size of the collection.
+ */
+public class MergeDumpCollection implements Callable<Void>
+{
+    private static final int BATCH_SIZE = 1000;
+
+    private String collection;
+    private RestoreFile baseFile;
+    private DumpWriter spillWriter;
+    private List<DBObject> unspilledEntries = new ArrayList<DBObject>();
+    private DumpWriter dumpWriter;
+    private List<DBObject> unwrittenDocuments = new ArrayList<DBObject>();
+
+    /**
+     * @param spillWriter the writer the oplog entries are spilled to until the collection is merged
+     */
+    public MergeDumpCollection(String collection, DumpWriter spillWriter)
+    {
+        this.collection = collection;
+        this.spillWriter = spillWriter;
+    }
+
+    public Void call() throws Exception
+    {
+        spillOplogEntries();
+
+        // The entries are spilled in oplog order, so each list keeps the order of its document's changes
+        Map<Object, List<DBObject>> changes = new LinkedHashMap<Object, List<DBObject>>();
+        boolean dropped = false;
+        File spillFile = new File(spillWriter.getFilePath(collection));
+        if(spillFile.exists())
+        {
+            RestoreFile.ObjectReader reader = new RestoreFile(spillFile).openObjectReader();
+            try
+            {
+                DBObject oplogEntry;
+                while((oplogEntry = reader.next()) != null)
+                {
+                    if(OplogOperations.getDroppedCollection(oplogEntry) != null)
+                    {
+                        changes.clear();
+                        dropped = true;
+                        continue;
+                    }
+                    Object key = OplogOperations.getTargetKey(oplogEntry);
+                    if(key != null)
+                    {
+                        List<DBObject> documentChanges = changes.get(key);
+                        if(documentChanges == null)
+                        {
+                            documentChanges = new ArrayList<DBObject>();
+                            changes.put(key, documentChanges);
+                        }
+                        documentChanges.add(oplogEntry);
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+
+        if(baseFile != null && !dropped)
+        {
+            RestoreFile.ObjectReader reader = baseFile.openObjectReader();
+            try
+            {
+                DBObject document;
+                while((document = reader.next()) != null)
+                {
+                    Object key = OplogOperations.getKey(document);
+                    List<DBObject> documentChanges = changes.remove(key);
+                    writeDocument(documentChanges != null ? applyChanges(key, document, documentChanges) : document);
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+
+        // Documents created after the base dump
+        for(Map.Entry<Object, List<DBObject>> documentChanges : changes.entrySet())
+        {
+            writeDocument(applyChanges(documentChanges.getKey(), null, documentChanges.getValue()));
+        }
+        writeDocuments();
+        return null;
+    }
+
+    public void setBaseFile(RestoreFile baseFile)
+    {
+        this.baseFile = baseFile;
+    }
+
+    public void addOplogEntry(DBObject oplogEntry) throws IOException
+    {
+        unspilledEntries.add(oplogEntry);
+        if(unspilledEntries.size() >= BATCH_SIZE)
+        {
+            spillOplogEntries();
+        }
+    }
+
+    public void setDumpWriter(DumpWriter dumpWriter)
+    {
+        this.dumpWriter = dumpWriter;
+    }
+
+    private DBObject applyChanges(Object key, DBObject document, List<DBObject> documentChanges) throws IOException
+    {
+        Map<Object, DBObject> documents = new HashMap<Object, DBObject>();
+        if(document != null)
+        {
+            documents.put(key, document);
+        }
+        for(DBObject oplogEntry : documentChanges)
+        {
+            OplogOperations.apply(documents, oplogEntry);
+        }
+        return documents.get(key);
+    }
+
+    private void spillOplogEntries() throws IOException
+    {
+        if(!unspilledEntries.isEmpty())
+        {
+            spillWriter.writeObjects(collection, unspilledEntries);
+            unspilledEntries.clear();
+        }
+    }
+
+    /**
+     * @param document the merged document, or null if it was deleted
+     */
+    private void writeDocument(DBObject document) throws IOException
+    {
+        if(document != null)
+        {
+            unwrittenDocuments.add(document);
+            if(unwrittenDocuments.size() >= BATCH_SIZE)
+            {
+                writeDocuments();
+            }
+        }
+    }
+
+    private void writeDocuments() throws IOException
+    {
+        if(!unwrittenDocuments.isEmpty())
+        {
+            dumpWriter.writeObjects(collection, unwrittenDocuments);
+            unwrittenDocuments.clear();
+        }
+    }
+}
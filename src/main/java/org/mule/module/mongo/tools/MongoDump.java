@@ -45,6 +45,7 @@ public class MongoDump extends AbstractMongoUtility
     private Map<String, DB> dbs = new HashMap<String, DB>();
     private DBCollection oplogCollection;
     private BSONTimestamp oplogStart;
+    private OplogFilter oplogFilter;
 
     public MongoDump(MongoClient mongoClient)
     {
@@ -91,10 +92,8 @@ public class MongoDump extends AbstractMongoUtility
                     dumpCollection.setName(BackupConstants.OPLOG);
                     dumpCollection.addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
                     dumpCollection.addOption(Bytes.QUERYOPTION_SLAVEOK);
-                    DBObject query = new BasicDBObject();
+                    DBObject query = getOplogFilter(database).toQuery();
                     query.put(BackupConstants.TIMESTAMP_FIELD, new BasicDBObject("$gt", oplogStart));
-                    // Filter only oplogs for given database
-                    query.put(BackupConstants.NAMESPACE_FIELD, BackupUtils.getNamespacePattern(database));
                     dumpCollection.setQuery(query);
                     dumpCollection.setDumpWriter(dumpWriter);
                     Future<Void> future = singleExecutor.submit(dumpCollection);
@@ -122,8 +121,7 @@ public class MongoDump extends AbstractMongoUtility
         {
             oplogCollection = new OplogCollection(dbs.get(BackupConstants.ADMIN_DB), dbs.get(BackupConstants.LOCAL_DB)).getOplogCollection();
             // Filter for oplogs for the given database
-            DBObject query = new BasicDBObject(BackupConstants.NAMESPACE_FIELD, BackupUtils.getNamespacePattern(database));
-            DBCursor oplogCursor = oplogCollection.find(query);
+            DBCursor oplogCursor = oplogCollection.find(getOplogFilter(database).toQuery());
             oplogCursor.sort(new BasicDBObject("$natural", -1));
             if(oplogCursor.hasNext())
             {
@@ -132,6 +130,11 @@ public class MongoDump extends AbstractMongoUtility
         }
     }
 
+    private OplogFilter getOplogFilter(String database)
+    {
+        return oplogFilter != null ? oplogFilter : new OplogFilter(database);
+    }
+
     private String appendTimestamp()
     {
         SimpleDateFormat dateFormat = new SimpleDateFormat(TIMESTAMP_FORMAT);
@@ -153,4 +156,9 @@ public class MongoDump extends AbstractMongoUtility
     {
         dbs.put(db.getName(), db);
     }
+
+    public void setOplogFilter(OplogFilter oplogFilter)
+    {
+        this.oplogFilter = oplogFilter;
+    }
 }
@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.DBObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.Validate;
+import org.bson.types.BSONTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Synthesizes a new full dump without touching the database: the collections of a previous
+ * dump are loaded and the later oplog entries (the dump's own oplog plus the incremental oplog
+ * files found directly in the oplog path) are applied to them, one collection per thread.
+ * Entries older than the start of the base dump are skipped, so oplog files left over from
+ * earlier backups are harmless, but the files must cover the whole period since the base
+ * dump was taken. The output is named after the newest entry applied, so that the backup
+ * catalog sees it as a dump taken at that point. The dumps are streamed and the oplog entries
+ * are spilled to a temporary directory in the output directory, so memory is bounded by the
+ * oplog entries of the collections being merged at the same time rather than by the size of
+ * the dump; see {@link MergeDumpCollection}.
+ */
+public class MongoDumpMerge extends AbstractMongoUtility
+{
+    private static final Logger logger = LoggerFactory.getLogger(MongoDumpMerge.class);
+    private static final String COMMAND_COLLECTION = "$cmd";
+    private static final String CREATE_COMMAND = "create";
+    private static final String SPILL_DIRECTORY_PREFIX = ".merge-oplog-";
+
+    private String database;
+
+    public MongoDumpMerge(String database)
+    {
+        Validate.notNull(database);
+        this.database = database;
+    }
+
+    public void merge(String baseDumpPath, String oplogPath, String outputDirectory, String outputName, int threads) throws IOException
+    {
+        Validate.notNull(baseDumpPath);
+        Validate.notNull(oplogPath);
+        Validate.notNull(outputDirectory);
+        Validate.notNull(outputName);
+
+        File spillDirectory = new File(outputDirectory, SPILL_DIRECTORY_PREFIX + outputName);
+        try
+        {
+            merge(baseDumpPath, oplogPath, outputDirectory, outputName, threads, new BsonDumpWriter(spillDirectory.getPath()));
+        }
+        finally
+        {
+            FileUtils.deleteQuietly(spillDirectory);
+        }
+    }
+
+    private void merge(String baseDumpPath,
+                       String oplogPath,
+                       String outputDirectory,
+                       String outputName,
+                       int threads,
+                       DumpWriter spillWriter) throws IOException
+    {
+        Map<String, MergeDumpCollection> collections = new TreeMap<String, MergeDumpCollection>();
+        List<RestoreFile> oplogFiles = new ArrayList<RestoreFile>();
+
+        for(RestoreFile baseFile : getBsonFiles(baseDumpPath))
+        {
+            if(isOplog(baseFile.getCollection()))
+            {
+                oplogFiles.add(baseFile);
+            }
+            else
+            {
+                getMergeCollection(collections, baseFile.getCollection(), spillWriter).setBaseFile(baseFile);
+            }
+        }
+        BSONTimestamp baseStart = getBaseStart(baseDumpPath, oplogFiles);
+
+        // Only the incremental oplog files themselves, not the oplogs of other dumps kept next to them
+        File[] incrementalFiles = new File(oplogPath).listFiles();
+        for(File file : incrementalFiles != null ? incrementalFiles : new File[0])
+        {
+            if(file.isFile() && BackupUtils.isBsonFile(file) && isOplog(file.getName()))
+            {
+                oplogFiles.add(new RestoreFile(file));
+            }
+        }
+        // Oplog file names end with their dump timestamp, so name order is chronological
+        Collections.sort(oplogFiles);
+
+        BSONTimestamp lastApplied = addOplogEntries(collections, oplogFiles, baseStart, spillWriter);
+        outputName += BackupUtils.formatDumpTimestamp(lastApplied != null ? lastApplied : baseStart);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        DumpWriter dumpWriter = new BsonDumpWriter(outputDirectory, outputName);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for(MergeDumpCollection mergeCollection : collections.values())
+        {
+            mergeCollection.setDumpWriter(dumpWriter);
+            futures.add(executor.submit(mergeCollection));
+        }
+        executor.shutdown();
+
+        try
+        {
+            for(Future<Void> future : futures)
+            {
+                propagateException(future);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the oldest entry of the base dump's own oplog, or else the time its name ends with
+     */
+    private BSONTimestamp getBaseStart(String baseDumpPath, List<RestoreFile> baseOplogFiles) throws IOException
+    {
+        BSONTimestamp start = null;
+        for(RestoreFile oplogFile : baseOplogFiles)
+        {
+            RestoreFile.ObjectReader reader = oplogFile.openObjectReader();
+            try
+            {
+                DBObject firstEntry = reader.next();
+                if(firstEntry != null)
+                {
+                    BSONTimestamp timestamp = (BSONTimestamp) firstEntry.get(BackupConstants.TIMESTAMP_FIELD);
+                    if(start == null || BackupUtils.compare(timestamp, start) < 0)
+                    {
+                        start = timestamp;
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        if(start == null)
+        {
+            File baseDump = new File(baseDumpPath);
+            String name = ZipUtils.isZipFile(baseDump) ? BackupUtils.removeExtension(baseDump.getName()) : baseDump.getName();
+            start = BackupUtils.parseDumpTimestamp(name);
+        }
+        if(start == null)
+        {
+            throw new IOException("Cannot tell when " + baseDumpPath + " was dumped: it has no oplog and its name has no timestamp");
+        }
+        return start;
+    }
+
+    /**
+     * @return the timestamp of the newest entry applied, or null if none was
+     */
+    private BSONTimestamp addOplogEntries(Map<String, MergeDumpCollection> collections,
+                                          List<RestoreFile> oplogFiles,
+                                          BSONTimestamp baseStart,
+                                          DumpWriter spillWriter) throws IOException
+    {
+        String databasePrefix = database + ".";
+        BSONTimestamp lastTimestamp = null;
+        BSONTimestamp lastApplied = null;
+
+        for(RestoreFile oplogFile : oplogFiles)
+        {
+            RestoreFile.ObjectReader reader = oplogFile.openObjectReader();
+            try
+            {
+                DBObject oplogEntry;
+                while((oplogEntry = reader.next()) != null)
+                {
+                    BSONTimestamp timestamp = (BSONTimestamp) oplogEntry.get(BackupConstants.TIMESTAMP_FIELD);
+                    // Older entries are already in the base dump, and consecutive oplog files may overlap
+                    if(BackupUtils.compare(timestamp, baseStart) < 0
+                       || (lastTimestamp != null && BackupUtils.compare(timestamp, lastTimestamp) <= 0))
+                    {
+                        continue;
+                    }
+                    lastTimestamp = timestamp;
+
+                    String namespace = (String) oplogEntry.get(BackupConstants.NAMESPACE_FIELD);
+                    if(!namespace.startsWith(databasePrefix))
+                    {
+                        continue;
+                    }
+
+                    String collection = namespace.substring(databasePrefix.length());
+                    String droppedCollection = OplogOperations.getDroppedCollection(oplogEntry);
+                    if(droppedCollection != null)
+                    {
+                        collection = droppedCollection;
+                    }
+                    else if(COMMAND_COLLECTION.equals(collection))
+                    {
+                        DBObject command = (DBObject) oplogEntry.get("o");
+                        if(!command.containsField(CREATE_COMMAND))
+                        {
+                            logger.warn("Oplog command {} at {} is not applied to the merged dump of {}",
+                                new Object[] {command, timestamp, database});
+                        }
+                        continue;
+                    }
+                    getMergeCollection(collections, collection, spillWriter).addOplogEntry(oplogEntry);
+                    lastApplied = timestamp;
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        return lastApplied;
+    }
+
+    private MergeDumpCollection getMergeCollection(Map<String, MergeDumpCollection> collections,
+                                                   String collection,
+                                                   DumpWriter spillWriter)
+    {
+        MergeDumpCollection mergeCollection = collections.get(collection);
+        if(mergeCollection == null)
+        {
+            mergeCollection = new MergeDumpCollection(collection, spillWriter);
+            collections.put(collection, mergeCollection);
+        }
+        return mergeCollection;
+    }
+
+    private List<RestoreFile> getBsonFiles(String inputPath) throws IOException
+    {
+        List<RestoreFile> bsonFiles = new ArrayList<RestoreFile>();
+        processBsonFiles(new File(inputPath), bsonFiles);
+        return bsonFiles;
+    }
+
+    private void processBsonFiles(File input, List<RestoreFile> bsonFiles) throws IOException
+    {
+        if(ZipUtils.isZipFile(input))
+        {
+            File unzippedFolder = new File(BackupUtils.removeExtension(input.getPath()));
+            org.mule.util.FileUtils.unzip(input, unzippedFolder);
+            input = unzippedFolder;
+        }
+
+        if(input.isDirectory())
+        {
+            for(File file : input.listFiles())
+            {
+                processBsonFiles(file, bsonFiles);
+            }
+        }
+        else if(BackupUtils.isBsonFile(input))
+        {
+            bsonFiles.add(new RestoreFile(input));
+        }
+    }
+
+    private boolean isOplog(String collection)
+    {
+        return collection.startsWith(BackupConstants.OPLOG);
+    }
+}
@@ -18,6 +18,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.apache.commons.lang.Validate;
+import org.bson.types.BSONTimestamp;
 
 public class MongoRestore extends AbstractMongoUtility
 {
@@ -25,6 +26,7 @@ public class MongoRestore extends AbstractMongoUtility
     private boolean drop;
     private boolean oplogReplay;
     private String database;
+    private Integer toTimestamp;
 
     public MongoRestore(MongoClient mongoClient, String database)
     {
@@ -38,11 +40,26 @@ public class MongoRestore extends AbstractMongoUtility
         Validate.notNull(inputPath);
         ExecutorService executor = Executors.newSingleThreadExecutor();
         MongoRestoreDirectory mongoRestoreDirectory = new MongoRestoreDirectory();
-        mongoRestoreDirectory.setInputPath(inputPath);
         mongoRestoreDirectory.setMongoClient(mongoClient);
         mongoRestoreDirectory.setDatabase(database);
         mongoRestoreDirectory.setDrop(drop);
-        mongoRestoreDirectory.setOplogReplay(oplogReplay);
+        if(toTimestamp != null)
+        {
+            // Point in time restore: inputPath is the backup root directory
+            BackupCatalog backupCatalog = new BackupCatalog(inputPath);
+            backupCatalog.refresh();
+            RestorePlan restorePlan = backupCatalog.plan(new BSONTimestamp(toTimestamp, Integer.MAX_VALUE));
+            mongoRestoreDirectory.setInputPath(restorePlan.getBaseDump().getFile().getPath());
+            mongoRestoreDirectory.setOplogFiles(restorePlan.getOplogFiles());
+            mongoRestoreDirectory.setOplogStart(restorePlan.getFromTimestamp());
+            mongoRestoreDirectory.setOplogLimit(restorePlan.getToTimestamp());
+            mongoRestoreDirectory.setOplogReplay(true);
+        }
+        else
+        {
+            mongoRestoreDirectory.setInputPath(inputPath);
+            mongoRestoreDirectory.setOplogReplay(oplogReplay);
+        }
         Future<Void> future = executor.submit(mongoRestoreDirectory);
         propagateException(future);
     }
@@ -57,4 +74,9 @@ public class MongoRestore extends AbstractMongoUtility
     {
         this.oplogReplay = oplogReplay;
     }
+
+    public void setToTimestamp(Integer toTimestamp)
+    {
+        this.toTimestamp = toTimestamp;
+    }
 }
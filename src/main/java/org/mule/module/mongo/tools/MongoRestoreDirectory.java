@@ -18,18 +18,25 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.Callable;
 
 import org.apache.commons.lang.Validate;
+import org.bson.types.BSONTimestamp;
 
 public class MongoRestoreDirectory implements Callable<Void>
 {
+    private static final int APPLY_OPS_BATCH_SIZE = 1000;
+
     private MongoClient mongoClient;
     private boolean drop;
     private boolean oplogReplay;
     private String inputPath;
     private String database;
+    private List<File> oplogFiles = new ArrayList<File>();
+    private BSONTimestamp oplogStart;
+    private BSONTimestamp oplogLimit;
 
     public Void call() throws Exception
     {
@@ -79,12 +86,52 @@ public class MongoRestoreDirectory implements Callable<Void>
                 oplogRestores.add(restoreFile);
             }
         }
+        for(File oplogFile : oplogFiles)
+        {
+            oplogRestores.add(new RestoreFile(oplogFile));
+        }
         if(oplogReplay && !oplogRestores.isEmpty())
         {
+            List<DBObject> oplogEntries = new ArrayList<DBObject>();
             for(RestoreFile oplogRestore : oplogRestores)
             {
-                mongoClient.executeComamnd(new BasicDBObject("applyOps", filterOplogForDatabase(oplogRestore).toArray()));
+                oplogEntries.addAll(filterOplogForDatabase(oplogRestore));
             }
+            applyOplog(oplogEntries);
+        }
+    }
+
+    private void applyOplog(List<DBObject> oplogEntries)
+    {
+        // Oplog files may overlap, replay every operation once and in order
+        Collections.sort(oplogEntries, new Comparator<DBObject>()
+        {
+            public int compare(DBObject entry, DBObject otherEntry)
+            {
+                return BackupUtils.compare(getTimestamp(entry), getTimestamp(otherEntry));
+            }
+        });
+
+        List<DBObject> batch = new ArrayList<DBObject>(APPLY_OPS_BATCH_SIZE);
+        BSONTimestamp lastTimestamp = null;
+        for(DBObject oplogEntry : oplogEntries)
+        {
+            BSONTimestamp timestamp = getTimestamp(oplogEntry);
+            if(lastTimestamp != null && BackupUtils.compare(timestamp, lastTimestamp) == 0)
+            {
+                continue;
+            }
+            lastTimestamp = timestamp;
+            batch.add(oplogEntry);
+            if(batch.size() == APPLY_OPS_BATCH_SIZE)
+            {
+                mongoClient.executeComamnd(new BasicDBObject("applyOps", batch.toArray()));
+                batch.clear();
+            }
+        }
+        if(!batch.isEmpty())
+        {
+            mongoClient.executeComamnd(new BasicDBObject("applyOps", batch.toArray()));
         }
     }
 
@@ -95,7 +142,8 @@ public class MongoRestoreDirectory implements Callable<Void>
 
         for(DBObject oplogEntry : oplogEntries)
         {
-            if(((String)oplogEntry.get(BackupConstants.NAMESPACE_FIELD)).startsWith(database + "."))
+            if(((String)oplogEntry.get(BackupConstants.NAMESPACE_FIELD)).startsWith(database + ".")
+               && isInReplayRange(getTimestamp(oplogEntry)))
             {
                 dbOplogEntries.add(oplogEntry);
             }
@@ -104,6 +152,17 @@ public class MongoRestoreDirectory implements Callable<Void>
         return dbOplogEntries;
     }
 
+    private boolean isInReplayRange(BSONTimestamp timestamp)
+    {
+        return (oplogStart == null || BackupUtils.compare(timestamp, oplogStart) >= 0)
+               && (oplogLimit == null || BackupUtils.compare(timestamp, oplogLimit) <= 0);
+    }
+
+    private BSONTimestamp getTimestamp(DBObject oplogEntry)
+    {
+        return (BSONTimestamp) oplogEntry.get(BackupConstants.TIMESTAMP_FIELD);
+    }
+
     private void processRestoreFiles(File input, List<RestoreFile> restoreFiles) throws IOException
     {
         if(ZipUtils.isZipFile(input))
@@ -164,4 +223,18 @@ public class MongoRestoreDirectory implements Callable<Void>
         this.database = database;
     }
 
+    public void setOplogFiles(List<File> oplogFiles)
+    {
+        this.oplogFiles.addAll(oplogFiles);
+    }
+
+    public void setOplogStart(BSONTimestamp oplogStart)
+    {
+        this.oplogStart = oplogStart;
+    }
+
+    public void setOplogLimit(BSONTimestamp oplogLimit)
+    {
+        this.oplogLimit = oplogLimit;
+    }
 }
@@ -0,0 +1,206 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import org.apache.commons.lang.Validate;
+import org.bson.types.BSONTimestamp;
+import org.mule.module.mongo.api.QueryCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tails the oplog of the replica set and invalidates the cached results of every
+ * collection of the database as soon as it is written, whichever client wrote it.
+ * <p/>
+ * Every cached result is invalidated once tailing starts, as results cached before may
+ * already be stale. If tailing fails, every cached result is invalidated, as writes may
+ * have been missed, and tailing resumes after a delay from the last entry seen, or from
+ * the end of the oplog invalidating everything again if that entry is no longer in it. A
+ * cursor that dies without returning any entry is queried again after the same delay.
+ */
+public class OplogCacheInvalidator implements Runnable
+{
+    private static final Logger logger = LoggerFactory.getLogger(OplogCacheInvalidator.class);
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final String COMMAND_COLLECTION = "$cmd";
+
+    private OplogCollection oplogCollection;
+    private String database;
+    private QueryCache queryCache;
+    private volatile boolean running;
+    private BSONTimestamp lastTimestamp;
+    private Thread thread;
+
+    public OplogCacheInvalidator(DB admin, DB local, String database, QueryCache queryCache)
+    {
+        Validate.notNull(database);
+        Validate.notNull(queryCache);
+        this.oplogCollection = new OplogCollection(admin, local);
+        this.database = database;
+        this.queryCache = queryCache;
+    }
+
+    public synchronized void start()
+    {
+        if(thread != null)
+        {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "mongo-oplog-cache-invalidator-" + database);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop()
+    {
+        running = false;
+        if(thread != null)
+        {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public void run()
+    {
+        while(running)
+        {
+            try
+            {
+                tail();
+            }
+            catch(Exception e)
+            {
+                if(!running)
+                {
+                    return;
+                }
+                logger.warn("Could not tail the oplog to invalidate cached results of " + database + ", retrying", e);
+                queryCache.invalidateAll();
+                try
+                {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                }
+                catch(InterruptedException ie)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void tail() throws Exception
+    {
+        DBCollection oplog = oplogCollection.getOplogCollection();
+        if(lastTimestamp != null)
+        {
+            BSONTimestamp firstTimestamp = getBoundaryTimestamp(oplog, 1);
+            if(firstTimestamp != null && BackupUtils.compare(lastTimestamp, firstTimestamp) < 0)
+            {
+                logger.warn("The last oplog entry seen for {} is no longer in the oplog, invalidating every cached result", database);
+                lastTimestamp = null;
+            }
+        }
+        if(lastTimestamp == null)
+        {
+            // Writes before the resume point are never seen, so nothing cached until then can be trusted
+            lastTimestamp = getBoundaryTimestamp(oplog, -1);
+            queryCache.invalidateAll();
+        }
+
+        DBObject query = new OplogFilter(database).toQuery();
+        if(lastTimestamp != null)
+        {
+            query.put(BackupConstants.TIMESTAMP_FIELD, new BasicDBObject("$gt", lastTimestamp));
+        }
+        DBCursor cursor = oplog.find(query)
+            .addOption(Bytes.QUERYOPTION_TAILABLE)
+            .addOption(Bytes.QUERYOPTION_AWAITDATA)
+            .addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+        boolean found = false;
+        try
+        {
+            while(running)
+            {
+                if(cursor.hasNext())
+                {
+                    DBObject entry = cursor.next();
+                    lastTimestamp = (BSONTimestamp) entry.get(BackupConstants.TIMESTAMP_FIELD);
+                    invalidate(entry);
+                    found = true;
+                }
+                else if(cursor.getCursorId() == 0)
+                {
+                    // The cursor died, query again from the last entry seen. A cursor over
+                    // an empty oplog dies right away, so wait before querying it again.
+                    if(!found)
+                    {
+                        Thread.sleep(RETRY_DELAY_MILLIS);
+                    }
+                    return;
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    private BSONTimestamp getBoundaryTimestamp(DBCollection oplog, int naturalOrder)
+    {
+        DBCursor cursor = oplog.find().sort(new BasicDBObject("$natural", naturalOrder)).limit(1);
+        try
+        {
+            return cursor.hasNext() ? (BSONTimestamp) cursor.next().get(BackupConstants.TIMESTAMP_FIELD) : null;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Invalidates the collection an oplog entry writes to, or every collection for
+     * commands other than drops
+     */
+    public void invalidate(DBObject oplogEntry)
+    {
+        String namespace = (String) oplogEntry.get(BackupConstants.NAMESPACE_FIELD);
+        if(namespace == null || !namespace.startsWith(database + "."))
+        {
+            return;
+        }
+        String collection = namespace.substring(database.length() + 1);
+        if(COMMAND_COLLECTION.equals(collection))
+        {
+            String dropped = OplogOperations.getDroppedCollection(oplogEntry);
+            if(dropped != null)
+            {
+                queryCache.invalidate(dropped);
+            }
+            else
+            {
+                queryCache.invalidateAll();
+            }
+        }
+        else
+        {
+            queryCache.invalidate(collection);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Builds the server side query used to select the oplog entries of a database, optionally
+ * restricted to a set of collections and operation types ("i", "u", "d", "c", "n").
+ * When no operation filter is given, noop entries are left out.
+ */
+public class OplogFilter
+{
+    private String database;
+    private List<String> includeCollections = new ArrayList<String>();
+    private List<String> excludeCollections = new ArrayList<String>();
+    private List<String> includeOperations = new ArrayList<String>();
+    private List<String> excludeOperations = new ArrayList<String>();
+
+    public OplogFilter(String database)
+    {
+        Validate.notNull(database);
+        this.database = database;
+    }
+
+    public DBObject toQuery()
+    {
+        DBObject query = new BasicDBObject();
+        query.put(BackupConstants.NAMESPACE_FIELD, namespaceCondition());
+        query.put(BackupConstants.OPERATION_FIELD, operationCondition());
+        return query;
+    }
+
+    private DBObject namespaceCondition()
+    {
+        BasicDBObject condition = new BasicDBObject();
+        if(!includeCollections.isEmpty())
+        {
+            condition.put("$in", toNamespaces(includeCollections));
+        }
+        else
+        {
+            condition.put("$regex", BackupUtils.getNamespaceRegex(database));
+        }
+        if(!excludeCollections.isEmpty())
+        {
+            condition.put("$nin", toNamespaces(excludeCollections));
+        }
+        return condition;
+    }
+
+    private DBObject operationCondition()
+    {
+        BasicDBObject condition = new BasicDBObject();
+        if(!includeOperations.isEmpty())
+        {
+            condition.put("$in", includeOperations);
+        }
+        if(!excludeOperations.isEmpty())
+        {
+            condition.put("$nin", excludeOperations);
+        }
+        if(condition.isEmpty())
+        {
+            condition.put("$ne", BackupConstants.NOOP_OPERATION);
+        }
+        return condition;
+    }
+
+    private List<String> toNamespaces(List<String> collections)
+    {
+        List<String> namespaces = new ArrayList<String>(collections.size());
+        for(String collection : collections)
+        {
+            namespaces.add(BackupUtils.getNamespace(database, collection));
+        }
+        return namespaces;
+    }
+
+    public String getDatabase()
+    {
+        return database;
+    }
+
+    public void setIncludeCollections(List<String> includeCollections)
+    {
+        replace(this.includeCollections, includeCollections);
+    }
+
+    public void setExcludeCollections(List<String> excludeCollections)
+    {
+        replace(this.excludeCollections, excludeCollections);
+    }
+
+    public void setIncludeOperations(List<String> includeOperations)
+    {
+        replace(this.includeOperations, includeOperations);
+    }
+
+    public void setExcludeOperations(List<String> excludeOperations)
+    {
+        replace(this.excludeOperations, excludeOperations);
+    }
+
+    private static void replace(List<String> target, List<String> values)
+    {
+        target.clear();
+        if(values != null)
+        {
+            target.addAll(values);
+        }
+    }
+}
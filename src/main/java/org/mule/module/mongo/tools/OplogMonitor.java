@@ -0,0 +1,257 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.CommandResult;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.Validate;
+import org.bson.types.BSONTimestamp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically measures the oplog window and churn and compares them with the checkpoint
+ * of the incremental dump, so that a checkpoint about to fall off the capped oplog is
+ * reported before the next incremental dump silently produces a gap.
+ */
+public class OplogMonitor implements OplogMonitorMBean
+{
+    public static final double DEFAULT_WARNING_RATIO = 0.25;
+
+    private static final Logger logger = LoggerFactory.getLogger(OplogMonitor.class);
+    private static final String OBJECT_NAME = "org.mule.module.mongo:type=OplogMonitor,database=";
+
+    private OplogCollection oplogCollection;
+    private String incrementalFilePath;
+    private String database;
+    private double warningRatio = DEFAULT_WARNING_RATIO;
+    private volatile OplogStatus status;
+    private ScheduledExecutorService scheduler;
+    private ObjectName objectName;
+
+    public OplogMonitor(DB admin, DB local, String database, String incrementalFilePath)
+    {
+        Validate.notNull(database);
+        Validate.notNull(incrementalFilePath);
+        this.oplogCollection = new OplogCollection(admin, local);
+        this.database = database;
+        this.incrementalFilePath = incrementalFilePath;
+    }
+
+    public OplogStatus measure() throws IOException
+    {
+        DBCollection oplog = oplogCollection.getOplogCollection();
+        CommandResult stats = oplog.getStats();
+
+        BSONTimestamp checkpoint = IncrementalOplogDump.getLastTimestamp(incrementalFilePath);
+        BSONTimestamp lastTimestamp = getBoundaryTimestamp(oplog, -1);
+        status = new OplogStatus(getBoundaryTimestamp(oplog, 1),
+                                 lastTimestamp,
+                                 getNextDatabaseTimestamp(oplog, checkpoint, lastTimestamp),
+                                 checkpoint,
+                                 getLong(stats, "count"),
+                                 getLong(stats, "size"),
+                                 getLong(stats, "maxSize"),
+                                 warningRatio);
+
+        if(status.getAlert() == OplogStatus.Alert.GAP)
+        {
+            logger.error("Incremental dump checkpoint for {} is no longer in the oplog, the next dump will have a gap", database);
+        }
+        else if(status.getAlert() == OplogStatus.Alert.WARNING)
+        {
+            logger.warn("Incremental dump checkpoint for {} will fall off the oplog in about {} seconds",
+                database, status.getHeadroomSeconds());
+        }
+        return status;
+    }
+
+    /**
+     * @return the oldest entry of the database after the checkpoint, or null if there is
+     *         none, so that a database with no writes since then is not reported as missing
+     *         entries. The oplog is replayed from the checkpoint, so only the entries after it
+     *         are scanned.
+     */
+    private BSONTimestamp getNextDatabaseTimestamp(DBCollection oplog, BSONTimestamp checkpoint, BSONTimestamp lastTimestamp)
+    {
+        if(checkpoint == null || lastTimestamp == null || BackupUtils.compare(lastTimestamp, checkpoint) <= 0)
+        {
+            return null;
+        }
+        BasicDBObject query = new BasicDBObject(BackupConstants.TIMESTAMP_FIELD, new BasicDBObject("$gt", checkpoint))
+            .append(BackupConstants.NAMESPACE_FIELD, new BasicDBObject("$regex", BackupUtils.getNamespaceRegex(database)))
+            .append(BackupConstants.OPERATION_FIELD, new BasicDBObject("$ne", "n"));
+        DBCursor cursor = oplog.find(query).sort(new BasicDBObject("$natural", 1)).limit(1);
+        cursor.addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+        return getFirstTimestamp(cursor);
+    }
+
+    private BSONTimestamp getBoundaryTimestamp(DBCollection oplog, int naturalOrder)
+    {
+        return getFirstTimestamp(oplog.find().sort(new BasicDBObject("$natural", naturalOrder)).limit(1));
+    }
+
+    private BSONTimestamp getFirstTimestamp(DBCursor cursor)
+    {
+        try
+        {
+            return cursor.hasNext() ? (BSONTimestamp) cursor.next().get(BackupConstants.TIMESTAMP_FIELD) : null;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    private long getLong(CommandResult stats, String field)
+    {
+        Object value = stats.get(field);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    /**
+     * Starts measuring every given amount of seconds and registers this monitor in the platform MBean server
+     */
+    public synchronized void start(long intervalSeconds)
+    {
+        Validate.isTrue(intervalSeconds > 0, "intervalSeconds must be greater than zero");
+        if(scheduler != null)
+        {
+            return;
+        }
+        registerMBean();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                refresh();
+            }
+        }, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop()
+    {
+        if(scheduler != null)
+        {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        unregisterMBean();
+    }
+
+    private void registerMBean()
+    {
+        try
+        {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME + ObjectName.quote(database));
+            mBeanServer.registerMBean(this, name);
+            objectName = name;
+        }
+        catch(InstanceAlreadyExistsException e)
+        {
+            logger.debug("An oplog monitor for {} is already registered", database);
+        }
+        catch(JMException e)
+        {
+            logger.warn("Could not register oplog monitor for " + database, e);
+        }
+    }
+
+    private void unregisterMBean()
+    {
+        if(objectName != null)
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            }
+            catch(JMException e)
+            {
+                logger.warn("Could not unregister oplog monitor for " + database, e);
+            }
+            objectName = null;
+        }
+    }
+
+    public void refresh()
+    {
+        try
+        {
+            measure();
+        }
+        catch(Exception e)
+        {
+            logger.warn("Could not measure the oplog window for " + database, e);
+        }
+    }
+
+    public OplogStatus getStatus()
+    {
+        return status;
+    }
+
+    public long getWindowSeconds()
+    {
+        return status != null ? status.getWindowSeconds() : -1;
+    }
+
+    public long getLagSeconds()
+    {
+        return status != null ? status.getLagSeconds() : -1;
+    }
+
+    public long getHeadroomSeconds()
+    {
+        return status != null ? status.getHeadroomSeconds() : -1;
+    }
+
+    public double getEntriesPerSecond()
+    {
+        return status != null ? status.getEntriesPerSecond() : -1;
+    }
+
+    public double getBytesPerHour()
+    {
+        return status != null ? status.getBytesPerHour() : -1;
+    }
+
+    public long getMaxSizeBytes()
+    {
+        return status != null ? status.getMaxSizeBytes() : -1;
+    }
+
+    public String getAlert()
+    {
+        return status != null ? status.getAlert().name() : null;
+    }
+
+    public void setWarningRatio(double warningRatio)
+    {
+        Validate.isTrue(warningRatio >= 0 && warningRatio <= 1, "warningRatio must be between 0 and 1");
+        this.warningRatio = warningRatio;
+    }
+}
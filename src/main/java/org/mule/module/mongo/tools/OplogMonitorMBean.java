@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+/**
+ * JMX view of the last {@link OplogStatus} measured by an {@link OplogMonitor}
+ */
+public interface OplogMonitorMBean
+{
+    long getWindowSeconds();
+
+    long getLagSeconds();
+
+    long getHeadroomSeconds();
+
+    double getEntriesPerSecond();
+
+    double getBytesPerHour();
+
+    long getMaxSizeBytes();
+
+    String getAlert();
+
+    void refresh();
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies oplog entries to documents held in memory, keyed by their _id. Only the
+ * idempotent forms the server writes to the oplog are supported: inserts, deletes,
+ * whole document replacements and $set/$unset updates.
+ */
+public final class OplogOperations
+{
+    public static final String INSERT = "i";
+    public static final String UPDATE = "u";
+    public static final String DELETE = "d";
+    public static final String COMMAND = "c";
+
+    private static final String OBJECT_FIELD = "o";
+    private static final String QUERY_FIELD = "o2";
+    private static final String ID_FIELD = "_id";
+
+    private OplogOperations()
+    {
+    }
+
+    public static void apply(Map<Object, DBObject> documents, DBObject oplogEntry) throws IOException
+    {
+        String operation = (String) oplogEntry.get(BackupConstants.OPERATION_FIELD);
+        DBObject object = (DBObject) oplogEntry.get(OBJECT_FIELD);
+
+        if(INSERT.equals(operation))
+        {
+            documents.put(getKey(object), object);
+        }
+        else if(DELETE.equals(operation))
+        {
+            documents.remove(getKey(object));
+        }
+        else if(UPDATE.equals(operation))
+        {
+            DBObject query = (DBObject) oplogEntry.get(QUERY_FIELD);
+            Object key = getKey(query);
+            DBObject document = documents.get(key);
+            if(isModifier(object))
+            {
+                if(document == null)
+                {
+                    // Upsert through a modifier: the query holds the _id of the new document
+                    document = new BasicDBObject(ID_FIELD, query.get(ID_FIELD));
+                }
+                applyModifier(document, object);
+            }
+            else
+            {
+                document = object;
+                if(!document.containsField(ID_FIELD))
+                {
+                    document.put(ID_FIELD, query.get(ID_FIELD));
+                }
+            }
+            documents.put(key, document);
+        }
+        else if(!BackupConstants.NOOP_OPERATION.equals(operation) && !COMMAND.equals(operation))
+        {
+            throw new IOException("Unsupported oplog operation " + operation);
+        }
+    }
+
+    /**
+     * @return the collection a drop command in the oplog refers to, or null if the entry is not a drop
+     */
+    public static String getDroppedCollection(DBObject oplogEntry)
+    {
+        if(!COMMAND.equals(oplogEntry.get(BackupConstants.OPERATION_FIELD)))
+        {
+            return null;
+        }
+        return (String) ((DBObject) oplogEntry.get(OBJECT_FIELD)).get("drop");
+    }
+
+    /**
+     * @return the key of the document the oplog entry changes, or null if it changes none
+     */
+    public static Object getTargetKey(DBObject oplogEntry) throws IOException
+    {
+        String operation = (String) oplogEntry.get(BackupConstants.OPERATION_FIELD);
+        if(INSERT.equals(operation) || DELETE.equals(operation))
+        {
+            return getKey((DBObject) oplogEntry.get(OBJECT_FIELD));
+        }
+        if(UPDATE.equals(operation))
+        {
+            return getKey((DBObject) oplogEntry.get(QUERY_FIELD));
+        }
+        if(!BackupConstants.NOOP_OPERATION.equals(operation) && !COMMAND.equals(operation))
+        {
+            throw new IOException("Unsupported oplog operation " + operation);
+        }
+        return null;
+    }
+
+    public static Object getKey(DBObject document)
+    {
+        Object id = document.get(ID_FIELD);
+        // Documents such as the ones in system.indexes have no _id
+        return id != null ? id : document;
+    }
+
+    private static boolean isModifier(DBObject object)
+    {
+        for(String field : object.keySet())
+        {
+            if(field.startsWith("$"))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void applyModifier(DBObject document, DBObject modifier) throws IOException
+    {
+        for(String operator : modifier.keySet())
+        {
+            DBObject fields = (DBObject) modifier.get(operator);
+            for(String path : fields.keySet())
+            {
+                if("$set".equals(operator))
+                {
+                    setPath(document, path, fields.get(path));
+                }
+                else if("$unset".equals(operator))
+                {
+                    unsetPath(document, path);
+                }
+                else
+                {
+                    throw new IOException("Unsupported update operator " + operator + " in oplog");
+                }
+            }
+        }
+    }
+
+    private static void setPath(DBObject document, String path, Object value)
+    {
+        String[] parts = path.split("\\.");
+        DBObject current = document;
+        for(int i = 0; i < parts.length - 1; i++)
+        {
+            Object child = getChild(current, parts[i]);
+            if(!(child instanceof DBObject))
+            {
+                child = new BasicDBObject();
+                putChild(current, parts[i], child);
+            }
+            current = (DBObject) child;
+        }
+        putChild(current, parts[parts.length - 1], value);
+    }
+
+    private static void unsetPath(DBObject document, String path)
+    {
+        String[] parts = path.split("\\.");
+        DBObject current = document;
+        for(int i = 0; i < parts.length - 1; i++)
+        {
+            Object child = getChild(current, parts[i]);
+            if(!(child instanceof DBObject))
+            {
+                return;
+            }
+            current = (DBObject) child;
+        }
+        current.removeField(parts[parts.length - 1]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object getChild(DBObject parent, String field)
+    {
+        if(parent instanceof List<?>)
+        {
+            List<Object> list = (List<Object>) parent;
+            int index = Integer.parseInt(field);
+            return index < list.size() ? list.get(index) : null;
+        }
+        return parent.get(field);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void putChild(DBObject parent, String field, Object value)
+    {
+        if(parent instanceof List<?>)
+        {
+            List<Object> list = (List<Object>) parent;
+            int index = Integer.parseInt(field);
+            while(list.size() <= index)
+            {
+                list.add(null);
+            }
+            list.set(index, value);
+        }
+        else
+        {
+            parent.put(field, value);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Reading stage of the incremental oplog dump: pulls entries from the oplog cursor and hands them over to the
+ * writing stage through a bounded queue, so that cursor round trips and disk writes overlap.
+ */
+public class OplogReader implements Callable<Void>
+{
+    /**
+     * Marker put on the queue once the cursor is exhausted or has failed
+     */
+    public static final DBObject END_OF_OPLOG = new BasicDBObject();
+
+    private DBCursor oplogCursor;
+    private BlockingQueue<DBObject> queue;
+
+    public OplogReader(DBCursor oplogCursor, BlockingQueue<DBObject> queue)
+    {
+        this.oplogCursor = oplogCursor;
+        this.queue = queue;
+    }
+
+    public Void call() throws Exception
+    {
+        try
+        {
+            while(oplogCursor.hasNext())
+            {
+                queue.put(oplogCursor.next());
+            }
+        }
+        finally
+        {
+            try
+            {
+                queue.put(END_OF_OPLOG);
+            }
+            catch(InterruptedException ie)
+            {
+                // The writing stage is already gone
+                Thread.currentThread().interrupt();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bson.types.BSONTimestamp;
+
+/**
+ * Snapshot of the oplog time window compared with the last incremental dump checkpoint
+ */
+public class OplogStatus
+{
+    public enum Alert
+    {
+        /** The checkpoint is comfortably inside the oplog window */
+        OK,
+        /** No incremental dump has run yet */
+        NO_CHECKPOINT,
+        /** The checkpoint is close to the oldest entry of the oplog */
+        WARNING,
+        /**
+         * The checkpoint is older than the oldest entry while the database kept changing: the next
+         * incremental dump will have a gap
+         */
+        GAP
+    }
+
+    private BSONTimestamp firstTimestamp;
+    private BSONTimestamp lastTimestamp;
+    private BSONTimestamp checkpointTimestamp;
+    private BSONTimestamp nextDatabaseTimestamp;
+    private long entries;
+    private long sizeBytes;
+    private long maxSizeBytes;
+    private Alert alert;
+
+    public OplogStatus(BSONTimestamp firstTimestamp,
+                       BSONTimestamp lastTimestamp,
+                       BSONTimestamp checkpointTimestamp,
+                       long entries,
+                       long sizeBytes,
+                       long maxSizeBytes,
+                       double warningRatio)
+    {
+        this(firstTimestamp, lastTimestamp, lastTimestamp, checkpointTimestamp, entries, sizeBytes, maxSizeBytes,
+            warningRatio);
+    }
+
+    /**
+     * @param nextDatabaseTimestamp the oldest oplog entry of the dumped database after the
+     *            checkpoint, or null if the oplog holds none
+     */
+    public OplogStatus(BSONTimestamp firstTimestamp,
+                       BSONTimestamp lastTimestamp,
+                       BSONTimestamp nextDatabaseTimestamp,
+                       BSONTimestamp checkpointTimestamp,
+                       long entries,
+                       long sizeBytes,
+                       long maxSizeBytes,
+                       double warningRatio)
+    {
+        this.firstTimestamp = firstTimestamp;
+        this.nextDatabaseTimestamp = nextDatabaseTimestamp;
+        this.lastTimestamp = lastTimestamp;
+        this.checkpointTimestamp = checkpointTimestamp;
+        this.entries = entries;
+        this.sizeBytes = sizeBytes;
+        this.maxSizeBytes = maxSizeBytes;
+        this.alert = computeAlert(warningRatio);
+    }
+
+    private Alert computeAlert(double warningRatio)
+    {
+        if(checkpointTimestamp == null)
+        {
+            return Alert.NO_CHECKPOINT;
+        }
+        if(nextDatabaseTimestamp == null || BackupUtils.compare(checkpointTimestamp, nextDatabaseTimestamp) >= 0)
+        {
+            // Nothing of the database happened after the checkpoint, so nothing can be missed
+            return Alert.OK;
+        }
+        if(firstTimestamp != null && BackupUtils.compare(checkpointTimestamp, firstTimestamp) < 0)
+        {
+            return Alert.GAP;
+        }
+        if(getHeadroomSeconds() < getWindowSeconds() * warningRatio)
+        {
+            return Alert.WARNING;
+        }
+        return Alert.OK;
+    }
+
+    /**
+     * @return seconds between the oldest and the newest oplog entries
+     */
+    public long getWindowSeconds()
+    {
+        if(firstTimestamp == null || lastTimestamp == null)
+        {
+            return 0;
+        }
+        return lastTimestamp.getTime() - firstTimestamp.getTime();
+    }
+
+    /**
+     * @return average oplog entries written per second over the current window
+     */
+    public double getEntriesPerSecond()
+    {
+        long window = getWindowSeconds();
+        return window > 0 ? (double) entries / window : 0;
+    }
+
+    /**
+     * @return average oplog bytes written per hour over the current window
+     */
+    public double getBytesPerHour()
+    {
+        long window = getWindowSeconds();
+        return window > 0 ? (double) sizeBytes * 3600 / window : 0;
+    }
+
+    /**
+     * @return seconds the last incremental dump is behind the newest oplog entry
+     */
+    public long getLagSeconds()
+    {
+        if(checkpointTimestamp == null || lastTimestamp == null)
+        {
+            return -1;
+        }
+        return lastTimestamp.getTime() - checkpointTimestamp.getTime();
+    }
+
+    /**
+     * @return seconds left, at the current churn, before the checkpoint falls off the oplog
+     */
+    public long getHeadroomSeconds()
+    {
+        if(checkpointTimestamp == null || firstTimestamp == null)
+        {
+            return -1;
+        }
+        return checkpointTimestamp.getTime() - firstTimestamp.getTime();
+    }
+
+    public BSONTimestamp getFirstTimestamp()
+    {
+        return firstTimestamp;
+    }
+
+    public BSONTimestamp getLastTimestamp()
+    {
+        return lastTimestamp;
+    }
+
+    public BSONTimestamp getNextDatabaseTimestamp()
+    {
+        return nextDatabaseTimestamp;
+    }
+
+    public BSONTimestamp getCheckpointTimestamp()
+    {
+        return checkpointTimestamp;
+    }
+
+    public long getEntries()
+    {
+        return entries;
+    }
+
+    public long getSizeBytes()
+    {
+        return sizeBytes;
+    }
+
+    public long getMaxSizeBytes()
+    {
+        return maxSizeBytes;
+    }
+
+    public Alert getAlert()
+    {
+        return alert;
+    }
+
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("firstTimestamp", firstTimestamp);
+        map.put("lastTimestamp", lastTimestamp);
+        map.put("nextDatabaseTimestamp", nextDatabaseTimestamp);
+        map.put("checkpointTimestamp", checkpointTimestamp);
+        map.put("windowSeconds", getWindowSeconds());
+        map.put("lagSeconds", getLagSeconds());
+        map.put("headroomSeconds", getHeadroomSeconds());
+        map.put("entries", entries);
+        map.put("entriesPerSecond", getEntriesPerSecond());
+        map.put("bytesPerHour", getBytesPerHour());
+        map.put("sizeBytes", sizeBytes);
+        map.put("maxSizeBytes", maxSizeBytes);
+        map.put("alert", alert.name());
+        return map;
+    }
+}
@@ -17,6 +17,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,29 +38,61 @@ public class RestoreFile implements Comparable<RestoreFile>
 
     public List<DBObject> getCollectionObjects() throws IOException
     {
-        BSONDecoder bsonDecoder = new DefaultDBDecoder();
-        BufferedInputStream inputStream = null;
         List<DBObject> dbObjects = new ArrayList<DBObject>();
-
+        ObjectReader reader = openObjectReader();
         try
         {
-            inputStream = new BufferedInputStream(new FileInputStream(file));
+            DBObject dbObject;
+            while((dbObject = reader.next()) != null)
+            {
+                dbObjects.add(dbObject);
+            }
+            return dbObjects;
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return a reader that decodes the objects of the file one at a time, for files too
+     *         large to be held in memory
+     */
+    public ObjectReader openObjectReader() throws IOException
+    {
+        return new ObjectReader(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    public static class ObjectReader
+    {
+        private BSONDecoder bsonDecoder = new DefaultDBDecoder();
+        private InputStream inputStream;
+
+        private ObjectReader(InputStream inputStream)
+        {
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * @return the next object of the file, or null at its end
+         */
+        public DBObject next() throws IOException
+        {
             while(inputStream.available() != 0)
             {
                 BSONObject bsonObject = bsonDecoder.readObject(inputStream);
                 if(bsonObject != null)
                 {
-                    dbObjects.add(new BasicDBObject((BasicBSONObject) bsonObject));
+                    return new BasicDBObject((BasicBSONObject) bsonObject);
                 }
             }
-            return dbObjects;
+            return null;
         }
-        finally
+
+        public void close() throws IOException
         {
-            if(inputStream != null)
-            {
-                inputStream.close();
-            }
+            inputStream.close();
         }
     }
 
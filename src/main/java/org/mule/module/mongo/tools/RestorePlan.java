@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.BSONTimestamp;
+
+/**
+ * The base dump and oplog segments needed to restore a database up to a given timestamp
+ */
+public class RestorePlan
+{
+    private BackupCatalogEntry baseDump;
+    private List<BackupCatalogEntry> oplogSegments;
+    private BSONTimestamp toTimestamp;
+
+    public RestorePlan(BackupCatalogEntry baseDump, List<BackupCatalogEntry> oplogSegments, BSONTimestamp toTimestamp)
+    {
+        this.baseDump = baseDump;
+        this.oplogSegments = oplogSegments;
+        this.toTimestamp = toTimestamp;
+    }
+
+    public BackupCatalogEntry getBaseDump()
+    {
+        return baseDump;
+    }
+
+    public List<File> getOplogFiles()
+    {
+        List<File> oplogFiles = new ArrayList<File>();
+        for(BackupCatalogEntry oplogSegment : oplogSegments)
+        {
+            oplogFiles.add(oplogSegment.getFile());
+        }
+        return oplogFiles;
+    }
+
+    /**
+     * @return the timestamp oplog replay starts from, as the dump data may be older than its consistency point
+     */
+    public BSONTimestamp getFromTimestamp()
+    {
+        return baseDump.getStart();
+    }
+
+    public BSONTimestamp getToTimestamp()
+    {
+        return toTimestamp;
+    }
+}
@@ -12,23 +12,54 @@
 
 package org.mule.module.mongo;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.refEq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mule.module.mongo.api.IndexOrder;
+import org.mule.module.mongo.api.IndexSpec;
+import org.mule.module.mongo.api.MapReduceOptions;
+import org.mule.module.mongo.api.MapReduceOutputMode;
 import org.mule.module.mongo.api.MongoClient;
 import org.mule.module.mongo.api.MongoClientImpl;
+import org.mule.module.mongo.api.QueryCache;
+import org.mule.module.mongo.api.QueryOptions;
+import org.mule.module.mongo.api.UpdateSpec;
+import org.mule.module.mongo.api.WriteBehindBuffer;
+import org.mule.module.mongo.api.WriteBehindPolicy;
 import org.mule.module.mongo.api.WriteConcern;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.MapReduceCommand;
+import com.mongodb.MapReduceOutput;
+import com.mongodb.Mongo;
 import com.mongodb.MongoException;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSDBFile;
@@ -61,6 +92,9 @@ public class MongoTestCase
         };
         collectionMock = mock(DBCollection.class);
         when(dbMock.getCollection(A_COLLECTION)).thenReturn(collectionMock);
+        Mongo mongoMock = mock(Mongo.class);
+        when(dbMock.getMongo()).thenReturn(mongoMock);
+        when(mongoMock.getMaxBsonObjectSize()).thenReturn(16 * 1024 * 1024);
     }
 
     /** Test {@link MongoClient#listCollections()} */
@@ -108,6 +142,34 @@ public class MongoTestCase
         verify(collectionMock).insert(dbObject, com.mongodb.WriteConcern.NONE);
     }
 
+    /**
+     * Test
+     * {@link MongoClient#insertObjects(String, Iterable, int, boolean, org.mule.module.mongo.api.WriteConcern)}
+     */
+    @Test
+    public void insertObjects() throws Exception
+    {
+        List<DBObject> objects = Arrays.<DBObject> asList(new BasicDBObject("a", 1), new BasicDBObject("a", 2),
+            new BasicDBObject("a", 3));
+        List<DBObject> results = client.insertObjects(A_COLLECTION, objects, 2, true, WriteConcern.SAFE);
+        assertEquals(2, results.size());
+        assertEquals(2, results.get(0).get("count"));
+        assertEquals(1, results.get(1).get("count"));
+        verify(collectionMock, times(2)).insert(anyListOf(DBObject.class), any(com.mongodb.WriteConcern.class));
+    }
+
+    /** Test {@link MongoClient#insertObjects} leaving the ids out of a batch that failed */
+    @Test
+    public void failedInsertBatchHasNoIds() throws Exception
+    {
+        List<DBObject> objects = Arrays.<DBObject> asList(new BasicDBObject("_id", 1), new BasicDBObject("_id", 2));
+        when(collectionMock.insert(anyListOf(DBObject.class), any(com.mongodb.WriteConcern.class)))
+            .thenThrow(new MongoException("E11000 duplicate key error"));
+        List<DBObject> results = client.insertObjects(A_COLLECTION, objects, 2, true, WriteConcern.SAFE);
+        assertEquals(false, results.get(0).get("ok"));
+        assertFalse(results.get(0).containsField("ids"));
+    }
+
     @Test
     public void removeObjects() throws Exception
     {
@@ -146,6 +208,283 @@ public class MongoTestCase
         verify(collectionMock).update(query, dbObject, false, true, com.mongodb.WriteConcern.SAFE);
     }
 
+    /**
+     * Test
+     * {@link MongoClient#updateObjectsInBulk(String, Iterable, int, org.mule.module.mongo.api.WriteConcern)}
+     */
+    @Test
+    public void updateObjectsInBulk() throws Exception
+    {
+        DBObject query = new BasicDBObject("_id", 1);
+        DBObject dbObject = new BasicDBObject("$set", new BasicDBObject("a", 1));
+        when(dbMock.getLastError(com.mongodb.WriteConcern.SAFE)).thenReturn(mock(CommandResult.class));
+        List<DBObject> results = client.updateObjectsInBulk(A_COLLECTION,
+            Arrays.asList(UpdateSpec.from(query, dbObject, true, false), UpdateSpec.from(query, dbObject, false, false)),
+            10, WriteConcern.SAFE);
+        assertEquals(1, results.size());
+        assertEquals(true, results.get(0).get("ok"));
+        // Only the last update of the batch is acknowledged
+        assertEquals(1, results.get(0).get("unverified"));
+        verify(collectionMock).update(query, dbObject, true, false, com.mongodb.WriteConcern.NORMAL);
+        verify(collectionMock).update(query, dbObject, false, false, com.mongodb.WriteConcern.NORMAL);
+        verify(dbMock).getLastError(com.mongodb.WriteConcern.SAFE);
+        // The updates and their acknowledgement share a single connection
+        verify(dbMock).requestStart();
+        verify(dbMock).requestDone();
+    }
+
+    /** Test {@link MongoClientImpl} buffering writes through a {@link WriteBehindBuffer} */
+    @Test
+    public void writeBehind() throws Exception
+    {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(dbMock, 10, 60000, WriteConcern.SAFE,
+            WriteBehindPolicy.IMMEDIATE);
+        MongoClient writeBehindClient = new MongoClientImpl(dbMock, buffer, null, null, null, null);
+        DBObject first = new BasicDBObject("_id", 1).append("a", 1);
+        DBObject second = new BasicDBObject("_id", 1).append("a", 2);
+        DBObject inserted = new BasicDBObject("b", 1);
+        when(dbMock.getLastError(com.mongodb.WriteConcern.SAFE)).thenReturn(mock(CommandResult.class));
+
+        writeBehindClient.saveObject(A_COLLECTION, first, WriteConcern.NONE);
+        writeBehindClient.saveObject(A_COLLECTION, second, WriteConcern.NONE);
+        assertNotNull(writeBehindClient.insertObject(A_COLLECTION, inserted, WriteConcern.NONE));
+        verify(collectionMock, never()).save(second, com.mongodb.WriteConcern.NORMAL);
+
+        buffer.close();
+        verify(collectionMock).insert(Arrays.asList(inserted), com.mongodb.WriteConcern.SAFE);
+        verify(collectionMock, never()).save(first, com.mongodb.WriteConcern.NORMAL);
+        verify(collectionMock).save(second, com.mongodb.WriteConcern.NORMAL);
+        verify(dbMock).getLastError(com.mongodb.WriteConcern.SAFE);
+    }
+
+    /** Test {@link MongoClientImpl} sending buffered writes before updating the collection */
+    @Test
+    public void writeBehindIsFlushedBeforeUpdates() throws Exception
+    {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(dbMock, 10, 60000, WriteConcern.SAFE,
+            WriteBehindPolicy.IMMEDIATE);
+        MongoClient writeBehindClient = new MongoClientImpl(dbMock, buffer, null, null, null, null);
+        DBObject inserted = new BasicDBObject("a", 1);
+        DBObject query = new BasicDBObject("a", 1);
+        DBObject update = new BasicDBObject("$set", new BasicDBObject("b", 1));
+
+        writeBehindClient.insertObject(A_COLLECTION, inserted, WriteConcern.NONE);
+        writeBehindClient.updateObjects(A_COLLECTION, query, update, false, true, WriteConcern.NONE);
+
+        InOrder inOrder = inOrder(collectionMock);
+        inOrder.verify(collectionMock).insert(Arrays.asList(inserted), com.mongodb.WriteConcern.SAFE);
+        inOrder.verify(collectionMock).update(eq(query), eq(update), eq(false), eq(true),
+            any(com.mongodb.WriteConcern.class));
+        buffer.close();
+    }
+
+    @Test
+    public void writeBehindIsFlushedBeforeReadingDeltaBase() throws Exception
+    {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(dbMock, 10, 60000, WriteConcern.NONE,
+            WriteBehindPolicy.IMMEDIATE);
+        MongoClient writeBehindClient = new MongoClientImpl(dbMock, buffer, null, null, null, null);
+        DBObject saved = new BasicDBObject("_id", 1).append("name", "foo").append("extra", 1);
+        when(collectionMock.findOne(new BasicDBObject("_id", 1))).thenReturn(saved);
+
+        writeBehindClient.saveObject(A_COLLECTION, saved, WriteConcern.NONE);
+        writeBehindClient.updateObjectDelta(A_COLLECTION, null, new BasicDBObject("_id", 1).append("name", "foo"),
+            null, WriteConcern.NONE);
+
+        InOrder inOrder = inOrder(collectionMock);
+        inOrder.verify(collectionMock).save(saved, com.mongodb.WriteConcern.NORMAL);
+        inOrder.verify(collectionMock).findOne(new BasicDBObject("_id", 1));
+        inOrder.verify(collectionMock).update(eq(new BasicDBObject("_id", 1)),
+            eq(new BasicDBObject("$unset", new BasicDBObject("extra", 1))), eq(false), eq(false),
+            any(com.mongodb.WriteConcern.class));
+        buffer.close();
+    }
+
+    /** Test {@link MongoClient#findObjects(String, DBObject, List, Integer, Integer, QueryOptions)} */
+    @Test
+    public void findObjectsWithOptions() throws Exception
+    {
+        DBObject query = new BasicDBObject("a", 1);
+        DBObject sort = new BasicDBObject("b", -1);
+        DBCursor cursorMock = mock(DBCursor.class);
+        when(collectionMock.find(eq(query), any(DBObject.class))).thenReturn(cursorMock);
+        when(cursorMock.sort(sort)).thenReturn(cursorMock);
+        when(cursorMock.hint("a_1")).thenReturn(cursorMock);
+        when(cursorMock.batchSize(50)).thenReturn(cursorMock);
+        when(cursorMock.addSpecial("$maxScan", 1000)).thenReturn(cursorMock);
+        when(cursorMock.limit(10)).thenReturn(cursorMock);
+
+        QueryOptions options = new QueryOptions();
+        options.setSort(sort);
+        options.setHintIndex("a_1");
+        options.setBatchSize(50);
+        options.setMaxScan(1000);
+        client.findObjects(A_COLLECTION, query, null, null, 10, options);
+
+        verify(cursorMock).sort(sort);
+        verify(cursorMock).hint("a_1");
+        verify(cursorMock).batchSize(50);
+        verify(cursorMock).addSpecial("$maxScan", 1000);
+        verify(cursorMock).limit(10);
+        // Results are fetched lazily
+        verify(cursorMock, never()).hasNext();
+    }
+
+    /** Test {@link MongoClientImpl} caching bounded results of queries with cursor options */
+    @Test
+    public void findObjectsWithOptionsAreCached() throws Exception
+    {
+        MongoClient cachingClient = new MongoClientImpl(dbMock, null, new QueryCache(10, 60000), null, null, null);
+        DBObject query = new BasicDBObject("a", 1);
+        DBObject sort = new BasicDBObject("b", -1);
+        DBCursor cursorMock = mock(DBCursor.class);
+        when(collectionMock.find(eq(query), any(DBObject.class))).thenReturn(cursorMock);
+        when(cursorMock.sort(sort)).thenReturn(cursorMock);
+        when(cursorMock.limit(10)).thenReturn(cursorMock);
+        when(cursorMock.iterator()).thenReturn(Collections.<DBObject> emptyList().iterator());
+
+        QueryOptions options = new QueryOptions();
+        options.setSort(sort);
+        cachingClient.findObjects(A_COLLECTION, query, null, null, 10, options);
+        cachingClient.findObjects(A_COLLECTION, query, null, null, 10, options);
+
+        verify(collectionMock, times(1)).find(eq(query), any(DBObject.class));
+    }
+
+    /** Test {@link MongoClientImpl} invalidating the cache of other clients without caching results */
+    @Test
+    public void writesInvalidateTheSharedCache() throws Exception
+    {
+        QueryCache sharedCache = new QueryCache(10, 60000);
+        sharedCache.put(A_COLLECTION, "key", 0, new BasicDBObject("a", 1));
+        MongoClient nonCachingClient = new MongoClientImpl(dbMock, null, null, sharedCache, null, null, null);
+
+        nonCachingClient.removeObjects(A_COLLECTION, new BasicDBObject("a", 1), WriteConcern.NONE);
+
+        assertNull(sharedCache.get(A_COLLECTION, "key"));
+    }
+
+    @Test
+    public void findObjectsByIds() throws Exception
+    {
+        DBCursor firstChunk = mock(DBCursor.class);
+        DBCursor secondChunk = mock(DBCursor.class);
+        when(collectionMock.find(eq(new BasicDBObject("_id", new BasicDBObject("$in", Arrays.asList(1, 2)))),
+            any(DBObject.class))).thenReturn(firstChunk);
+        when(collectionMock.find(eq(new BasicDBObject("_id", new BasicDBObject("$in", Arrays.asList(3)))),
+            any(DBObject.class))).thenReturn(secondChunk);
+        when(firstChunk.hasNext()).thenReturn(true, true, false);
+        when(firstChunk.next()).thenReturn(new BasicDBObject("_id", 2), new BasicDBObject("_id", 1));
+        when(secondChunk.hasNext()).thenReturn(false);
+
+        List<DBObject> objects = client.findObjectsByIds(A_COLLECTION, null, Arrays.asList(3, 1, 2, 1), null, 2, null);
+
+        assertEquals(Arrays.asList(null, new BasicDBObject("_id", 1), new BasicDBObject("_id", 2),
+            new BasicDBObject("_id", 1)), objects);
+    }
+
+    @Test
+    public void findObjectsByIdsMatchesNumbersByValueAndArrayElements() throws Exception
+    {
+        DBCursor cursorMock = mock(DBCursor.class);
+        when(collectionMock.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursorMock);
+        DBObject tagged = new BasicDBObject("_id", 1).append("tags", Arrays.asList(2, 3.0));
+        when(cursorMock.hasNext()).thenReturn(true, false);
+        when(cursorMock.next()).thenReturn(tagged);
+
+        List<DBObject> objects = client.findObjectsByIds(A_COLLECTION, "tags", Arrays.asList(3L, 2, 4), null, 10,
+            null);
+
+        assertEquals(Arrays.asList(tagged, tagged, null), objects);
+    }
+
+    @Test
+    public void aggregate() throws Exception
+    {
+        List<DBObject> pipeline = Arrays.<DBObject> asList(new BasicDBObject("$group",
+            new BasicDBObject("_id", "$station").append("average", new BasicDBObject("$avg", "$temperature"))));
+        CommandResult result = mock(CommandResult.class);
+        BasicDBList objects = new BasicDBList();
+        objects.add(new BasicDBObject("_id", "KJFK").append("average", 12.5));
+        when(result.get("result")).thenReturn(objects);
+        when(dbMock.command(new BasicDBObject("aggregate", A_COLLECTION).append("pipeline", pipeline))).thenReturn(result);
+
+        Iterator<DBObject> iterator = client.aggregate(A_COLLECTION, pipeline, null).iterator();
+
+        assertEquals(new BasicDBObject("_id", "KJFK").append("average", 12.5), iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void aggregateToOutputCollection() throws Exception
+    {
+        DBObject match = new BasicDBObject("$match", new BasicDBObject("station", "KJFK"));
+        when(dbMock.command(any(DBObject.class))).thenReturn(mock(CommandResult.class));
+        DBCollection outputMock = mock(DBCollection.class);
+        when(dbMock.getCollection("stats")).thenReturn(outputMock);
+
+        client.aggregate(A_COLLECTION, Arrays.asList(match), "stats");
+
+        verify(dbMock).command(new BasicDBObject("aggregate", A_COLLECTION).append("pipeline",
+            Arrays.asList(match, new BasicDBObject("$out", "stats"))));
+        verify(outputMock).find();
+    }
+
+    @Test
+    public void incrementalMapReduce() throws Exception
+    {
+        MapReduceOutput output = mock(MapReduceOutput.class);
+        when(collectionMock.mapReduce(any(MapReduceCommand.class))).thenReturn(output);
+        DBObject query = new BasicDBObject("ts", new BasicDBObject("$gt", 100));
+        MapReduceOptions options = new MapReduceOptions();
+        options.setQuery(query);
+        options.setFinalizeFunction("function(key, value) { return value; }");
+        options.setOutputMode(MapReduceOutputMode.REDUCE);
+
+        client.mapReduceObjects(A_COLLECTION, "function() {}", "function(key, values) {}", "stats", options);
+
+        ArgumentCaptor<MapReduceCommand> command = ArgumentCaptor.forClass(MapReduceCommand.class);
+        verify(collectionMock).mapReduce(command.capture());
+        DBObject commandObject = command.getValue().toDBObject();
+        assertEquals(query, commandObject.get("query"));
+        assertEquals("function(key, value) { return value; }", commandObject.get("finalize"));
+        assertEquals(new BasicDBObject("reduce", "stats"), commandObject.get("out"));
+    }
+
+    @Test
+    public void updateObjectDeltaSkipsUnchangedObjects() throws Exception
+    {
+        DBObject stored = new BasicDBObject("_id", 1).append("name", "foo");
+        when(collectionMock.findOne(new BasicDBObject("_id", 1))).thenReturn(stored);
+
+        assertFalse(client.updateObjectDelta(A_COLLECTION, null, new BasicDBObject("_id", 1).append("name", "foo"),
+            null, WriteConcern.SAFE));
+        assertTrue(client.updateObjectDelta(A_COLLECTION, null, new BasicDBObject("_id", 1).append("name", "bar"),
+            null, WriteConcern.SAFE));
+        verify(collectionMock, times(1)).update(new BasicDBObject("_id", 1),
+            new BasicDBObject("$set", new BasicDBObject("name", "bar")), false, false, com.mongodb.WriteConcern.SAFE);
+    }
+
+    @Test
+    public void findAndModifyObject() throws Exception
+    {
+        DBObject query = new BasicDBObject("state", "pending");
+        DBObject sort = new BasicDBObject("priority", -1);
+        DBObject update = new BasicDBObject("$set", new BasicDBObject("state", "claimed"));
+        DBObject claimed = new BasicDBObject("_id", 1).append("state", "claimed");
+        when(collectionMock.findAndModify(query, new BasicDBObject("state", 1), sort, false, update, true, false))
+            .thenReturn(claimed);
+
+        assertEquals(claimed, client.findAndModifyObject(A_COLLECTION, query, Arrays.asList("state"), sort, false,
+            update, true, false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findAndModifyObjectNeedsUpdateOrRemove() throws Exception
+    {
+        client.findAndModifyObject(A_COLLECTION, null, null, null, false, null, false, false);
+    }
+
     /** Test {@link MongoClient#createIndex(String, com.mongodb.DBObject)} */
     @Test
     public void createIndex() throws Exception
@@ -154,6 +493,21 @@ public class MongoTestCase
         verify(collectionMock).createIndex(refEq(new BasicDBObject("i", 1)));
     }
 
+    @Test
+    public void ensureIndexIsLeftToTheDriverCache() throws Exception
+    {
+        IndexSpec spec = new IndexSpec(new BasicDBObject("a", 1).append("b", -1));
+        spec.setUnique(true);
+        spec.setBackground(true);
+
+        client.ensureIndex(A_COLLECTION, spec);
+        verify(collectionMock).ensureIndex(new BasicDBObject("a", 1).append("b", -1),
+            new BasicDBObject("unique", true).append("background", true));
+
+        client.dropIndex(A_COLLECTION, "a_1_b_-1");
+        verify(collectionMock).resetIndexCache();
+    }
+
     /** Tests {@link MongoClient#dropIndex(String, String)} */
     @Test
     public void dropIndex() throws Exception
@@ -29,6 +29,7 @@ import org.junit.experimental.theories.Theory;
 import org.junit.runner.RunWith;
 import org.mule.api.lifecycle.InitialisationException;
 import org.mule.module.mongo.api.IndexOrder;
+import org.mule.module.mongo.api.MapReduceOutputMode;
 import org.mule.module.mongo.api.MongoClient;
 import org.mule.module.mongo.api.WriteConcern;
 
@@ -150,7 +151,7 @@ public class MongoTestDriver
 
         assertEquals(1, connector.countObjects(MAIN_COLLECTION, acmeQuery()));
         DBObject employee = connector.findOneObject(MAIN_COLLECTION, acmeQuery(),
-            Arrays.asList("name"));
+            Arrays.asList("name"), null, null, null);
         assertNotNull(employee);
         assertEquals("John", employee.get("name"));
         assertNull(employee.get("company"));
@@ -162,7 +163,7 @@ public class MongoTestDriver
     @Test(expected = MongoException.class)
     public void findOneObjectNotExists() throws Exception
     {
-        connector.findOneObject(MAIN_COLLECTION, acmeQuery(), null);
+        connector.findOneObject(MAIN_COLLECTION, acmeQuery(), null, null, null, null);
     }
 
     /**
@@ -252,7 +253,7 @@ public class MongoTestDriver
         Iterable<DBObject> results = connector.mapReduceObjects(MAIN_COLLECTION,
             "function() { emit(this.candidate, this.votes) }",
             "function(key, values) { return values.reduce(function(a, e){ return a + e });  } ",
-            outputCollection);
+            outputCollection, MapReduceOutputMode.REPLACE, null, null, null, null, null);
         assertNotNull(results);
         Iterator<DBObject> iter = results.iterator();
         assertEquals(new BasicDBObject()
@@ -281,7 +282,7 @@ public class MongoTestDriver
         insertInTestDb(new BasicDBObject("x", 4));
         insertInTestDb(new BasicDBObject("x", 5));
 
-        Iterator<DBObject> iter = connector.findObjects(MAIN_COLLECTION, null, null, 2, 2).iterator();
+        Iterator<DBObject> iter = connector.findObjects(MAIN_COLLECTION, null, null, 2, 2, null, null, null, null, false).iterator();
 
         assertEquals(3, iter.next().get("x"));
         assertEquals(4, iter.next().get("x"));
@@ -299,7 +300,7 @@ public class MongoTestDriver
             new BasicDBObject("x", new BasicDBObject("$gt", 55)), new BasicDBObject("$inc",
                 new BasicDBObject("x", 2)), false, true, WriteConcern.DATABASE_DEFAULT);
 
-        Iterator<DBObject> iter = connector.findObjects(MAIN_COLLECTION, null, null, null, null).iterator();
+        Iterator<DBObject> iter = connector.findObjects(MAIN_COLLECTION, null, null, null, null, null, null, null, null, false).iterator();
         assertEquals(50, iter.next().get("x"));
         assertEquals(62, iter.next().get("x"));
         assertEquals(62, iter.next().get("x"));
@@ -316,7 +317,7 @@ public class MongoTestDriver
             new BasicDBObject("x", new BasicDBObject("$gt", 55)), new BasicDBObject("$inc",
                 new BasicDBObject("x", 2)), false, false, WriteConcern.DATABASE_DEFAULT);
 
-        Iterator<DBObject> iter = connector.findObjects(MAIN_COLLECTION, null, null, null, null).iterator();
+        Iterator<DBObject> iter = connector.findObjects(MAIN_COLLECTION, null, null, null, null, null, null, null, null, false).iterator();
         assertEquals(50, iter.next().get("x"));
         assertEquals(62, iter.next().get("x"));
         assertEquals(60, iter.next().get("x"));
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoException;
+
+public class AsyncExecutorUnitTest
+{
+    private AsyncExecutor executor;
+
+    @Before
+    public void setup()
+    {
+        executor = new AsyncExecutor(2, 1);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdown();
+    }
+
+    @Test
+    public void windowBoundsOperationsInFlight() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<String> first = executor.submit(new Callable<String>()
+        {
+            public String call() throws Exception
+            {
+                release.await();
+                return "first";
+            }
+        });
+        assertEquals(1, executor.getInFlight());
+        release.countDown();
+
+        // Blocks until the first operation leaves the window
+        Future<String> second = executor.submit(new Callable<String>()
+        {
+            public String call()
+            {
+                return "second";
+            }
+        });
+        assertEquals("first", AsyncExecutor.await(first, null));
+        assertEquals("second", AsyncExecutor.await(second, 1000L));
+    }
+
+    @Test(expected = MongoException.class)
+    public void awaitRethrowsTheFailure() throws Exception
+    {
+        Future<Object> future = executor.submit(new Callable<Object>()
+        {
+            public Object call()
+            {
+                throw new MongoException("boom");
+            }
+        });
+        AsyncExecutor.await(future, null);
+    }
+}
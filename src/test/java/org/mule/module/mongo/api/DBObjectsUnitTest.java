@@ -14,6 +14,7 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -23,6 +24,7 @@ import java.util.Map;
 import org.bson.types.ObjectId;
 import org.junit.Test;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 
 @SuppressWarnings("serial")
@@ -132,4 +134,17 @@ public class DBObjectsUnitTest
         assertThat(o.get("pets"), instanceOf(List.class));
         assertTrue(((List<?>) o.get("pets")).get(0) instanceof DBObject);
     }
+
+    @Test
+    public void fromIterableOfMaps() throws Exception
+    {
+        Iterable<DBObject> objects = DBObjects.fromIterable(Arrays.asList(
+            Collections.singletonMap("name", "Garfield"), new BasicDBObject("name", "Oddie")).iterator());
+        List<String> names = new ArrayList<String>();
+        for (DBObject o : objects)
+        {
+            names.add((String) o.get("name"));
+        }
+        assertEquals(Arrays.asList("Garfield", "Oddie"), names);
+    }
 }
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class DeltaUpdateUnitTest
+{
+    @Test
+    public void equalVersionsNeedNoUpdate() throws Exception
+    {
+        DBObject object = new BasicDBObject("_id", 1).append("name", "foo")
+            .append("address", new BasicDBObject("city", "Paris"));
+        assertNull(DeltaUpdate.diff(object, new BasicDBObject(object.toMap())));
+    }
+
+    @Test
+    public void changedFieldsAreSetAndRemovedOnesUnset() throws Exception
+    {
+        DBObject previous = new BasicDBObject("_id", 1).append("name", "foo").append("nick", "f")
+            .append("address", new BasicDBObject("city", "Paris").append("zip", "75001"));
+        DBObject current = new BasicDBObject("_id", 1).append("name", "bar").append("age", "30")
+            .append("address", new BasicDBObject("city", "Lyon").append("zip", "75001"));
+
+        assertEquals(new BasicDBObject("$set",
+            new BasicDBObject("name", "bar").append("age", "30").append("address.city", "Lyon"))
+            .append("$unset", new BasicDBObject("nick", 1)), DeltaUpdate.diff(previous, current));
+    }
+
+    @Test
+    public void integersAreSetByDefault() throws Exception
+    {
+        DBObject previous = new BasicDBObject("_id", 1).append("visits", 10).append("bytes", 100L);
+        DBObject current = new BasicDBObject("_id", 1).append("visits", 12).append("bytes", 90L);
+
+        assertEquals(new BasicDBObject("$set", new BasicDBObject("visits", 12).append("bytes", 90L)),
+            DeltaUpdate.diff(previous, current));
+    }
+
+    @Test
+    public void counterFieldsAreIncreased() throws Exception
+    {
+        DBObject previous = new BasicDBObject("_id", 1).append("visits", 10).append("bytes", 100L).append("ratio", 0.5)
+            .append("stats", new BasicDBObject("hits", 1));
+        DBObject current = new BasicDBObject("_id", 1).append("visits", 12).append("bytes", 90L).append("ratio", 0.7)
+            .append("stats", new BasicDBObject("hits", 4));
+
+        assertEquals(new BasicDBObject("$set", new BasicDBObject("ratio", 0.7))
+            .append("$inc", new BasicDBObject("visits", 2).append("bytes", -10L).append("stats.hits", 3)),
+            DeltaUpdate.diff(previous, current, Arrays.asList("visits", "bytes", "ratio", "stats.hits")));
+    }
+
+    @Test
+    public void overflowingDifferencesAreSet() throws Exception
+    {
+        DBObject previous = new BasicDBObject("small", Integer.MIN_VALUE).append("large", Long.MIN_VALUE);
+        DBObject current = new BasicDBObject("small", Integer.MAX_VALUE).append("large", Long.MAX_VALUE);
+
+        assertEquals(new BasicDBObject("$set", new BasicDBObject("small", Integer.MAX_VALUE).append("large",
+            Long.MAX_VALUE)), DeltaUpdate.diff(previous, current, Arrays.asList("small", "large")));
+    }
+
+    @Test
+    public void arraysAreSetAsAWhole() throws Exception
+    {
+        DBObject previous = new BasicDBObject("tags", Arrays.asList("a", "b"));
+        DBObject current = new BasicDBObject("tags", Arrays.asList("a", "c"));
+
+        assertEquals(new BasicDBObject("$set", new BasicDBObject("tags", Arrays.asList("a", "c"))),
+            DeltaUpdate.diff(previous, current));
+    }
+}
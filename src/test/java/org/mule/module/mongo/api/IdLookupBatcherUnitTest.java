@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+public class IdLookupBatcherUnitTest
+{
+    private DB db;
+    private DBCollection collection;
+    private DBCursor cursor;
+
+    @Before
+    public void setup()
+    {
+        db = mock(DB.class);
+        collection = mock(DBCollection.class);
+        cursor = mock(DBCursor.class);
+        when(db.getCollection("users")).thenReturn(collection);
+        when(collection.find(any(DBObject.class), any(DBObject.class))).thenReturn(cursor);
+    }
+
+    @Test
+    public void concurrentLookupsAreBatched() throws Exception
+    {
+        when(cursor.hasNext()).thenReturn(true, true, false);
+        when(cursor.next()).thenReturn(new BasicDBObject("_id", 2), new BasicDBObject("_id", 1));
+        // A long window, so the batch is only sent once it is full
+        final IdLookupBatcher batcher = new IdLookupBatcher(db, 2, 10000000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<DBObject> first = executor.submit(lookup(batcher, 1));
+            Future<DBObject> second = executor.submit(lookup(batcher, 2));
+
+            assertEquals(new BasicDBObject("_id", 1), first.get());
+            assertEquals(new BasicDBObject("_id", 2), second.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        verify(collection, times(1)).find(any(DBObject.class), any(DBObject.class));
+    }
+
+    @Test
+    public void lookupIsSentAfterTheWindow()
+    {
+        when(cursor.hasNext()).thenReturn(true, false);
+        when(cursor.next()).thenReturn(new BasicDBObject("_id", 1));
+        IdLookupBatcher batcher = new IdLookupBatcher(db, 100, 100);
+
+        assertEquals(new BasicDBObject("_id", 1), batcher.findById("users", 1, null));
+        verify(collection).find(new BasicDBObject("_id", new BasicDBObject("$in", Arrays.<Object> asList(1))),
+            (DBObject) null);
+    }
+
+    @Test
+    public void numericIdsAreMatchedByValue()
+    {
+        when(cursor.hasNext()).thenReturn(true, false);
+        when(cursor.next()).thenReturn(new BasicDBObject("_id", 1.0));
+        IdLookupBatcher batcher = new IdLookupBatcher(db, 100, 100);
+
+        assertEquals(new BasicDBObject("_id", 1.0), batcher.findById("users", 1L, null));
+    }
+
+    @Test(expected = MongoException.class)
+    public void missingObjectFails()
+    {
+        when(cursor.hasNext()).thenReturn(false);
+        new IdLookupBatcher(db, 1, 0).findById("users", 1, null);
+    }
+
+    @Test
+    public void onlyPlainIdQueriesAreLookups()
+    {
+        assertTrue(IdLookupBatcher.isIdLookup(new BasicDBObject("_id", 1)));
+        assertFalse(IdLookupBatcher.isIdLookup(new BasicDBObject("_id", new BasicDBObject("$gt", 1))));
+        assertFalse(IdLookupBatcher.isIdLookup(new BasicDBObject("_id", 1).append("name", "foo")));
+        assertFalse(IdLookupBatcher.isIdLookup(null));
+    }
+
+    private Callable<DBObject> lookup(final IdLookupBatcher batcher, final Object id)
+    {
+        return new Callable<DBObject>()
+        {
+            public DBObject call()
+            {
+                return batcher.findById("users", id, null);
+            }
+        };
+    }
+}
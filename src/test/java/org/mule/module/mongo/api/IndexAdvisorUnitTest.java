@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class IndexAdvisorUnitTest
+{
+    @Test
+    public void keysFollowEqualitySortRangeOrder()
+    {
+        DBObject shape = shape("orders",
+            new BasicDBObject("created", new BasicDBObject("$gt", 1)).append("status", 1).append("type",
+                new BasicDBObject("$in", 1)), new BasicDBObject("total", -1), Arrays.asList("_id", "customer"));
+
+        assertEquals(new BasicDBObject("status", 1).append("type", 1).append("total", -1).append("created", 1),
+            IndexAdvisor.getKeys(shape, false));
+        assertEquals(new BasicDBObject("status", 1).append("type", 1)
+            .append("total", -1)
+            .append("created", 1)
+            .append("customer", 1), IndexAdvisor.getKeys(shape, true));
+    }
+
+    @Test
+    public void onlyRangeOperatorsAreIndexedAsRanges()
+    {
+        DBObject shape = shape("users",
+            new BasicDBObject("age", new BasicDBObject("$gte", 1).append("$ne", 1)).append("status",
+                new BasicDBObject("$ne", 1))
+                .append("email", new BasicDBObject("$exists", 1))
+                .append("name", new BasicDBObject("$regex", 1))
+                .append("tags", new BasicDBObject("$nin", 1)), null, null);
+
+        assertEquals(new BasicDBObject("age", 1), IndexAdvisor.getKeys(shape, false));
+    }
+
+    @Test
+    public void geospatialFieldsHeadA2dIndex()
+    {
+        DBObject shape = shape("places",
+            new BasicDBObject("category", 1).append("location", new BasicDBObject("$near", 1)), null, null);
+
+        assertEquals(new BasicDBObject("location", "2d").append("category", 1), IndexAdvisor.getKeys(shape, false));
+    }
+
+    @Test
+    public void onlyCollectionScansAreAdvised()
+    {
+        List<DBObject> shapes = new ArrayList<DBObject>();
+        shapes.add(stats(shape("users", new BasicDBObject("name", 1), null, null), 10, 5.0, true));
+        shapes.add(stats(shape("users", new BasicDBObject("email", 1), null, null), 10, 5.0, false));
+        shapes.add(stats(shape("users", new BasicDBObject("$or", Arrays.asList(new BasicDBObject("a", 1))), null,
+            null), 10, 5.0, true));
+
+        List<DBObject> advice = IndexAdvisor.advise(shapes, false);
+        assertEquals(1, advice.size());
+        assertEquals(new BasicDBObject("name", 1), advice.get(0).get("keys"));
+        assertEquals(50.0, (Double) advice.get(0).get("benefitMillis"), 0.001);
+    }
+
+    @Test
+    public void prefixIndexesAreFoldedAndRankedByBenefit()
+    {
+        List<DBObject> shapes = new ArrayList<DBObject>();
+        shapes.add(stats(shape("users", new BasicDBObject("name", 1), null, null), 10, 5.0, true));
+        shapes.add(stats(shape("users", new BasicDBObject("name", 1), new BasicDBObject("age", 1), null), 2,
+            10.0, true));
+        shapes.add(stats(shape("orders", new BasicDBObject("status", 1), null, null), 100, 1.0, true));
+
+        List<DBObject> advice = IndexAdvisor.advise(shapes, false);
+        assertEquals(2, advice.size());
+        assertEquals("orders", advice.get(0).get("collection"));
+        DBObject users = advice.get(1);
+        assertEquals(new BasicDBObject("name", 1).append("age", 1), users.get("keys"));
+        assertEquals(70.0, (Double) users.get("benefitMillis"), 0.001);
+        assertEquals(12L, users.get("count"));
+        assertEquals(2, ((List<?>) users.get("filters")).size());
+    }
+
+    private DBObject shape(String collection, DBObject filter, DBObject sort, List<String> fields)
+    {
+        return new BasicDBObject("collection", collection).append("filter", filter)
+            .append("sort", sort)
+            .append("fields", fields);
+    }
+
+    private DBObject stats(DBObject shape, long count, double avgMillis, boolean collectionScan)
+    {
+        shape.put("count", count);
+        shape.put("avgMillis", avgMillis);
+        shape.put("plan", new BasicDBObject("collectionScan", collectionScan));
+        return shape;
+    }
+}
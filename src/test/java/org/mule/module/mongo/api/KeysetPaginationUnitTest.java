@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class KeysetPaginationUnitTest
+{
+    private static final DBObject SORT_KEY = KeysetPagination.getSortKey(new BasicDBObject("age", -1));
+
+    @Test
+    public void sortKeyEndsWithId() throws Exception
+    {
+        assertEquals(new BasicDBObject("age", -1).append("_id", -1), SORT_KEY);
+        assertEquals(new BasicDBObject("_id", 1), KeysetPagination.getSortKey(null));
+    }
+
+    @Test
+    public void fieldsIncludeSortKey() throws Exception
+    {
+        assertEquals(Arrays.asList("name", "age", "_id"),
+            KeysetPagination.getFields(Arrays.asList("name"), SORT_KEY));
+    }
+
+    @Test
+    public void firstPageUsesQuery() throws Exception
+    {
+        DBObject query = new BasicDBObject("active", true);
+        assertEquals(query, KeysetPagination.getQuery(query, SORT_KEY, null));
+    }
+
+    @Test
+    public void nextPageStartsAfterLastKey() throws Exception
+    {
+        String token = KeysetPagination.encode(SORT_KEY, new BasicDBObject("_id", 7).append("age", 30).append("name", "John"));
+
+        BasicDBList or = new BasicDBList();
+        or.add(new BasicDBObject("age", new BasicDBObject("$lt", 30)));
+        or.add(new BasicDBObject("age", 30).append("_id", new BasicDBObject("$lt", 7)));
+        BasicDBList and = new BasicDBList();
+        and.add(new BasicDBObject("active", true));
+        and.add(new BasicDBObject("$or", or));
+        assertEquals(new BasicDBObject("$and", and),
+            KeysetPagination.getQuery(new BasicDBObject("active", true), SORT_KEY, token));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tokenOfAnotherSortOrder() throws Exception
+    {
+        String token = KeysetPagination.encode(SORT_KEY, new BasicDBObject("_id", 7).append("age", 30));
+        KeysetPagination.getQuery(null, KeysetPagination.getSortKey(new BasicDBObject("name", 1)), token);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class QueryCacheUnitTest
+{
+    private static final DBObject OBJECT = new BasicDBObject("_id", 1).append("name", "John");
+
+    @Test
+    public void keyIgnoresTopLevelFieldOrder() throws Exception
+    {
+        assertEquals(QueryCache.getKey("people", "findOne", new BasicDBObject("a", 1).append("b", 2), null, null, null),
+            QueryCache.getKey("people", "findOne", new BasicDBObject("b", 2).append("a", 1), null, null, null));
+    }
+
+    @Test
+    public void cachedObjectsAreCopies() throws Exception
+    {
+        QueryCache cache = new QueryCache(10, 60000);
+        cache.put("people", "key", cache.getGeneration("people"), OBJECT);
+        DBObject cached = (DBObject) cache.get("people", "key");
+        assertEquals(OBJECT, cached);
+        assertNotSame(OBJECT, cached);
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void writeInvalidatesCollection() throws Exception
+    {
+        QueryCache cache = new QueryCache(10, 60000);
+        cache.put("people", "key", cache.getGeneration("people"), OBJECT);
+        cache.put("places", "other", cache.getGeneration("places"), OBJECT);
+        cache.invalidate("people");
+        assertNull(cache.get("people", "key"));
+        assertEquals(OBJECT, cache.get("places", "other"));
+    }
+
+    @Test
+    public void resultReadDuringWriteIsNotCached() throws Exception
+    {
+        QueryCache cache = new QueryCache(10, 60000);
+        long generation = cache.getGeneration("people");
+        cache.invalidate("people");
+        cache.put("people", "key", generation, OBJECT);
+        assertNull(cache.get("people", "key"));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() throws Exception
+    {
+        QueryCache cache = new QueryCache(2, 60000);
+        cache.put("people", "a", 0, OBJECT);
+        cache.put("people", "b", 0, OBJECT);
+        cache.get("people", "a");
+        cache.put("people", "c", 0, OBJECT);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("people", "b"));
+        assertEquals(OBJECT, cache.get("people", "a"));
+    }
+
+    @Test
+    public void expiredEntriesAreDropped() throws Exception
+    {
+        QueryCache cache = new QueryCache(10, 1);
+        cache.put("people", "key", 0, OBJECT);
+        Thread.sleep(10);
+        assertNull(cache.get("people", "key"));
+    }
+
+    @Test
+    public void unsizedCacheHoldsNothingUntilSized() throws Exception
+    {
+        QueryCache cache = new QueryCache();
+        cache.put("people", "key", 0, OBJECT);
+        assertNull(cache.get("people", "key"));
+
+        cache.resize(10, 60000);
+        cache.put("people", "key", 0, OBJECT);
+        assertEquals(OBJECT, cache.get("people", "key"));
+    }
+}
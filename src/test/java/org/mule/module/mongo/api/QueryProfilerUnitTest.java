@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+public class QueryProfilerUnitTest
+{
+    private DBCollection collection;
+    private QueryProfiler profiler;
+
+    @Before
+    public void setup()
+    {
+        collection = mock(DBCollection.class);
+        when(collection.getName()).thenReturn("users");
+        // Never explains, so the collection is not queried
+        profiler = new QueryProfiler(0, 2);
+    }
+
+    @Test
+    public void literalsAreRemovedFromShapes()
+    {
+        DBObject query = new BasicDBObject("name", "foo").append("age", new BasicDBObject("$gt", 30))
+            .append("tags", new BasicDBObject("$in", Arrays.asList("a", "b")))
+            .append("$or", Arrays.asList(new BasicDBObject("x", 1), new BasicDBObject("y", "z")));
+
+        assertEquals(new BasicDBObject("$or", Arrays.asList(new BasicDBObject("x", 1), new BasicDBObject("y", 1)))
+            .append("age", new BasicDBObject("$gt", 1))
+            .append("name", 1)
+            .append("tags", new BasicDBObject("$in", 1)), QueryProfiler.getShape(query));
+    }
+
+    @Test
+    public void queriesWithTheSameShapeAreGrouped()
+    {
+        for (int i = 1; i <= 100; i++)
+        {
+            profiler.record(collection, "find", new BasicDBObject("name", "user" + i), null, null,
+                TimeUnit.MILLISECONDS.toNanos(i), 2);
+        }
+        profiler.record(collection, "find", new BasicDBObject("age", 1), null, null, 0, 0);
+
+        List<DBObject> shapes = profiler.getShapes();
+        assertEquals(2, shapes.size());
+        assertEquals(101, profiler.getRecordedOperations());
+        DBObject slowest = shapes.get(0);
+        assertEquals(new BasicDBObject("name", 1), slowest.get("filter"));
+        assertEquals(100L, slowest.get("count"));
+        assertEquals(200L, slowest.get("documents"));
+        assertEquals(50.5, (Double) slowest.get("avgMillis"), 0.001);
+        assertEquals(50.0, (Double) slowest.get("p50Millis"), 0.001);
+        assertEquals(95.0, (Double) slowest.get("p95Millis"), 0.001);
+        assertEquals(99.0, (Double) slowest.get("p99Millis"), 0.001);
+        assertEquals(100.0, (Double) slowest.get("maxMillis"), 0.001);
+    }
+
+    @Test
+    public void leastRecentlySeenShapesAreEvicted()
+    {
+        profiler.record(collection, "find", new BasicDBObject("a", 1), null, null, 0, 0);
+        profiler.record(collection, "find", new BasicDBObject("b", 1), null, null, 0, 0);
+        profiler.record(collection, "find", new BasicDBObject("a", 2), null, null, 0, 0);
+        profiler.record(collection, "find", new BasicDBObject("c", 1), null, null, 0, 0);
+
+        assertEquals(2, profiler.getShapeCount());
+        for (DBObject shape : profiler.getShapes())
+        {
+            assertFalse(new BasicDBObject("b", 1).equals(shape.get("filter")));
+        }
+
+        profiler.reset();
+        assertEquals(0, profiler.getShapeCount());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void onlyTheTimeSpentReadingCursorsIsRecorded() throws Exception
+    {
+        Iterator<DBObject> documents = mock(Iterator.class);
+        when(documents.hasNext()).thenReturn(true, true, false);
+        when(documents.next()).thenReturn(new BasicDBObject(), new BasicDBObject());
+        DBCursor cursor = mock(DBCursor.class);
+        when(cursor.iterator()).thenReturn(documents);
+        when(cursor.getCollection()).thenReturn(collection);
+        when(cursor.getQuery()).thenReturn(new BasicDBObject("name", "foo"));
+
+        Iterator<DBObject> iterator = profiler.profile(cursor, null, 10).iterator();
+        while (iterator.hasNext())
+        {
+            iterator.next();
+            // The caller processing the document
+            Thread.sleep(50);
+        }
+
+        DBObject shape = profiler.getShapes().get(0);
+        assertEquals(1L, shape.get("count"));
+        assertEquals(2L, shape.get("documents"));
+        assertTrue((Double) shape.get("maxMillis") < 50.0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void abandonedTraversalsAreRecorded() throws Exception
+    {
+        Iterator<DBObject> documents = mock(Iterator.class);
+        when(documents.hasNext()).thenReturn(true);
+        when(documents.next()).thenReturn(new BasicDBObject());
+        DBCursor cursor = mock(DBCursor.class);
+        when(cursor.iterator()).thenReturn(documents);
+        when(cursor.getCollection()).thenReturn(collection);
+        when(cursor.getQuery()).thenReturn(new BasicDBObject("name", "foo"));
+
+        Iterator<DBObject> iterator = profiler.profile(cursor, null, 0).iterator();
+        iterator.next();
+
+        DBObject shape = profiler.getShapes().get(0);
+        assertEquals(1L, shape.get("count"));
+        assertEquals(1L, shape.get("documents"));
+    }
+}
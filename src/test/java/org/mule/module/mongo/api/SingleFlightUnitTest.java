@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+public class SingleFlightUnitTest
+{
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    public void concurrentReadsAreCoalesced() throws Exception
+    {
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch leaderStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<DBObject> read = new Callable<DBObject>()
+        {
+            public DBObject call() throws Exception
+            {
+                reads.incrementAndGet();
+                leaderStarted.countDown();
+                release.await();
+                return new BasicDBObject("_id", 1);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<DBObject> leader = executor.submit(new Callable<DBObject>()
+            {
+                public DBObject call()
+                {
+                    return singleFlight.execute("key", read);
+                }
+            });
+            leaderStarted.await();
+            final AtomicReference<Thread> followerThread = new AtomicReference<Thread>();
+            Future<DBObject> follower = executor.submit(new Callable<DBObject>()
+            {
+                public DBObject call()
+                {
+                    followerThread.set(Thread.currentThread());
+                    return singleFlight.execute("key", read);
+                }
+            });
+            // The follower blocks waiting for the read in flight
+            while (followerThread.get() == null || followerThread.get().getState() != Thread.State.WAITING)
+            {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            assertEquals(new BasicDBObject("_id", 1), leader.get());
+            assertEquals(new BasicDBObject("_id", 1), follower.get());
+            assertNotSame(leader.get(), follower.get());
+            assertEquals(1, reads.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = MongoException.class)
+    public void failureIsRethrown() throws Exception
+    {
+        singleFlight.execute("key", new Callable<Object>()
+        {
+            public Object call()
+            {
+                throw new MongoException("No object found");
+            }
+        });
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class WriteBehindJournalUnitTest
+{
+    private static final String CONNECTION_KEY = "localhost:27017/test/user";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void unreleasedWritesAreRecovered() throws Exception
+    {
+        WriteBehindJournal journal = open(64);
+        journal.append("people", new BasicDBObject("_id", 1).append("name", "John"), true);
+        journal.append("people", new BasicDBObject("_id", 2).append("name", "Jane"), false);
+        journal.close();
+
+        WriteBehindJournal reopened = open(64);
+        List<DBObject> records = reopened.recover();
+        assertEquals(2, records.size());
+        assertEquals("people", WriteBehindJournal.getCollection(records.get(0)));
+        assertTrue(WriteBehindJournal.isInsert(records.get(0)));
+        assertEquals("Jane", WriteBehindJournal.getObject(records.get(1)).get("name"));
+        assertFalse(WriteBehindJournal.isInsert(records.get(1)));
+
+        reopened.discardRecovered();
+        reopened.close();
+        assertTrue(open(64).recover().isEmpty());
+    }
+
+    @Test
+    public void releasedWritesAreNotRecovered() throws Exception
+    {
+        WriteBehindJournal journal = open(1024);
+        WriteBehindJournal.JournaledWrite first = journal.append("people", new BasicDBObject("_id", 1), false);
+        journal.append("people", new BasicDBObject("_id", 2), false);
+        journal.release(first);
+        journal.close();
+
+        // The segment survives for the unreleased write, along with the marker of the released one
+        List<DBObject> records = open(1024).recover();
+        assertEquals(1, records.size());
+        assertEquals(2, WriteBehindJournal.getObject(records.get(0)).get("_id"));
+    }
+
+    @Test
+    public void releasedWritesAreDeleted() throws Exception
+    {
+        WriteBehindJournal journal = open(64);
+        for (int i = 0; i < 10; i++)
+        {
+            journal.release(journal.append("people", new BasicDBObject("_id", i), true));
+        }
+        journal.close();
+
+        assertTrue(open(64).recover().isEmpty());
+    }
+
+    @Test
+    public void fullReleasedSegmentsAreDeletedWhileOpen() throws Exception
+    {
+        WriteBehindJournal journal = open(64);
+        for (int i = 0; i < 10; i++)
+        {
+            journal.release(journal.append("people", new BasicDBObject("_id", i), true));
+        }
+
+        // Only the segment being written remains
+        assertEquals(1, journal.getDirectory().list(new FilenameFilter()
+        {
+            public boolean accept(File directory, String name)
+            {
+                return name.endsWith(".bson");
+            }
+        }).length);
+        journal.close();
+    }
+
+    @Test
+    public void connectionsUseDifferentDirectories() throws Exception
+    {
+        WriteBehindJournal journal = open(64);
+        journal.append("people", new BasicDBObject("_id", 1), false);
+        journal.close();
+
+        WriteBehindJournal other = WriteBehindJournal.open(folder.getRoot(), "localhost:27017/other/user", "other", 64);
+        assertTrue(other.recover().isEmpty());
+        other.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void writesToAnotherDatabaseAreNotRecovered() throws Exception
+    {
+        WriteBehindJournal journal = open(64);
+        journal.append("people", new BasicDBObject("_id", 1), false);
+        journal.close();
+
+        WriteBehindJournal.open(folder.getRoot(), CONNECTION_KEY, "other", 64).recover();
+    }
+
+    @Test
+    public void openJournalsUseDifferentSlots() throws Exception
+    {
+        WriteBehindJournal first = open(64);
+        WriteBehindJournal second = open(64);
+        assertFalse(first.getDirectory().equals(second.getDirectory()));
+        first.close();
+        second.close();
+    }
+
+    private WriteBehindJournal open(long maxSegmentBytes) throws IOException
+    {
+        return WriteBehindJournal.open(folder.getRoot(), CONNECTION_KEY, "test", maxSegmentBytes);
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.bson.types.BSONTimestamp;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mongodb.BasicDBObject;
+
+public class BackupCatalogUnitTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void plansBaseDumpAndLaterOplogSegments() throws Exception
+    {
+        File root = folder.getRoot();
+        // Dumps started on 2013-01-01 00:00 and 2013-01-02 00:00 GMT, consistent one minute later
+        writeOplog(new BsonDumpWriter(root.getPath(), "test.2013-01-01-00-00"), "oplog", 1356998460);
+        writeOplog(new BsonDumpWriter(root.getPath(), "test.2013-01-02-00-00"), "oplog", 1357084860);
+        // Every incremental segment starts with the last entry already dumped
+        writeOplog(new BsonDumpWriter(root.getPath()), "oplog.2013-01-01-12-00", 1356998460, 1357041600, 1357041700);
+        writeOplog(new BsonDumpWriter(root.getPath()), "oplog.2013-01-02-12-00", 1357084860, 1357128000, 1357128100);
+
+        BackupCatalog catalog = new BackupCatalog(root.getPath());
+        catalog.refresh();
+        assertEquals(4, catalog.getEntries().size());
+
+        RestorePlan plan = catalog.plan(new BSONTimestamp(1357128050, Integer.MAX_VALUE));
+        assertEquals("test.2013-01-02-00-00", plan.getBaseDump().getFile().getName());
+        assertEquals(Arrays.asList(new File(root, "oplog.2013-01-02-12-00.bson")), plan.getOplogFiles());
+
+        plan = catalog.plan(new BSONTimestamp(1357041650, Integer.MAX_VALUE));
+        assertEquals("test.2013-01-01-00-00", plan.getBaseDump().getFile().getName());
+        assertEquals(Arrays.asList(new File(root, "oplog.2013-01-01-12-00.bson")), plan.getOplogFiles());
+
+        // The persisted index is reused
+        BackupCatalog reloaded = new BackupCatalog(root.getPath());
+        reloaded.refresh();
+        assertEquals(4, reloaded.getEntries().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void missingIncrementalIsAGap() throws Exception
+    {
+        File root = folder.getRoot();
+        writeOplog(new BsonDumpWriter(root.getPath(), "test.2013-01-01-00-00"), "oplog", 1356998460);
+        // The run between 1356998460 and 1357041600 is missing
+        writeOplog(new BsonDumpWriter(root.getPath()), "oplog.2013-01-01-18-00", 1357041600, 1357063200);
+        new IncrementalRun(new BSONTimestamp(1357041600, 1), new BSONTimestamp(1357063200, 1),
+            "oplog.2013-01-01-18-00.bson").record(root);
+
+        BackupCatalog catalog = new BackupCatalog(root.getPath());
+        catalog.refresh();
+        catalog.plan(new BSONTimestamp(1357050000, Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void segmentsEndingBeforeTheTargetAreNotEnough() throws Exception
+    {
+        File root = folder.getRoot();
+        writeOplog(new BsonDumpWriter(root.getPath(), "test.2013-01-01-00-00"), "oplog", 1356998460);
+        writeOplog(new BsonDumpWriter(root.getPath()), "oplog.2013-01-01-12-00", 1356998460, 1357041600);
+
+        BackupCatalog catalog = new BackupCatalog(root.getPath());
+        catalog.refresh();
+        catalog.plan(new BSONTimestamp(1357050000, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void quietRunsCoverWithoutSegments() throws Exception
+    {
+        File root = folder.getRoot();
+        writeOplog(new BsonDumpWriter(root.getPath(), "test.2013-01-01-00-00"), "oplog", 1356998460);
+        // No entry of the database was written since the dump
+        new IncrementalRun(new BSONTimestamp(1356998460, 1), new BSONTimestamp(1357041600, 1), null).record(root);
+        new IncrementalRun(new BSONTimestamp(1357041600, 1), new BSONTimestamp(1357063200, 1), null).record(root);
+
+        BackupCatalog catalog = new BackupCatalog(root.getPath());
+        catalog.refresh();
+        RestorePlan plan = catalog.plan(new BSONTimestamp(1357050000, Integer.MAX_VALUE));
+        assertEquals("test.2013-01-01-00-00", plan.getBaseDump().getFile().getName());
+        assertEquals(0, plan.getOplogFiles().size());
+    }
+
+    @Test
+    public void segmentsDumpedBeforeRunsAreTrusted() throws Exception
+    {
+        File root = folder.getRoot();
+        writeOplog(new BsonDumpWriter(root.getPath(), "test.2013-01-01-00-00"), "oplog", 1356998460);
+        // Dumped after the checkpoint, not overlapping it
+        writeOplog(new BsonDumpWriter(root.getPath()), "oplog.2013-01-01-12-00", 1356998500, 1357041600);
+        new IncrementalRun(new BSONTimestamp(1357041600, 1), new BSONTimestamp(1357063200, 1), null).record(root);
+
+        BackupCatalog catalog = new BackupCatalog(root.getPath());
+        catalog.refresh();
+        RestorePlan plan = catalog.plan(new BSONTimestamp(1357050000, Integer.MAX_VALUE));
+        assertEquals(Arrays.asList(new File(root, "oplog.2013-01-01-12-00.bson")), plan.getOplogFiles());
+    }
+
+    private void writeOplog(DumpWriter writer, String name, int... times) throws Exception
+    {
+        for(int time : times)
+        {
+            writer.writeObject(name, new BasicDBObject(BackupConstants.TIMESTAMP_FIELD, new BSONTimestamp(time, 1))
+                .append(BackupConstants.NAMESPACE_FIELD, "test.items"));
+        }
+    }
+}
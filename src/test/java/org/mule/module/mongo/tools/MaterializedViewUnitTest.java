@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+public class MaterializedViewUnitTest
+{
+    private DB db;
+    private MaterializedView view;
+
+    @Before
+    public void setup()
+    {
+        db = mock(DB.class);
+        when(db.getName()).thenReturn("test");
+        view = new MaterializedView(mock(DB.class), mock(DB.class), db, "observations", "stats", "station",
+            "reading.temperature", 100);
+    }
+
+    @Test
+    public void contributionHoldsGroupAndValue() throws Exception
+    {
+        assertEquals(new BasicDBObject("_id", 1).append("k", "KJFK").append("v", 12.5),
+            view.getContribution(new BasicDBObject("_id", 1).append("station", "KJFK")
+                .append("reading", new BasicDBObject("temperature", 12.5))));
+    }
+
+    @Test
+    public void objectWithoutGroupOrValueContributesNothing() throws Exception
+    {
+        assertNull(view.getContribution(new BasicDBObject("_id", 1)
+            .append("reading", new BasicDBObject("temperature", 12.5))));
+        assertNull(view.getContribution(new BasicDBObject("_id", 1).append("station", "KJFK")
+            .append("reading", new BasicDBObject("temperature", "warm"))));
+    }
+
+    @Test
+    public void changedIdsAreTakenFromSourceEntries() throws Exception
+    {
+        assertEquals(1, view.getChangedId(new BasicDBObject("op", "i").append("ns", "test.observations")
+            .append("o", new BasicDBObject("_id", 1).append("station", "KJFK"))));
+        assertEquals(2, view.getChangedId(new BasicDBObject("op", "u").append("ns", "test.observations")
+            .append("o2", new BasicDBObject("_id", 2)).append("o", new BasicDBObject("$set", new BasicDBObject("x", 1)))));
+        assertEquals(3, view.getChangedId(new BasicDBObject("op", "d").append("ns", "test.observations")
+            .append("o", new BasicDBObject("_id", 3))));
+        assertNull(view.getChangedId(new BasicDBObject("op", "i").append("ns", "test.stats")
+            .append("o", new BasicDBObject("_id", 4))));
+    }
+
+    @Test
+    public void groupsAlreadyIncreasedByABatchAreNotIncreasedAgain() throws Exception
+    {
+        DBCollection target = mock(DBCollection.class);
+        DBCollection contributions = mock(DBCollection.class);
+        when(db.getCollection("stats")).thenReturn(target);
+        when(db.getCollection("stats.contributions")).thenReturn(contributions);
+        ObjectId batchId = new ObjectId();
+        // The earlier attempt increased the group, then failed before recording the contributions
+        when(target.findOne(new BasicDBObject("_id", "KJFK"))).thenReturn(
+            new BasicDBObject("_id", "KJFK").append("count", 2L).append("sum", 20.0).append("batch", batchId));
+        DBObject contribution = new BasicDBObject("_id", 1).append("k", "KJFK").append("v", 12.5);
+
+        view.complete(new BasicDBObject("_id", "$pending").append("batch", batchId)
+            .append("groups", Arrays.asList(new BasicDBObject("k", "KJFK").append("count", 1L).append("sum", 12.5)))
+            .append("saved", Arrays.asList(contribution))
+            .append("removed", Collections.emptyList()));
+
+        verify(target, never()).insert(any(DBObject.class));
+        verify(target).update(new BasicDBObject("_id", "KJFK"),
+            new BasicDBObject("$set", new BasicDBObject("avg", 10.0)));
+        verify(contributions).save(contribution);
+        verify(contributions).remove(new BasicDBObject("_id", "$pending"));
+    }
+}
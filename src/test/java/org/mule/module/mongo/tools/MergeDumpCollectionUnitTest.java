@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class MergeDumpCollectionUnitTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DumpWriter outputWriter;
+    private MergeDumpCollection mergeCollection;
+
+    @Before
+    public void setup() throws Exception
+    {
+        DumpWriter baseWriter = new BsonDumpWriter(folder.newFolder("base").getPath());
+        baseWriter.writeObjects("users", Arrays.<DBObject> asList(new BasicDBObject("_id", 1).append("name", "John"),
+            new BasicDBObject("_id", 2).append("name", "Jane")));
+
+        outputWriter = new BsonDumpWriter(folder.newFolder("output").getPath());
+        mergeCollection = new MergeDumpCollection("users", new BsonDumpWriter(folder.newFolder("spill").getPath()));
+        mergeCollection.setBaseFile(new RestoreFile(new File(baseWriter.getFilePath("users"))));
+        mergeCollection.setDumpWriter(outputWriter);
+    }
+
+    @Test
+    public void changesAreAppliedToTheStreamedBase() throws Exception
+    {
+        mergeCollection.addOplogEntry(entry("u", new BasicDBObject("$set", new BasicDBObject("name", "Jim")), new BasicDBObject("_id", 1)));
+        mergeCollection.addOplogEntry(entry("d", new BasicDBObject("_id", 2), null));
+        mergeCollection.addOplogEntry(entry("i", new BasicDBObject("_id", 3).append("name", "Joe"), null));
+        mergeCollection.addOplogEntry(entry("u", new BasicDBObject("$set", new BasicDBObject("age", 30)), new BasicDBObject("_id", 3)));
+        mergeCollection.call();
+
+        List<DBObject> merged = getMerged();
+        assertEquals(2, merged.size());
+        assertEquals(new BasicDBObject("_id", 1).append("name", "Jim"), merged.get(0));
+        assertEquals(new BasicDBObject("_id", 3).append("name", "Joe").append("age", 30), merged.get(1));
+    }
+
+    @Test
+    public void dropDiscardsTheBaseAndEarlierChanges() throws Exception
+    {
+        mergeCollection.addOplogEntry(entry("i", new BasicDBObject("_id", 3).append("name", "Joe"), null));
+        mergeCollection.addOplogEntry(entry("c", new BasicDBObject("drop", "users"), null));
+        mergeCollection.addOplogEntry(entry("i", new BasicDBObject("_id", 4).append("name", "Ann"), null));
+        mergeCollection.call();
+
+        List<DBObject> merged = getMerged();
+        assertEquals(1, merged.size());
+        assertEquals(4, merged.get(0).get("_id"));
+    }
+
+    @Test
+    public void entriesAreSpilledInOrder() throws Exception
+    {
+        for(int i = 0; i < 2500; i++)
+        {
+            mergeCollection.addOplogEntry(entry("u", new BasicDBObject("$set", new BasicDBObject("count", i)), new BasicDBObject("_id", 1)));
+        }
+        mergeCollection.call();
+
+        List<DBObject> merged = getMerged();
+        assertEquals(2, merged.size());
+        assertEquals(2499, merged.get(0).get("count"));
+        assertFalse(merged.get(1).containsField("count"));
+    }
+
+    private List<DBObject> getMerged() throws Exception
+    {
+        return new RestoreFile(new File(outputWriter.getFilePath("users"))).getCollectionObjects();
+    }
+
+    private DBObject entry(String operation, DBObject object, DBObject query)
+    {
+        DBObject entry = new BasicDBObject(BackupConstants.OPERATION_FIELD, operation).append("o", object);
+        if(query != null)
+        {
+            entry.put("o2", query);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mule.module.mongo.api.QueryCache;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBObject;
+
+public class OplogCacheInvalidatorUnitTest
+{
+    private static final DBObject OBJECT = new BasicDBObject("_id", 1);
+
+    private QueryCache queryCache;
+    private OplogCacheInvalidator invalidator;
+
+    @Before
+    public void setup()
+    {
+        queryCache = new QueryCache(10, 60000);
+        queryCache.put("people", "people", 0, OBJECT);
+        queryCache.put("places", "places", 0, OBJECT);
+        invalidator = new OplogCacheInvalidator(mock(DB.class), mock(DB.class), "test", queryCache);
+    }
+
+    @Test
+    public void writeInvalidatesItsCollection() throws Exception
+    {
+        invalidator.invalidate(new BasicDBObject("op", "u").append("ns", "test.people"));
+        assertNull(queryCache.get("people", "people"));
+        assertEquals(OBJECT, queryCache.get("places", "places"));
+    }
+
+    @Test
+    public void writeToOtherDatabaseIsIgnored() throws Exception
+    {
+        invalidator.invalidate(new BasicDBObject("op", "i").append("ns", "other.people"));
+        assertEquals(OBJECT, queryCache.get("people", "people"));
+    }
+
+    @Test
+    public void dropInvalidatesDroppedCollection() throws Exception
+    {
+        invalidator.invalidate(new BasicDBObject("op", "c").append("ns", "test.$cmd")
+            .append("o", new BasicDBObject("drop", "people")));
+        assertNull(queryCache.get("people", "people"));
+        assertEquals(OBJECT, queryCache.get("places", "places"));
+    }
+
+    @Test
+    public void otherCommandsInvalidateEverything() throws Exception
+    {
+        invalidator.invalidate(new BasicDBObject("op", "c").append("ns", "test.$cmd")
+            .append("o", new BasicDBObject("dropDatabase", 1)));
+        assertNull(queryCache.get("places", "places"));
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class OplogFilterUnitTest
+{
+    @Test
+    public void namespacePatternIsAnchoredOnDot() throws Exception
+    {
+        assertTrue(BackupUtils.getNamespacePattern("orders").matcher("orders.items").find());
+        assertFalse(BackupUtils.getNamespacePattern("orders").matcher("orders_archive.items").find());
+        assertTrue(BackupUtils.getNamespacePattern("my.db").matcher("my.db.items").find());
+        assertFalse(BackupUtils.getNamespacePattern("my.db").matcher("myxdb.items").find());
+        assertTrue(BackupUtils.getNamespacePattern("my$db").matcher("my$db.items").find());
+    }
+
+    @Test
+    public void defaultQuerySkipsNoops() throws Exception
+    {
+        DBObject query = new OplogFilter("orders").toQuery();
+        assertEquals(new BasicDBObject("$regex", "^orders\\."), query.get(BackupConstants.NAMESPACE_FIELD));
+        assertEquals(new BasicDBObject("$ne", "n"), query.get(BackupConstants.OPERATION_FIELD));
+    }
+
+    @Test
+    public void includeAndExcludeLists() throws Exception
+    {
+        OplogFilter filter = new OplogFilter("orders");
+        filter.setIncludeCollections(Arrays.asList("items", "customers"));
+        filter.setExcludeCollections(Arrays.asList("customers"));
+        filter.setIncludeOperations(Arrays.asList("i", "u"));
+
+        DBObject query = filter.toQuery();
+        assertEquals(new BasicDBObject("$in", Arrays.asList("orders.items", "orders.customers"))
+                         .append("$nin", Arrays.asList("orders.customers")),
+            query.get(BackupConstants.NAMESPACE_FIELD));
+        assertEquals(new BasicDBObject("$in", Arrays.asList("i", "u")), query.get(BackupConstants.OPERATION_FIELD));
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+public class OplogOperationsUnitTest
+{
+    private Map<Object, DBObject> documents;
+
+    @Before
+    public void setup()
+    {
+        documents = new LinkedHashMap<Object, DBObject>();
+        documents.put(1, new BasicDBObject("_id", 1).append("name", "John").append("address", new BasicDBObject("city", "BA")));
+    }
+
+    @Test
+    public void insert() throws Exception
+    {
+        OplogOperations.apply(documents, entry("i", new BasicDBObject("_id", 2).append("name", "Jane"), null));
+        assertEquals("Jane", documents.get(2).get("name"));
+    }
+
+    @Test
+    public void delete() throws Exception
+    {
+        OplogOperations.apply(documents, entry("d", new BasicDBObject("_id", 1), null));
+        assertFalse(documents.containsKey(1));
+    }
+
+    @Test
+    public void replace() throws Exception
+    {
+        OplogOperations.apply(documents, entry("u", new BasicDBObject("name", "Jim"), new BasicDBObject("_id", 1)));
+        assertEquals(new BasicDBObject("name", "Jim").append("_id", 1), documents.get(1));
+    }
+
+    @Test
+    public void setAndUnsetNestedFields() throws Exception
+    {
+        DBObject modifier = new BasicDBObject("$set", new BasicDBObject("address.zip", "1000"))
+            .append("$unset", new BasicDBObject("name", 1));
+        OplogOperations.apply(documents, entry("u", modifier, new BasicDBObject("_id", 1)));
+
+        DBObject document = documents.get(1);
+        assertNull(document.get("name"));
+        assertEquals("BA", ((DBObject) document.get("address")).get("city"));
+        assertEquals("1000", ((DBObject) document.get("address")).get("zip"));
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedOperator() throws Exception
+    {
+        OplogOperations.apply(documents, entry("u", new BasicDBObject("$rename", new BasicDBObject("name", "n")),
+            new BasicDBObject("_id", 1)));
+    }
+
+    private DBObject entry(String operation, DBObject object, DBObject query)
+    {
+        DBObject entry = new BasicDBObject(BackupConstants.OPERATION_FIELD, operation).append("o", object);
+        if(query != null)
+        {
+            entry.put("o2", query);
+        }
+        return entry;
+    }
+}
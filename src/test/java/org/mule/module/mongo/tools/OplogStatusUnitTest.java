@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) MuleSoft, Inc. All rights reserved. http://www.mulesoft.com
+ *
+ * The software in this package is published under the terms of the CPAL v1.0
+ * license, a copy of which has been included with this distribution in the
+ * LICENSE.md file.
+ */
+
+package org.mule.module.mongo.tools;
+
+import static org.junit.Assert.assertEquals;
+
+import org.bson.types.BSONTimestamp;
+import org.junit.Test;
+
+public class OplogStatusUnitTest
+{
+    private static final BSONTimestamp FIRST = new BSONTimestamp(1000, 1);
+    private static final BSONTimestamp LAST = new BSONTimestamp(5000, 1);
+
+    @Test
+    public void noCheckpoint() throws Exception
+    {
+        OplogStatus status = new OplogStatus(FIRST, LAST, null, 4000, 8000, 16000, 0.25);
+        assertEquals(OplogStatus.Alert.NO_CHECKPOINT, status.getAlert());
+        assertEquals(4000, status.getWindowSeconds());
+        assertEquals(1.0, status.getEntriesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void checkpointInsideWindow() throws Exception
+    {
+        OplogStatus status = new OplogStatus(FIRST, LAST, new BSONTimestamp(4000, 3), 4000, 8000, 16000, 0.25);
+        assertEquals(OplogStatus.Alert.OK, status.getAlert());
+        assertEquals(1000, status.getLagSeconds());
+        assertEquals(3000, status.getHeadroomSeconds());
+    }
+
+    @Test
+    public void checkpointCloseToOldestEntry() throws Exception
+    {
+        OplogStatus status = new OplogStatus(FIRST, LAST, new BSONTimestamp(1500, 1), 4000, 8000, 16000, 0.25);
+        assertEquals(OplogStatus.Alert.WARNING, status.getAlert());
+    }
+
+    @Test
+    public void checkpointFellOffOplog() throws Exception
+    {
+        OplogStatus status = new OplogStatus(FIRST, LAST, new BSONTimestamp(1000, 0), 4000, 8000, 16000, 0.25);
+        assertEquals(OplogStatus.Alert.GAP, status.getAlert());
+    }
+
+    @Test
+    public void quietDatabaseHasNoGap() throws Exception
+    {
+        BSONTimestamp checkpoint = new BSONTimestamp(500, 1);
+        assertEquals(OplogStatus.Alert.OK,
+            new OplogStatus(FIRST, LAST, null, checkpoint, 4000, 8000, 16000, 0.25).getAlert());
+        assertEquals(OplogStatus.Alert.OK,
+            new OplogStatus(FIRST, LAST, checkpoint, checkpoint, 4000, 8000, 16000, 0.25).getAlert());
+        assertEquals(OplogStatus.Alert.GAP,
+            new OplogStatus(FIRST, LAST, new BSONTimestamp(4500, 1), checkpoint, 4000, 8000, 16000, 0.25).getAlert());
+    }
+}